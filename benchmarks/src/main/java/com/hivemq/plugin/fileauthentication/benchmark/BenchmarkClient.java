@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.benchmark;
+
+import com.google.common.base.Optional;
+import com.hivemq.spi.security.ClientCredentialsData;
+import com.hivemq.spi.security.SslClientCertificate;
+
+import java.net.InetAddress;
+
+/**
+ * Immutable {@link ClientCredentialsData}, so no mocking framework is involved in the measured code.
+ */
+class BenchmarkClient implements ClientCredentialsData {
+
+    private final String clientId;
+    private final Optional<String> username;
+    private final Optional<String> password;
+    private final Optional<InetAddress> inetAddress;
+
+    BenchmarkClient(final String clientId, final String username, final String password, final InetAddress inetAddress) {
+        this.clientId = clientId;
+        this.username = Optional.of(username);
+        this.password = Optional.of(password);
+        this.inetAddress = Optional.of(inetAddress);
+    }
+
+    @Override
+    public Optional<String> getPassword() {
+        return password;
+    }
+
+    @Override
+    public Optional<byte[]> getPasswordBytes() {
+        return Optional.absent();
+    }
+
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public Optional<String> getUsername() {
+        return username;
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return false;
+    }
+
+    @Override
+    public Optional<SslClientCertificate> getCertificate() {
+        return Optional.absent();
+    }
+
+    @Override
+    public boolean isAnonymous() {
+        return false;
+    }
+
+    @Override
+    public boolean isBridge() {
+        return false;
+    }
+
+    @Override
+    public Optional<InetAddress> getInetAddress() {
+        return inetAddress;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.benchmark;
+
+import com.google.common.io.Resources;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks once for each thread count from 1 to all available processors and writes the results of
+ * each run as JSON to <code>target/jmh/&lt;plugin version&gt;/threads-&lt;count&gt;.json</code>, so the results of two
+ * plugin versions can be compared file by file.
+ * <p/>
+ * All JMH command line options are supported. If a thread count is given with <code>-t</code>, only this thread
+ * count is run.
+ */
+public class BenchmarkRunner {
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        final List<Integer> threadCounts = new ArrayList<>();
+        if (commandLineOptions.getThreads().hasValue()) {
+            threadCounts.add(commandLineOptions.getThreads().get());
+        } else {
+            threadCounts.addAll(threadCounts(Runtime.getRuntime().availableProcessors()));
+        }
+
+        final File resultFolder = new File("target/jmh", pluginVersion());
+        if (!resultFolder.isDirectory() && !resultFolder.mkdirs()) {
+            throw new IOException("Not able to create result folder " + resultFolder.getAbsolutePath());
+        }
+
+        for (Integer threads : threadCounts) {
+            new Runner(new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultFolder, "threads-" + threads + ".json").getPath())
+                    .build()).run();
+        }
+    }
+
+    /**
+     * @return 1, 2, 4, ... up to and including the given number of processors
+     */
+    static List<Integer> threadCounts(final int processors) {
+        final List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+        return threadCounts;
+    }
+
+    private static String pluginVersion() throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream in = Resources.getResource("benchmark.properties").openStream()) {
+            properties.load(in);
+        }
+        return properties.getProperty("plugin.version");
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.benchmark;
+
+import com.google.common.base.Charsets;
+import org.bouncycastle.util.encoders.Base64;
+import org.jasypt.digest.StandardStringDigester;
+import org.jasypt.salt.FixedStringSaltGenerator;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+
+/**
+ * Creates the password entries of a credentials file like the file authentication plugin utility does.
+ */
+class CredentialLines {
+
+    static final String SEPARATION_CHAR = "$";
+
+    private CredentialLines() {
+    }
+
+    /**
+     * @return a hash which contains the random salt of the digester in front of the digest
+     */
+    static String hashed(final String algorithm, final int iterations, final String password) {
+        final StandardStringDigester digester = new StandardStringDigester();
+        digester.setAlgorithm(algorithm);
+        digester.setIterations(iterations);
+        return digester.digest(password);
+    }
+
+    /**
+     * @return the salt and the hash, with the salt first
+     */
+    static String salted(final String algorithm, final int iterations, final String password, final String salt) {
+        final FixedStringSaltGenerator saltGenerator = new FixedStringSaltGenerator();
+        saltGenerator.setSalt(salt);
+
+        final StandardStringDigester digester = new StandardStringDigester();
+        digester.setAlgorithm(algorithm);
+        digester.setIterations(iterations);
+        digester.setSaltGenerator(saltGenerator);
+        digester.setSaltSizeBytes(salt.length());
+
+        return Base64.toBase64String(salt.getBytes(Charsets.UTF_8)) + SEPARATION_CHAR + digester.digest(password);
+    }
+
+    /**
+     * @param algorithm the message digest of the HMAC, e.g. SHA-256
+     * @return a self-describing password, hashed with PBKDF2 and as long as the output of the HMAC
+     */
+    static String pbkdf2(final String algorithm, final int iterations, final String password, final String salt) {
+        final String digest = algorithm.replace("-", "");
+        final byte[] saltBytes = salt.getBytes(Charsets.UTF_8);
+        try {
+            final int length = Mac.getInstance("Hmac" + digest).getMacLength();
+            final byte[] hash = SecretKeyFactory.getInstance("PBKDF2WithHmac" + digest)
+                    .generateSecret(new PBEKeySpec(password.toCharArray(), saltBytes, iterations, length * 8))
+                    .getEncoded();
+            return "$pbkdf2-" + digest.toLowerCase(Locale.ENGLISH) + "$" + iterations + "$"
+                    + Base64.toBase64String(saltBytes) + "$" + Base64.toBase64String(hash);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("PBKDF2 with " + algorithm + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import com.hivemq.plugin.fileauthentication.authentication.FileAuthenticator;
+import com.hivemq.plugin.fileauthentication.authentication.PasswordComparator;
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialsConfiguration;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures {@link FileAuthenticator#checkCredentials} for all password modes, with and without cache hits.
+ * <p/>
+ * The configuration is answered by method name instead of stubbing single methods, so the benchmark also runs
+ * against older versions of the plugin, which do not have all getters of the current {@link Configuration}.
+ * Classes of newer versions are only used by reflection. Older versions do not support {@link PasswordMode#PBKDF2},
+ * these combinations fail in their setup.
+ * <p/>
+ * The full matrix of parameters takes long, single values can be selected with the -p option of JMH,
+ * e.g. -p mode=PBKDF2 -p cache=MISS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileAuthenticatorBenchmark {
+
+    static final int USERS = 1000;
+
+    public enum PasswordMode {
+        PLAINTEXT,
+        HASHED,
+        SALTED,
+        /**
+         * Self-describing passwords hashed with PBKDF2 and the HMAC of the algorithm
+         */
+        PBKDF2
+    }
+
+    public enum CacheMode {
+        /**
+         * All credentials are answered from the cache after the warmup
+         */
+        HIT,
+        /**
+         * The cache has no capacity, so every login verifies the password
+         */
+        MISS
+    }
+
+    @Param({"PLAINTEXT", "HASHED", "SALTED", "PBKDF2"})
+    public PasswordMode mode;
+
+    @Param({"HIT", "MISS"})
+    public CacheMode cache;
+
+    @Param({"SHA-256", "SHA-512"})
+    public String algorithm;
+
+    @Param({"100", "1000", "10000"})
+    public int iterations;
+
+    FileAuthenticator fileAuthenticator;
+
+    BenchmarkClient[] clients;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final Properties credentials = new Properties();
+        clients = new BenchmarkClient[USERS];
+        for (int i = 0; i < USERS; i++) {
+            final String username = "user" + i;
+            final String password = "password" + i;
+            credentials.setProperty(username, credentialLine(password, "salt" + i));
+            clients[i] = new BenchmarkClient("client" + i, username, password, InetAddress.getByAddress(
+                    new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+        }
+
+        // twice the users, because the size limit of the cache is enforced per segment
+        final int cacheSize = cache == CacheMode.HIT ? 2 * USERS : 0;
+        final ImmutableMap.Builder<String, Object> credentialValues = ImmutableMap.<String, Object>builder()
+                .put("getProperties", credentials);
+        if (hasMethod(CredentialsConfiguration.class, "getCredentials")) {
+            credentialValues.put("getCredentials", credentialStore(credentials));
+        }
+        final CredentialsConfiguration credentialsConfiguration = answering(CredentialsConfiguration.class,
+                credentialValues.build(), credentials);
+
+        final Map<String, Object> settings = ImmutableMap.<String, Object>builder()
+                .put("getCredentialsConfiguration", credentialsConfiguration)
+                .put("isHashed", mode != PasswordMode.PLAINTEXT)
+                .put("isSalted", mode == PasswordMode.SALTED)
+                .put("isSaltFirst", true)
+                .put("getSeparationChar", CredentialLines.SEPARATION_CHAR)
+                .put("getHashingAlgorithm", algorithm)
+                .put("getHashingIterations", iterations)
+                .put("getCachingTime", 3600)
+                .put("getCacheSize", cacheSize)
+                .put("getFailedCachingTime", 3600)
+                .put("getFailedCacheSize", cacheSize)
+                .build();
+
+        fileAuthenticator = new FileAuthenticator(answering(Configuration.class, settings, credentials), new PasswordComparator());
+
+        for (BenchmarkClient client : clients) {
+            if (!fileAuthenticator.checkCredentials(client)) {
+                throw new IllegalStateException("Credentials of " + client.getUsername().get() + " were not accepted");
+            }
+        }
+    }
+
+    private String credentialLine(final String password, final String salt) {
+        switch (mode) {
+            case HASHED:
+                return CredentialLines.hashed(algorithm, iterations, password);
+            case SALTED:
+                return CredentialLines.salted(algorithm, iterations, password, salt);
+            case PBKDF2:
+                return CredentialLines.pbkdf2(algorithm, iterations, password, salt);
+            default:
+                return password;
+        }
+    }
+
+    /**
+     * Each thread logs in all users one after another
+     */
+    @State(Scope.Thread)
+    public static class ClientIndex {
+        int next;
+    }
+
+    @Benchmark
+    public boolean checkCredentials(final ClientIndex index) {
+        final BenchmarkClient client = clients[index.next];
+        index.next = (index.next + 1) % USERS;
+        return fileAuthenticator.checkCredentials(client);
+    }
+
+    private static boolean hasMethod(final Class<?> type, final String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the credentials into the type returned by getCredentials of the plugin version under test. The type is
+     * only known by reflection, because older versions do not have it.
+     */
+    private static Object credentialStore(final Properties credentials) throws Exception {
+        final StringWriter writer = new StringWriter();
+        credentials.store(writer, null);
+
+        final Class<?> storeType = CredentialsConfiguration.class.getMethod("getCredentials").getReturnType();
+        return storeType.getMethod("load", Reader.class).invoke(null, new StringReader(writer.toString()));
+    }
+
+    /**
+     * Creates a mock which answers each method with the value for its name. Credential lookups by username are
+     * answered from the given credentials.
+     */
+    private static <T> T answering(final Class<T> type, final Map<String, Object> values, final Properties credentials) {
+        return mock(type, new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                final String name = invocation.getMethod().getName();
+                if (values.containsKey(name)) {
+                    return values.get(name);
+                }
+                if (name.equals("getUser")) {
+                    return credentials.getProperty((String) invocation.getArguments()[0]);
+                }
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        });
+    }
+}
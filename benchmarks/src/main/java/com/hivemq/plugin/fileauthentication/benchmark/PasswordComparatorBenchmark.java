@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.benchmark;
+
+import com.hivemq.plugin.fileauthentication.authentication.PasswordComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single password verification of {@link PasswordComparator} for several algorithms, iterations and
+ * digest providers.
+ * <p/>
+ * The digest provider is set by reflection, so the benchmark also runs against older versions of the plugin, which
+ * always use BouncyCastle. Other providers fail in their setup with these versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordComparatorBenchmark {
+
+    private static final String PASSWORD = "password";
+    private static final String SALT = "salt";
+
+    @Param({"MD5", "SHA-256", "SHA-512"})
+    public String algorithm;
+
+    @Param({"1", "100", "1000"})
+    public int iterations;
+
+    @Param({"BOUNCYCASTLE", "JDK"})
+    public String provider;
+
+    PasswordComparator passwordComparator;
+
+    String hash;
+    String saltedHash;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        passwordComparator = new PasswordComparator();
+        setDigestProvider(passwordComparator, provider);
+        hash = CredentialLines.hashed(algorithm, iterations, PASSWORD);
+        final String saltedLine = CredentialLines.salted(algorithm, iterations, PASSWORD, SALT);
+        saltedHash = saltedLine.substring(saltedLine.indexOf(CredentialLines.SEPARATION_CHAR) + 1);
+
+        if (!hashed() || !salted()) {
+            throw new IllegalStateException("The hashes were not accepted");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setDigestProvider(final PasswordComparator passwordComparator, final String provider) throws Exception {
+        for (Method method : PasswordComparator.class.getMethods()) {
+            if (method.getName().equals("setDigestProvider")) {
+                final Class<? extends Enum> providerType = method.getParameterTypes()[0].asSubclass(Enum.class);
+                method.invoke(passwordComparator, Enum.valueOf(providerType, provider));
+                return;
+            }
+        }
+        if (!provider.equals("BOUNCYCASTLE")) {
+            throw new UnsupportedOperationException("This version of the plugin only supports the BOUNCYCASTLE provider");
+        }
+    }
+
+    @Benchmark
+    public boolean hashed() {
+        return passwordComparator.validateHashedPassword(algorithm, PASSWORD, hash, iterations);
+    }
+
+    @Benchmark
+    public boolean salted() {
+        return passwordComparator.validateHashedAndSaltedPassword(algorithm, PASSWORD, saltedHash, iterations, SALT);
+    }
+
+    @Benchmark
+    public boolean plaintext() {
+        return passwordComparator.validatePlaintextPassword(PASSWORD, PASSWORD);
+    }
+}
@@ -18,8 +18,12 @@ package com.hivemq.plugin.fileauthentication;
 
 import com.google.inject.Inject;
 import com.hivemq.plugin.fileauthentication.authentication.FileAuthenticator;
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
 import com.hivemq.spi.PluginEntryPoint;
+import com.hivemq.spi.callback.CallbackPriority;
+import com.hivemq.spi.callback.events.broker.OnBrokerStop;
 import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.services.BlockingMetricService;
 
 import javax.annotation.PostConstruct;
 
@@ -33,6 +37,8 @@ public class FileAuthMain extends PluginEntryPoint {
 
     private FileAuthenticator fileAuthenticator;
     private CallbackRegistry callbackRegistry;
+    private BlockingMetricService metricService;
+    private Configuration configuration;
 
     /**
      * Inject callback class and callback registry
@@ -42,18 +48,35 @@ public class FileAuthMain extends PluginEntryPoint {
      *
      * @param fileAuthenticator implementation of OnAuthenticationCallback
      * @param callbackRegistry  callback registry
+     * @param metricService     metric service, which provides the metric registry of HiveMQ
+     * @param configuration     configuration, which stops watching its files when the broker stops
      */
     @Inject
-    public FileAuthMain(final FileAuthenticator fileAuthenticator, final CallbackRegistry callbackRegistry) {
+    public FileAuthMain(final FileAuthenticator fileAuthenticator, final CallbackRegistry callbackRegistry,
+                        final BlockingMetricService metricService, final Configuration configuration) {
         this.fileAuthenticator = fileAuthenticator;
         this.callbackRegistry = callbackRegistry;
+        this.metricService = metricService;
+        this.configuration = configuration;
     }
 
     /**
-     * Add callback after injection took place.
+     * Add callbacks and metrics after injection took place.
      */
     @PostConstruct
     public void postConstruct() {
         callbackRegistry.addCallback(fileAuthenticator);
+        fileAuthenticator.registerMetrics(metricService.getMetricRegistry());
+        callbackRegistry.addCallback(new OnBrokerStop() {
+            @Override
+            public void onBrokerStop() {
+                configuration.shutdown();
+            }
+
+            @Override
+            public int priority() {
+                return CallbackPriority.LOW;
+            }
+        });
     }
 }
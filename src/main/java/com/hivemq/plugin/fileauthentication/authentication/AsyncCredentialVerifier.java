@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs credential verifications on a dedicated thread pool, or on the calling thread.
+ * <p/>
+ * Concurrent verifications of the same credentials against the same credential of the user share one in-flight
+ * future, so every distinct username/password combination is hashed at most once, no matter how many clients connect
+ * with it at the same time. A login after a change of the user never joins a verification against the previous
+ * credential.
+ */
+public class AsyncCredentialVerifier {
+
+    private final ExecutorService executorService;
+    private final ConcurrentMap<Flight, ListenableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final int threads;
+
+    /**
+     * @param threads number of threads used for the verification
+     */
+    public AsyncCredentialVerifier(final int threads) {
+        this(threads, Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("file-auth-verifier-%d").setDaemon(true).build()));
+    }
+
+    /**
+     * @return a verifier which runs the verifications on the thread which starts them, concurrent verifications of the
+     * same credentials wait for it
+     */
+    static AsyncCredentialVerifier onCallingThread() {
+        return new AsyncCredentialVerifier(0, MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * @param threads         number of threads used for the verification
+     * @param executorService executor the verifications are handed to, e.g. a {@link CredentialBatchExecutor}
+     */
+    AsyncCredentialVerifier(final int threads, final ExecutorService executorService) {
+        this.threads = threads;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Verifies credentials asynchronously. If a verification for the same key and credential is still running, its
+     * future is returned instead of starting a new one.
+     *
+     * @param cacheKey     cache key of the credentials
+     * @param credential   the credential of the user the password is verified against, null if the user is unknown
+     * @param verification the actual verification
+     * @return future with the result of the verification
+     */
+    public ListenableFuture<Boolean> verify(final CredentialCacheKey cacheKey, final ParsedCredential credential,
+                                            final Callable<Boolean> verification) {
+        final Flight key = new Flight(cacheKey, credential);
+        final ListenableFuture<Boolean> running = inFlight.get(key);
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+
+        final ListenableFutureTask<Boolean> task = ListenableFutureTask.create(verification);
+        ListenableFuture<Boolean> existing;
+        while ((existing = inFlight.putIfAbsent(key, task)) != null) {
+            if (!existing.isDone()) {
+                return existing;
+            }
+            // finished, but its listener did not remove it yet
+            inFlight.remove(key, existing);
+        }
+
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.remove(key, task);
+            }
+        }, MoreExecutors.directExecutor());
+
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the verifier was shut down because of a configuration change, so the caller verifies itself
+            task.run();
+        }
+        return task;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Stops the thread pool after all running verifications are done
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    /**
+     * Key of a running verification
+     */
+    private static final class Flight {
+
+        private final CredentialCacheKey cacheKey;
+        private final ParsedCredential credential;
+
+        private Flight(final CredentialCacheKey cacheKey, final ParsedCredential credential) {
+            this.cacheKey = cacheKey;
+            this.credential = credential;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Flight)) {
+                return false;
+            }
+            final Flight that = (Flight) o;
+            return cacheKey.equals(that.cacheKey) && Objects.equal(credential, that.credential);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * cacheKey.hashCode() + (credential == null ? 0 : credential.hashCode());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Immutable copy of all settings of the {@link FileAuthenticator}, read from the {@link Configuration} at once.
+ */
+public final class AuthenticatorSettings {
+
+    private static final Logger log = LoggerFactory.getLogger(AuthenticatorSettings.class);
+
+    private final boolean hashed;
+    private final boolean salted;
+    private final boolean saltFirst;
+    private final String separationChar;
+    private final String algorithm;
+    private final int iterations;
+    private final DigestProvider digestProvider;
+    private final int cachingTimeInSeconds;
+    private final int cacheSize;
+    private final int failedCachingTimeInSeconds;
+    private final int failedCacheSize;
+    private final boolean asyncAuthentication;
+    private final int asyncAuthenticationThreads;
+    private final boolean batchVerification;
+    private final int batchVerificationWindow;
+    private final int batchVerificationSize;
+    private final boolean cacheSnapshot;
+    private final int cacheSnapshotInterval;
+    private final File cacheSnapshotFile;
+    private final File cacheSnapshotKeyFile;
+    private final boolean throttling;
+    private final int throttlingIpRate;
+    private final int throttlingIpBurst;
+    private final int throttlingUserRate;
+    private final int throttlingUserBurst;
+    private final boolean offHeapCredentials;
+    private final boolean verifiedCredentials;
+    private final int verifiedCredentialsSize;
+    private final boolean rehashOnLogin;
+    private final String rehashAlgorithm;
+    private final int rehashIterations;
+    private final int rehashInterval;
+
+    private AuthenticatorSettings(final Configuration configuration) {
+        hashed = configuration.isHashed();
+        salted = configuration.isSalted();
+        saltFirst = configuration.isSaltFirst();
+        separationChar = configuration.getSeparationChar();
+        algorithm = configuration.getHashingAlgorithm();
+        iterations = configuration.getHashingIterations();
+        digestProvider = DigestProvider.fromName(configuration.getDigestProvider());
+        cachingTimeInSeconds = configuration.getCachingTime();
+        cacheSize = configuration.getCacheSize();
+        failedCachingTimeInSeconds = configuration.getFailedCachingTime();
+        failedCacheSize = configuration.getFailedCacheSize();
+        asyncAuthentication = configuration.isAsyncAuthentication();
+        asyncAuthenticationThreads = configuration.getAsyncAuthenticationThreads();
+        batchVerification = configuration.isBatchVerification();
+        batchVerificationWindow = configuration.getBatchVerificationWindow();
+        batchVerificationSize = configuration.getBatchVerificationSize();
+        cacheSnapshot = configuration.isCacheSnapshot();
+        cacheSnapshotInterval = configuration.getCacheSnapshotInterval();
+        cacheSnapshotFile = configuration.getCacheSnapshotFile();
+        cacheSnapshotKeyFile = configuration.getCacheSnapshotKeyFile();
+        throttling = configuration.isThrottling();
+        throttlingIpRate = configuration.getThrottlingIpRate();
+        throttlingIpBurst = configuration.getThrottlingIpBurst();
+        throttlingUserRate = configuration.getThrottlingUserRate();
+        throttlingUserBurst = configuration.getThrottlingUserBurst();
+        offHeapCredentials = configuration.isOffHeapCredentials();
+        verifiedCredentials = configuration.isVerifiedCredentials();
+        verifiedCredentialsSize = configuration.getVerifiedCredentialsSize();
+        rehashOnLogin = configuration.isRehashOnLogin();
+        rehashAlgorithm = configuration.getRehashAlgorithm();
+        rehashIterations = configuration.getRehashIterations();
+        rehashInterval = configuration.getRehashInterval();
+    }
+
+    /**
+     * Reads all settings from the configuration
+     *
+     * @param configuration the plugin configuration
+     * @return the new settings
+     */
+    public static AuthenticatorSettings read(final Configuration configuration) {
+        final AuthenticatorSettings settings = new AuthenticatorSettings(configuration);
+        settings.log();
+        return settings;
+    }
+
+    private void log() {
+        log.debug("File Authentication Configuration:");
+        log.debug("hashed: {}", hashed);
+        log.debug("salted: {}", salted);
+        log.debug("salt first: {}", saltFirst);
+        log.debug("iterations: {}", iterations);
+        log.debug("algorithm: {}", algorithm);
+        log.debug("digestProvider: {}", digestProvider);
+        log.debug("separationChar: {}", separationChar);
+        log.debug("cachingTimeInSeconds: {}", cachingTimeInSeconds);
+        log.debug("cachingSize: {}", cacheSize);
+        log.debug("failedCachingTimeInSeconds: {}", failedCachingTimeInSeconds);
+        log.debug("failedCachingSize: {}", failedCacheSize);
+        log.debug("asyncAuthentication: {}", asyncAuthentication);
+        log.debug("asyncAuthenticationThreads: {}", asyncAuthenticationThreads);
+        log.debug("batchVerification: {}", batchVerification);
+        log.debug("batchVerificationWindow: {}", batchVerificationWindow);
+        log.debug("batchVerificationSize: {}", batchVerificationSize);
+        log.debug("cacheSnapshot: {}", cacheSnapshot);
+        log.debug("cacheSnapshotInterval: {}", cacheSnapshotInterval);
+        log.debug("cacheSnapshotFile: {}", cacheSnapshotFile);
+        log.debug("cacheSnapshotKeyFile: {}", cacheSnapshotKeyFile);
+        log.debug("throttling: {}", throttling);
+        log.debug("throttlingIpRate: {}", throttlingIpRate);
+        log.debug("throttlingIpBurst: {}", throttlingIpBurst);
+        log.debug("throttlingUserRate: {}", throttlingUserRate);
+        log.debug("throttlingUserBurst: {}", throttlingUserBurst);
+        log.debug("offHeapCredentials: {}", offHeapCredentials);
+        log.debug("verifiedCredentials: {}", verifiedCredentials);
+        log.debug("verifiedCredentialsSize: {}", verifiedCredentialsSize);
+        log.debug("rehashOnLogin: {}", rehashOnLogin);
+        log.debug("rehashAlgorithm: {}", rehashAlgorithm);
+        log.debug("rehashIterations: {}", rehashIterations);
+        log.debug("rehashInterval: {}", rehashInterval);
+    }
+
+    /**
+     * @return fingerprint of all settings which influence how a credential line is verified
+     */
+    public long getHashingFingerprint() {
+        return new CredentialDecoder(hashed, salted, saltFirst, separationChar, algorithm, iterations).getFingerprint();
+    }
+
+    public boolean isHashed() {
+        return hashed;
+    }
+
+    public boolean isSalted() {
+        return salted;
+    }
+
+    public boolean isSaltFirst() {
+        return saltFirst;
+    }
+
+    public String getSeparationChar() {
+        return separationChar;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public DigestProvider getDigestProvider() {
+        return digestProvider;
+    }
+
+    public int getCachingTimeInSeconds() {
+        return cachingTimeInSeconds;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getFailedCachingTimeInSeconds() {
+        return failedCachingTimeInSeconds;
+    }
+
+    public int getFailedCacheSize() {
+        return failedCacheSize;
+    }
+
+    public boolean isAsyncAuthentication() {
+        return asyncAuthentication;
+    }
+
+    public int getAsyncAuthenticationThreads() {
+        return asyncAuthenticationThreads;
+    }
+
+    public boolean isBatchVerification() {
+        return batchVerification;
+    }
+
+    /**
+     * @return maximum time in milliseconds a verification waits for its batch to fill
+     */
+    public int getBatchVerificationWindow() {
+        return batchVerificationWindow;
+    }
+
+    public int getBatchVerificationSize() {
+        return batchVerificationSize;
+    }
+
+    public boolean isCacheSnapshot() {
+        return cacheSnapshot;
+    }
+
+    public int getCacheSnapshotInterval() {
+        return cacheSnapshotInterval;
+    }
+
+    public File getCacheSnapshotFile() {
+        return cacheSnapshotFile;
+    }
+
+    public File getCacheSnapshotKeyFile() {
+        return cacheSnapshotKeyFile;
+    }
+
+    public boolean isOffHeapCredentials() {
+        return offHeapCredentials;
+    }
+
+    public boolean isVerifiedCredentials() {
+        return verifiedCredentials;
+    }
+
+    public int getVerifiedCredentialsSize() {
+        return verifiedCredentialsSize;
+    }
+
+    public boolean isRehashOnLogin() {
+        return rehashOnLogin;
+    }
+
+    /**
+     * @return the target algorithm as id of the self-describing format, e.g. pbkdf2-sha256
+     */
+    public String getRehashAlgorithm() {
+        return rehashAlgorithm;
+    }
+
+    public int getRehashIterations() {
+        return rehashIterations;
+    }
+
+    public int getRehashInterval() {
+        return rehashInterval;
+    }
+
+    public boolean isThrottling() {
+        return throttling;
+    }
+
+    public int getThrottlingIpRate() {
+        return throttlingIpRate;
+    }
+
+    public int getThrottlingIpBurst() {
+        return throttlingIpBurst;
+    }
+
+    public int getThrottlingUserRate() {
+        return throttlingUserRate;
+    }
+
+    public int getThrottlingUserBurst() {
+        return throttlingUserBurst;
+    }
+}
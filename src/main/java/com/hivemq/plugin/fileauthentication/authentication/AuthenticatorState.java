@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+/**
+ * Immutable state of the {@link FileAuthenticator}: the settings and everything that was created for them.
+ * <p/>
+ * A reload creates a new state and publishes it with a single write, so an authentication reads one state and
+ * never sees a half-applied configuration, like the new algorithm together with the old iterations.
+ */
+final class AuthenticatorState {
+
+    private final AuthenticatorSettings settings;
+    private final CredentialIndex credentialIndex;
+    private final CredentialResultCache cache;
+    private final AsyncCredentialVerifier asyncVerifier;
+    private final LoginThrottle loginThrottle;
+    private final CredentialRehasher rehasher;
+    private final VerifiedCredentials verifiedCredentials;
+
+    /**
+     * @param asyncVerifier       null if asynchronous authentication is disabled
+     * @param loginThrottle       null if throttling is disabled
+     * @param rehasher            null if re-hashing on login is disabled
+     * @param verifiedCredentials null if verified credentials are not remembered
+     */
+    AuthenticatorState(final AuthenticatorSettings settings, final CredentialIndex credentialIndex,
+                       final CredentialResultCache cache, final AsyncCredentialVerifier asyncVerifier,
+                       final LoginThrottle loginThrottle, final CredentialRehasher rehasher,
+                       final VerifiedCredentials verifiedCredentials) {
+        this.settings = settings;
+        this.credentialIndex = credentialIndex;
+        this.cache = cache;
+        this.asyncVerifier = asyncVerifier;
+        this.loginThrottle = loginThrottle;
+        this.rehasher = rehasher;
+        this.verifiedCredentials = verifiedCredentials;
+    }
+
+    /**
+     * @return a copy of this state with another credential index
+     */
+    AuthenticatorState withCredentialIndex(final CredentialIndex credentialIndex) {
+        return new AuthenticatorState(settings, credentialIndex, cache, asyncVerifier, loginThrottle, rehasher, verifiedCredentials);
+    }
+
+    AuthenticatorSettings getSettings() {
+        return settings;
+    }
+
+    CredentialIndex getCredentialIndex() {
+        return credentialIndex;
+    }
+
+    CredentialResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the verifier or null if asynchronous authentication is disabled
+     */
+    AsyncCredentialVerifier getAsyncVerifier() {
+        return asyncVerifier;
+    }
+
+    /**
+     * @return the throttle or null if throttling is disabled
+     */
+    LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+
+    /**
+     * @return the rehasher or null if re-hashing on login is disabled
+     */
+    CredentialRehasher getRehasher() {
+        return rehasher;
+    }
+
+    /**
+     * @return the verified credentials or null if they are not remembered
+     */
+    VerifiedCredentials getVerifiedCredentials() {
+        return verifiedCredentials;
+    }
+}
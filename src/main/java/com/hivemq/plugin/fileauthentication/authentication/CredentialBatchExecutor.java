@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor for credential verifications, which collects the submitted verifications for a short window or until a
+ * batch is full and then runs the whole batch on a {@link ForkJoinPool}.
+ * <p/>
+ * A batch is split in halves recursively, so idle workers steal parts of it and the hashes of a reconnect storm are
+ * spread evenly over all cores. The same credentials never reach a batch twice, because the
+ * {@link AsyncCredentialVerifier} shares one task for each username and password digest in flight.
+ * <p/>
+ * The time from submission until a verification is done and the size of every batch are recorded in the given
+ * metrics. The timer provides the throughput of the verifications as well.
+ */
+class CredentialBatchExecutor extends AbstractExecutorService {
+
+    private final ForkJoinPool pool;
+    private final ScheduledExecutorService scheduler;
+    private final int windowMillis;
+    private final int batchSize;
+    private final Timer latency;
+    private final Histogram batchSizes;
+
+    private final Object lock = new Object();
+
+    /**
+     * Verifications of the current batch, null if no batch was started. Guarded by lock.
+     */
+    private List<Pending> pending;
+
+    /**
+     * Guarded by lock
+     */
+    private boolean shutdown;
+
+    /**
+     * @param threads      parallelism of the fork-join pool
+     * @param windowMillis maximum time a verification waits for its batch to fill, 0 dispatches every verification
+     *                     on its own
+     * @param batchSize    a batch is dispatched as soon as it contains this many verifications
+     * @param latency      timer for the time from submission until a verification is done
+     * @param batchSizes   histogram of the sizes of the dispatched batches
+     */
+    CredentialBatchExecutor(final int threads, final int windowMillis, final int batchSize,
+                            final Timer latency, final Histogram batchSizes) {
+        this.windowMillis = windowMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.latency = latency;
+        this.batchSizes = batchSizes;
+        this.pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("file-auth-batch-verifier-" + thread.getPoolIndex());
+                return thread;
+            }
+        }, null, false);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-auth-batch-window-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Adds the verification to the current batch and dispatches the batch if it is full. The first verification
+     * of a batch schedules its dispatch after the window.
+     *
+     * @throws RejectedExecutionException if the executor was shut down
+     */
+    @Override
+    public void execute(final Runnable command) {
+        final List<Pending> batch;
+        synchronized (lock) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The batch verifier was shut down");
+            }
+            if (pending == null) {
+                pending = new ArrayList<>();
+                if (windowMillis > 0 && batchSize > 1) {
+                    scheduleDispatch(pending);
+                }
+            }
+            pending.add(new Pending(command, System.nanoTime()));
+            if (pending.size() < batchSize && windowMillis > 0) {
+                return;
+            }
+            batch = pending;
+            pending = null;
+        }
+        dispatch(batch);
+    }
+
+    private void scheduleDispatch(final List<Pending> batch) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    // the batch was dispatched already, because it was full
+                    if (pending != batch) {
+                        return;
+                    }
+                    pending = null;
+                }
+                dispatch(batch);
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(final List<Pending> batch) {
+        batchSizes.update(batch.size());
+        try {
+            pool.execute(new BatchTask(batch, 0, batch.size()));
+        } catch (RejectedExecutionException e) {
+            // the pool was shut down while the batch was taken, the verifications must complete anyway
+            for (Pending verification : batch) {
+                run(verification);
+            }
+        }
+    }
+
+    private void run(final Pending verification) {
+        try {
+            verification.command.run();
+        } finally {
+            latency.update(System.nanoTime() - verification.submittedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Dispatches the current batch and stops the threads after all verifications are done
+     */
+    @Override
+    public void shutdown() {
+        final List<Pending> batch;
+        synchronized (lock) {
+            shutdown = true;
+            batch = pending;
+            pending = null;
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        scheduler.shutdown();
+        pool.shutdown();
+    }
+
+    /**
+     * Same as {@link #shutdown()}, the verifications of the current batch are completed as well, because every
+     * one of them has clients waiting for its result.
+     *
+     * @return an empty list
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (lock) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return isShutdown() && pool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Runs a range of a batch, splitting it until a single verification is left
+     */
+    private class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Pending> batch;
+        private final int from;
+        private final int to;
+
+        BatchTask(final List<Pending> batch, final int from, final int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                run(batch.get(from));
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(batch, from, middle), new BatchTask(batch, middle, to));
+        }
+    }
+
+    private static class Pending {
+
+        private final Runnable command;
+        private final long submittedNanos;
+
+        Pending(final Runnable command, final long submittedNanos) {
+            this.command = command;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Longs;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+
+/**
+ * Key of the credential cache.
+ * <p/>
+ * It consists of the username and the first 128 bit of a keyed digest of the password, so the plaintext password
+ * is never kept in the cache. The hash code is computed once on creation.
+ */
+public final class CredentialCacheKey {
+
+    private final String username;
+    private final long digestHigh;
+    private final long digestLow;
+    private final int hashCode;
+
+    CredentialCacheKey(final String username, final long digestHigh, final long digestLow) {
+        this.username = username;
+        this.digestHigh = digestHigh;
+        this.digestLow = digestLow;
+        this.hashCode = 31 * (31 * username.hashCode() + Longs.hashCode(digestHigh)) + Longs.hashCode(digestLow);
+    }
+
+    /**
+     * Creates a new cache key
+     *
+     * @param keyedDigest digest used to derive the password digest
+     * @param username    username provided by the client
+     * @param password    plaintext password provided by the client
+     * @return the cache key for this username/password combination
+     */
+    public static CredentialCacheKey create(final KeyedDigest keyedDigest, final String username, final String password) {
+        final byte[] digest = keyedDigest.digest(password.getBytes(Charsets.UTF_8));
+        return new CredentialCacheKey(username,
+                Longs.fromBytes(digest[0], digest[1], digest[2], digest[3], digest[4], digest[5], digest[6], digest[7]),
+                Longs.fromBytes(digest[8], digest[9], digest[10], digest[11], digest[12], digest[13], digest[14], digest[15]));
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    long getDigestHigh() {
+        return digestHigh;
+    }
+
+    long getDigestLow() {
+        return digestLow;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final CredentialCacheKey that = (CredentialCacheKey) o;
+
+        return hashCode == that.hashCode
+                && digestHigh == that.digestHigh
+                && digestLow == that.digestLow
+                && username.equals(that.username);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Longs;
+import com.hivemq.plugin.fileauthentication.util.FilePermissionUtil;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Snapshot of successfully verified credentials, which is written to disk periodically and read on startup,
+ * so the cache is not empty after a restart of the broker.
+ * <p/>
+ * The snapshot never contains passwords. Each entry consists of the username, the keyed digest of the password
+ * from the {@link CredentialCacheKey}, a keyed fingerprint of the credential line the password was verified
+ * against and the time of the verification. The key of the digest is not part of the snapshot, it is kept in a
+ * separate key file, which only its owner can read, or in an environment variable. A snapshot without its key is
+ * useless, but anyone with both can test guessed passwords at the cost of a single HMAC each, so the key should not be
+ * readable by whoever can read the snapshot.
+ */
+public class CredentialCacheSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialCacheSnapshot.class);
+
+    private static final int MAGIC = 0x46414353;
+    private static final int VERSION = 2;
+
+    /**
+     * Environment variable with the Base64 encoded key, which is used instead of a key file
+     */
+    public static final String KEY_VARIABLE = "FILE_AUTH_CACHE_SNAPSHOT_KEY";
+
+    private final long createdMillis;
+    private final long settingsFingerprint;
+    private final List<Entry> entries;
+
+    private CredentialCacheSnapshot(final long createdMillis, final long settingsFingerprint, final List<Entry> entries) {
+        this.createdMillis = createdMillis;
+        this.settingsFingerprint = settingsFingerprint;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @param file the snapshot file
+     * @return the snapshot or absent if the file does not exist or can not be read
+     */
+    public static Optional<CredentialCacheSnapshot> read(final File file) {
+        if (!file.exists()) {
+            return Optional.absent();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Credential cache snapshot {} has an unsupported format and is ignored", file.getAbsolutePath());
+                return Optional.absent();
+            }
+
+            final long createdMillis = in.readLong();
+            final long settingsFingerprint = in.readLong();
+
+            final int count = in.readInt();
+            final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+            for (int i = 0; i < count; i++) {
+                final String username = in.readUTF();
+                final long digestHigh = in.readLong();
+                final long digestLow = in.readLong();
+                final long lineFingerprint = in.readLong();
+                final long verifiedMillis = in.readLong();
+                entries.add(new Entry(new CredentialCacheKey(username, digestHigh, digestLow), lineFingerprint, verifiedMillis));
+            }
+            return Optional.of(new CredentialCacheSnapshot(createdMillis, settingsFingerprint, entries.build()));
+
+        } catch (IOException | RuntimeException e) {
+            log.warn("Not able to read credential cache snapshot {}", file.getAbsolutePath());
+            log.debug("Original exception", e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and moves it to its final location afterwards,
+     * so a broken snapshot is never read.
+     *
+     * @param file                the snapshot file
+     * @param settingsFingerprint fingerprint of the hashing settings
+     * @param entries             the entries to write
+     * @throws IOException if the file could not be written
+     */
+    public static void write(final File file, final long settingsFingerprint, final Collection<Entry> entries) throws IOException {
+        final Path tempFile = new File(file.getAbsolutePath() + ".tmp").toPath();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(FilePermissionUtil.createOwnerOnly(tempFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(settingsFingerprint);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.getKey().getUsername());
+                out.writeLong(entry.getKey().getDigestHigh());
+                out.writeLong(entry.getKey().getDigestLow());
+                out.writeLong(entry.getLineFingerprint());
+                out.writeLong(entry.getVerifiedMillis());
+            }
+        }
+
+        Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the Base64 encoded key of the environment variable {@link #KEY_VARIABLE}, absent if it is not set
+     */
+    public static Optional<String> keyFromEnvironment() {
+        return Optional.fromNullable(System.getenv(KEY_VARIABLE));
+    }
+
+    /**
+     * @param encoded the Base64 encoded key
+     * @return the key or absent if it is not valid
+     */
+    public static Optional<byte[]> decodeKey(final String encoded) {
+        try {
+            final byte[] key = BaseEncoding.base64().decode(encoded.trim());
+            if (key.length == KeyedDigest.KEY_LENGTH) {
+                return Optional.of(key);
+            }
+        } catch (IllegalArgumentException e) {
+            // logged below
+        }
+        log.warn("The credential cache key in {} must be {} Base64 encoded bytes, it is ignored", KEY_VARIABLE, KeyedDigest.KEY_LENGTH);
+        return Optional.absent();
+    }
+
+    /**
+     * Reads the key of the digest, which was used for the cache keys and the line fingerprints of a snapshot
+     *
+     * @param keyFile the key file
+     * @return the key or absent if the file does not exist, can not be read or can be read by other users than its owner
+     */
+    public static Optional<byte[]> readKey(final File keyFile) {
+        if (!keyFile.exists()) {
+            return Optional.absent();
+        }
+        try {
+            if (!FilePermissionUtil.isOwnerOnly(keyFile.toPath())) {
+                log.warn("Credential cache key {} is accessible by other users than its owner, the snapshot is not restored " +
+                        "and a new key is written", keyFile.getAbsolutePath());
+                return Optional.absent();
+            }
+            final byte[] key = Files.readAllBytes(keyFile.toPath());
+            if (key.length != KeyedDigest.KEY_LENGTH) {
+                log.warn("Credential cache key {} has an unsupported length and is ignored", keyFile.getAbsolutePath());
+                return Optional.absent();
+            }
+            return Optional.of(key);
+        } catch (IOException e) {
+            log.warn("Not able to read credential cache key {}", keyFile.getAbsolutePath());
+            log.debug("Original exception", e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Writes the key of the digest to a file, which only its owner can read
+     *
+     * @param keyFile the key file
+     * @param key     key of the digest, which is used for the cache keys and the line fingerprints
+     * @throws IOException if the file could not be written
+     */
+    public static void writeKey(final File keyFile, final byte[] key) throws IOException {
+        final Path tempFile = new File(keyFile.getAbsolutePath() + ".tmp").toPath();
+
+        try (OutputStream out = Channels.newOutputStream(FilePermissionUtil.createOwnerOnly(tempFile))) {
+            out.write(key);
+        }
+
+        Files.move(tempFile, keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param keyedDigest    the digest of the cache keys
+     * @param credentialLine the value bytes of the user in the credentials file, see {@link
+     *                       com.hivemq.plugin.fileauthentication.configuration.CredentialStore#getBytes(String)}
+     * @return the fingerprint of the credential line
+     */
+    public static long fingerprint(final KeyedDigest keyedDigest, final byte[] credentialLine) {
+        return Longs.fromByteArray(keyedDigest.digest(credentialLine));
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    public long getSettingsFingerprint() {
+        return settingsFingerprint;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public static final class Entry {
+
+        private final CredentialCacheKey key;
+        private final long lineFingerprint;
+        private final long verifiedMillis;
+
+        public Entry(final CredentialCacheKey key, final long lineFingerprint, final long verifiedMillis) {
+            this.key = key;
+            this.lineFingerprint = lineFingerprint;
+            this.verifiedMillis = verifiedMillis;
+        }
+
+        public CredentialCacheKey getKey() {
+            return key;
+        }
+
+        public long getLineFingerprint() {
+            return lineFingerprint;
+        }
+
+        public long getVerifiedMillis() {
+            return verifiedMillis;
+        }
+    }
+}
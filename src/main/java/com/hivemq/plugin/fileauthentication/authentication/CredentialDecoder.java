@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
+import com.hivemq.plugin.fileauthentication.util.HashSaltUtil;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.jasypt.digest.StandardByteDigester;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Decodes the password strings of the credentials file into {@link ParsedCredential}s according to the hashing
+ * settings.
+ * <p/>
+ * If hashing is enabled, entries in the self-describing format of {@link PhcFormatUtil} are decoded with their
+ * own algorithm and iterations instead of the configured ones.
+ */
+public class CredentialDecoder {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialDecoder.class);
+
+    private final boolean hashed;
+    private final boolean salted;
+    private final boolean saltFirst;
+    private final String separationChar;
+    private final String algorithm;
+    private final int iterations;
+
+    public CredentialDecoder(final boolean hashed, final boolean salted, final boolean saltFirst,
+                             final String separationChar, final String algorithm, final int iterations) {
+        this.hashed = hashed;
+        this.salted = salted;
+        this.saltFirst = saltFirst;
+        this.separationChar = separationChar;
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param configuration the plugin configuration
+     * @return decoder with the hashing settings of the configuration
+     */
+    public static CredentialDecoder read(final Configuration configuration) {
+        return new CredentialDecoder(configuration.isHashed(), configuration.isSalted(), configuration.isSaltFirst(),
+                configuration.getSeparationChar(), configuration.getHashingAlgorithm(), configuration.getHashingIterations());
+    }
+
+    /**
+     * @return fingerprint of all settings which influence how a password string is decoded
+     */
+    public long getFingerprint() {
+        return Hashing.sha256().hashString(hashed + "|" + salted + "|" + saltFirst + "|" + separationChar + "|"
+                + algorithm + "|" + iterations, Charsets.UTF_8).asLong();
+    }
+
+    /**
+     * @param value the password string of an entry, never empty
+     * @return the decoded entry
+     * @throws PasswordFormatException if the password string does not match the settings
+     */
+    public ParsedCredential decode(final String value) throws PasswordFormatException {
+        if (!hashed) {
+            return ParsedCredential.plaintext(value);
+        }
+
+        if (PhcFormatUtil.isPhcFormat(value)) {
+            try {
+                return PhcFormatUtil.parse(value);
+            } catch (PasswordFormatException e) {
+                // a salt of the legacy format may start with the separator as well
+                log.trace("Password is not in the self-describing format: {}", e.getMessage());
+            }
+        }
+
+        try {
+            if (!salted) {
+                // without a configured salt the hash contains the random salt of the digester in front of the digest
+                final byte[] decoded = Base64.decode(value);
+                if (decoded.length <= StandardByteDigester.DEFAULT_SALT_SIZE_BYTES) {
+                    throw new PasswordFormatException("Hash is too short to contain a salt");
+                }
+                return ParsedCredential.hashed(algorithm, iterations,
+                        Arrays.copyOfRange(decoded, StandardByteDigester.DEFAULT_SALT_SIZE_BYTES, decoded.length),
+                        Arrays.copyOf(decoded, StandardByteDigester.DEFAULT_SALT_SIZE_BYTES));
+            }
+
+            final HashedSaltedPassword hashedSaltedPassword = getHashAndSalt(value);
+            return ParsedCredential.hashed(algorithm, iterations,
+                    Base64.decode(hashedSaltedPassword.getHash()),
+                    HashSaltUtil.toSaltBytes(hashedSaltedPassword.getSalt()));
+
+        } catch (DecoderException e) {
+            throw new PasswordFormatException("Hash is not Base64 encoded");
+        }
+    }
+
+    /**
+     * Decodes all entries into a new store, which can be written as compiled credentials file with
+     * {@link CredentialStore#writeTo(java.io.File)}. Its entries are read without decoding them again, as long as the
+     * hashing settings have the same {@link #getFingerprint() fingerprint}.
+     *
+     * @param credentials the password strings of the credentials file
+     * @return new store with the decoded entries
+     */
+    public CredentialStore compile(final CredentialStore credentials) {
+        final CredentialStore.Builder builder = new CredentialStore.Builder().decodedWith(getFingerprint());
+        for (Map.Entry<String, String> entry : credentials) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            ParsedCredential credential;
+            try {
+                credential = decode(entry.getValue());
+            } catch (PasswordFormatException e) {
+                log.warn("The password of user '{}' in the credentials file has an unsupported format: {}",
+                        entry.getKey(), e.getMessage());
+                credential = ParsedCredential.MALFORMED;
+            }
+            builder.putBytes(entry.getKey(), PackedCredentials.encode(credential));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Calls the {@link HashSaltUtil} to retrieve salt and hash from the password string
+     * <p/>
+     * It was extracted for being able to override it in the test cases.
+     *
+     * @param hashedPassword string containing hash, salt and separator
+     * @return {@link HashedSaltedPassword} with hash and salt
+     * @throws PasswordFormatException thrown when the string is in an unsupported format
+     */
+    HashedSaltedPassword getHashAndSalt(final String hashedPassword) throws PasswordFormatException {
+        return HashSaltUtil.retrieve(saltFirst, separationChar, hashedPassword);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of all users of the credentials file, mapping every username to its {@link ParsedCredential}.
+ * <p/>
+ * The index is built when the credentials are (re)loaded, so the authentication itself only needs a single lookup.
+ * A memory-mapped {@link CredentialStore} is not copied to the heap, its entries are parsed when they are looked up.
+ * Optionally the parsed entries are kept in {@link PackedCredentials} outside of the heap. The entries of a compiled
+ * credentials file with decoded values are read from the mapping without parsing them at all.
+ * <p/>
+ * Updates only parse the changed users and keep them in a small overlay, which is merged into the index as soon as
+ * it grows beyond {@link #MAX_OVERLAY_SIZE}. Every update copies the overlay, so a single change costs only a few
+ * microseconds, even for millions of users.
+ */
+public final class CredentialIndex {
+
+    public static final CredentialIndex EMPTY = new CredentialIndex(ImmutableMap.<String, ParsedCredential>of(), null, null, null);
+
+    static final int MAX_OVERLAY_SIZE = 1024;
+
+    private final ImmutableMap<String, ParsedCredential> credentials;
+    private final ImmutableMap<String, Optional<ParsedCredential>> changes;
+    private final int size;
+    private final CredentialStore mappedCredentials;
+    private final PackedCredentials packedCredentials;
+    private final Parser parser;
+
+    private CredentialIndex(final ImmutableMap<String, ParsedCredential> credentials, final CredentialStore mappedCredentials,
+                            final PackedCredentials packedCredentials, final Parser parser) {
+        this(credentials, ImmutableMap.<String, Optional<ParsedCredential>>of(),
+                packedCredentials != null ? packedCredentials.size() : credentials.size(),
+                mappedCredentials, packedCredentials, parser);
+    }
+
+    private CredentialIndex(final ImmutableMap<String, ParsedCredential> credentials,
+                            final ImmutableMap<String, Optional<ParsedCredential>> changes, final int size,
+                            final CredentialStore mappedCredentials, final PackedCredentials packedCredentials,
+                            final Parser parser) {
+        this.credentials = credentials;
+        this.changes = changes;
+        this.size = size;
+        this.mappedCredentials = mappedCredentials;
+        this.packedCredentials = packedCredentials;
+        this.parser = parser;
+    }
+
+    /**
+     * Parses all entries of the credentials file
+     *
+     * @param credentials the content of the credentials file, may be null
+     * @param parser      parser for a single entry
+     * @return new {@link CredentialIndex}
+     */
+    public static CredentialIndex build(final CredentialStore credentials, final Parser parser) {
+        return build(credentials, parser, false);
+    }
+
+    /**
+     * Parses all entries of the credentials file
+     *
+     * @param credentials the content of the credentials file, may be null
+     * @param parser      parser for a single entry
+     * @param offHeap     true to keep the parsed entries outside of the heap
+     * @return new {@link CredentialIndex}
+     * @throws IllegalArgumentException if the credentials hold decoded values, see {@link #decoded(CredentialStore, Predicate)}
+     */
+    public static CredentialIndex build(final CredentialStore credentials, final Parser parser, final boolean offHeap) {
+        if (credentials == null) {
+            return EMPTY;
+        }
+        if (credentials.isDecoded()) {
+            throw new IllegalArgumentException("Decoded credentials can not be parsed");
+        }
+        if (credentials.isMapped()) {
+            return new CredentialIndex(ImmutableMap.<String, ParsedCredential>of(), credentials, null, parser);
+        }
+        if (offHeap) {
+            return new CredentialIndex(ImmutableMap.<String, ParsedCredential>of(), null, PackedCredentials.pack(credentials, parser), null);
+        }
+
+        final ImmutableMap.Builder<String, ParsedCredential> builder = ImmutableMap.builder();
+        for (Map.Entry<String, String> entry : credentials) {
+            putIfPresent(builder, entry.getKey(), entry.getValue(), parser);
+        }
+        return new CredentialIndex(builder.build(), null, null, null);
+    }
+
+    /**
+     * Reads the entries of a compiled credentials file with decoded values, which were written by
+     * {@link CredentialDecoder#compile(CredentialStore)}. The caller has to ensure that the values were decoded with
+     * the current settings.
+     *
+     * @param credentials         the decoded entries of the credentials file
+     * @param supportedAlgorithms the hash algorithms which can be verified, entries with other algorithms are malformed
+     * @return new {@link CredentialIndex}
+     */
+    public static CredentialIndex decoded(final CredentialStore credentials, final Predicate<String> supportedAlgorithms) {
+        return new CredentialIndex(ImmutableMap.<String, ParsedCredential>of(), null,
+                PackedCredentials.wrap(credentials, supportedAlgorithms), null);
+    }
+
+    /**
+     * Creates a copy of this index, where only the entries of the changed users are parsed again. The new index keeps
+     * the entries outside of the heap, if this index does.
+     *
+     * @param credentials      the content of the credentials file after the change, may be null
+     * @param changedUsernames users which were added, removed or changed
+     * @param parser           parser for a single entry
+     * @return new {@link CredentialIndex}
+     */
+    public CredentialIndex update(final CredentialStore credentials, final Set<String> changedUsernames, final Parser parser) {
+        if (credentials == null) {
+            return EMPTY;
+        }
+        if (credentials.isMapped() || mappedCredentials != null) {
+            return build(credentials, parser);
+        }
+
+        final Map<String, Optional<ParsedCredential>> newChanges = new HashMap<>(changes);
+        int newSize = size;
+        for (String username : changedUsernames) {
+            final String value = credentials.get(username);
+            final Optional<ParsedCredential> credential = value == null || value.isEmpty()
+                    ? Optional.<ParsedCredential>absent() : Optional.of(parser.parse(username, value));
+            final boolean present = get(username) != null;
+            if (present != credential.isPresent()) {
+                newSize += present ? -1 : 1;
+            }
+            newChanges.put(username, credential);
+        }
+
+        if (newChanges.size() <= MAX_OVERLAY_SIZE) {
+            return new CredentialIndex(this.credentials, ImmutableMap.copyOf(newChanges), newSize, null, packedCredentials, null);
+        }
+        if (packedCredentials != null) {
+            return build(credentials, parser, true);
+        }
+
+        final ImmutableMap.Builder<String, ParsedCredential> builder = ImmutableMap.builder();
+        for (Map.Entry<String, ParsedCredential> entry : this.credentials.entrySet()) {
+            if (!newChanges.containsKey(entry.getKey())) {
+                builder.put(entry);
+            }
+        }
+        for (Map.Entry<String, Optional<ParsedCredential>> change : newChanges.entrySet()) {
+            if (change.getValue().isPresent()) {
+                builder.put(change.getKey(), change.getValue().get());
+            }
+        }
+        return new CredentialIndex(builder.build(), null, null, null);
+    }
+
+    private static void putIfPresent(final ImmutableMap.Builder<String, ParsedCredential> builder,
+                                     final String username, final String value, final Parser parser) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        builder.put(username, parser.parse(username, value));
+    }
+
+    /**
+     * @param username the username
+     * @return the credential of the user or null if the user is not present in the credentials file
+     */
+    public ParsedCredential get(final String username) {
+        if (mappedCredentials != null) {
+            final String value = mappedCredentials.get(username);
+            return value == null || value.isEmpty() ? null : parser.parse(username, value);
+        }
+        if (!changes.isEmpty()) {
+            final Optional<ParsedCredential> changed = changes.get(username);
+            if (changed != null) {
+                return changed.orNull();
+            }
+        }
+        if (packedCredentials != null) {
+            return packedCredentials.get(username);
+        }
+        return credentials.get(username);
+    }
+
+    /**
+     * @return the amount of changed users, which were not merged into the index yet
+     */
+    @VisibleForTesting
+    int overlaySize() {
+        return changes.size();
+    }
+
+    /**
+     * @return the amount of users, for a memory-mapped store including users with an empty password
+     */
+    public int size() {
+        return mappedCredentials != null ? mappedCredentials.size() : size;
+    }
+
+    /**
+     * Parses a single entry of the credentials file
+     */
+    public static interface Parser {
+
+        /**
+         * @param username the username of the entry
+         * @param value    the password string of the entry, never empty
+         * @return the parsed entry, {@link ParsedCredential#MALFORMED} if the format is not supported
+         */
+        public ParsedCredential parse(String username, String value);
+
+    }
+}
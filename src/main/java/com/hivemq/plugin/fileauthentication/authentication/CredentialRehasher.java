@@ -0,0 +1,185 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.hivemq.plugin.fileauthentication.configuration.PasswordUpdate;
+import com.hivemq.plugin.fileauthentication.configuration.PasswordUpdater;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-hashes the passwords of users who logged in successfully against an outdated algorithm or fewer iterations
+ * than the target cost.
+ * <p/>
+ * The plaintext password is only known during the login, so it is hashed right afterwards on a single background
+ * thread. The new entries in the self-describing format of {@link PhcFormatUtil} are collected and written back to
+ * the credentials in batches. An entry is only replaced if it was not changed since the login.
+ */
+final class CredentialRehasher {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialRehasher.class);
+
+    /**
+     * Maximum number of users waiting to be re-hashed, further users are re-hashed with one of their next logins
+     */
+    @VisibleForTesting
+    static final int MAX_QUEUED = 1000;
+
+    private static final int SALT_LENGTH = 16;
+
+    private final PasswordComparator passwordComparator;
+    private final PasswordUpdater passwordUpdater;
+    private final CredentialIndex.Parser parser;
+    private final String algorithm;
+    private final int iterations;
+    private final ScheduledExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Users which are being re-hashed or whose new entries were not written yet
+     */
+    private final Set<String> queued = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, PasswordUpdate> pending = new ConcurrentHashMap<>();
+
+    /**
+     * @param parser          parser for the current entries, to check if they are still the verified ones
+     * @param algorithm       target algorithm, supported by the {@link PasswordComparator}
+     * @param iterations      target iterations
+     * @param executor        single thread executor which hashes and writes the batches, shut down with this rehasher
+     * @param intervalSeconds interval in which the new entries are written
+     */
+    CredentialRehasher(final PasswordComparator passwordComparator, final PasswordUpdater passwordUpdater,
+                       final CredentialIndex.Parser parser, final String algorithm, final int iterations,
+                       final ScheduledExecutorService executor, final int intervalSeconds) {
+        this.passwordComparator = passwordComparator;
+        this.passwordUpdater = passwordUpdater;
+        this.parser = parser;
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.executor = executor;
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param credential a parsed entry of the credentials
+     * @return true if the entry was hashed with another algorithm or fewer iterations than the target
+     */
+    boolean isOutdated(final ParsedCredential credential) {
+        return credential.isHashed() && (!algorithm.equals(credential.getAlgorithm()) || credential.getIterations() < iterations);
+    }
+
+    /**
+     * Queues the user for re-hashing, if the verified entry is outdated
+     *
+     * @param username   the user who logged in successfully
+     * @param password   the verified plaintext password
+     * @param credential the entry the password was verified against
+     */
+    void rehashIfOutdated(final String username, final String password, final ParsedCredential credential) {
+        if (!isOutdated(credential) || queued.size() >= MAX_QUEUED || !queued.add(username)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rehash(username, password, credential);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(username);
+        }
+    }
+
+    private void rehash(final String username, final String password, final ParsedCredential credential) {
+        final String current = passwordUpdater.getCredentials().get(username);
+        if (current == null || !credential.equals(parser.parse(username, current))) {
+            log.debug("The password of user '{}' changed since the login, it is not re-hashed", username);
+            queued.remove(username);
+            return;
+        }
+
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        final byte[] hash = passwordComparator.createHash(algorithm, password, iterations, salt);
+        pending.put(username, new PasswordUpdate(username, current, PhcFormatUtil.format(algorithm, iterations, salt, hash)));
+    }
+
+    /**
+     * Writes all re-hashed entries to the credentials
+     */
+    @VisibleForTesting
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final List<PasswordUpdate> batch = new ArrayList<>(pending.values());
+        for (PasswordUpdate update : batch) {
+            pending.remove(update.getUsername(), update);
+        }
+        try {
+            final Set<String> updated = passwordUpdater.updatePasswords(batch);
+            log.info("Re-hashed the passwords of {} users with {} and {} iterations", updated.size(), algorithm, iterations);
+        } catch (IOException e) {
+            log.error("Not able to write {} re-hashed passwords to the credentials", batch.size());
+            log.debug("Original exception", e);
+        } finally {
+            for (PasswordUpdate update : batch) {
+                queued.remove(update.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Hashes the queued users, writes the last batch and stops the background thread afterwards
+     */
+    void shutdown() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Rehasher was already shut down");
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache for the results of credential verifications.
+ * <p/>
+ * Successful and failed verifications are kept in two separate tiers, each with its own lifetime and size.
+ * Failed verifications can therefore never evict successful ones, e.g. when a client is trying random passwords.
+ * Failed verifications are only cached if they are admitted by the caller, so only expensive failures
+ * occupy space in the failure tier.
+ * <p/>
+ * The success tier keeps the time of each verification, so entries restored from a
+ * {@link CredentialCacheSnapshot} expire at the same time as they would have without the restart.
+ * <p/>
+ * Each tier keeps the cached keys by username, so invalidating the results of changed users only costs as much as the
+ * amount of their cached results, independent of the size of the cache.
+ */
+public class CredentialResultCache {
+
+    private final long successMillis;
+    private final Tier<Long> successTier;
+    private final Tier<Boolean> failureTier;
+    private final Cache<CredentialCacheKey, Long> successes;
+    private final Cache<CredentialCacheKey, Boolean> failures;
+
+    /**
+     * @param successSeconds lifetime of successful verifications in seconds
+     * @param successSize    maximum amount of cached successful verifications
+     * @param failureSeconds lifetime of failed verifications in seconds
+     * @param failureSize    maximum amount of cached failed verifications
+     */
+    public CredentialResultCache(final int successSeconds, final int successSize,
+                                 final int failureSeconds, final int failureSize) {
+        this.successMillis = TimeUnit.SECONDS.toMillis(successSeconds);
+        this.successTier = new Tier<>(successSeconds, successSize);
+        this.failureTier = new Tier<>(failureSeconds, failureSize);
+        this.successes = successTier.cache;
+        this.failures = failureTier.cache;
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached result or null if there is none
+     */
+    public Boolean getIfPresent(final CredentialCacheKey key) {
+        final Long verifiedMillis = successes.getIfPresent(key);
+        if (verifiedMillis != null) {
+            if (System.currentTimeMillis() - verifiedMillis < successMillis) {
+                return true;
+            }
+            // restored entry, which outlived its original lifetime
+            successes.asMap().remove(key, verifiedMillis);
+        }
+        if (failures.getIfPresent(key) != null) {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * @param key          the cache key
+     * @param granted      result of the verification
+     * @param admitFailure true if a failed verification should be cached
+     */
+    public void put(final CredentialCacheKey key, final boolean granted, final boolean admitFailure) {
+        if (granted) {
+            successTier.put(key, System.currentTimeMillis());
+        } else if (admitFailure) {
+            failureTier.put(key, false);
+        }
+    }
+
+    /**
+     * Puts a successful verification, which was restored from a snapshot. It expires at the end of its original
+     * lifetime, or is not put at all if it already expired.
+     *
+     * @param key            the cache key
+     * @param verifiedMillis time of the original verification in milliseconds since the epoch
+     * @return true if the verification was put, false if it already expired
+     */
+    public boolean restore(final CredentialCacheKey key, final long verifiedMillis) {
+        if (System.currentTimeMillis() - verifiedMillis >= successMillis) {
+            return false;
+        }
+        successTier.put(key, verifiedMillis);
+        return true;
+    }
+
+    /**
+     * @return a copy of the keys of all cached successful verifications with the time of their verification
+     * in milliseconds since the epoch
+     */
+    public Map<CredentialCacheKey, Long> getGranted() {
+        return ImmutableMap.copyOf(successes.asMap());
+    }
+
+    /**
+     * Removes the cached result of the key from both tiers
+     *
+     * @param key the cache key
+     */
+    public void invalidate(final CredentialCacheKey key) {
+        successes.invalidate(key);
+        failures.invalidate(key);
+    }
+
+    /**
+     * Removes all cached results of the given users from both tiers
+     *
+     * @param usernames the users to remove
+     */
+    public void invalidateUsers(final Set<String> usernames) {
+        for (String username : usernames) {
+            successTier.invalidateUser(username);
+            failureTier.invalidateUser(username);
+        }
+    }
+
+    /**
+     * @return the amount of users with cached results in any tier
+     */
+    @VisibleForTesting
+    int indexedUsers() {
+        final Set<String> usernames = new HashSet<>(successTier.indexedUsers());
+        usernames.addAll(failureTier.indexedUsers());
+        return usernames.size();
+    }
+
+    /**
+     * A cache with the keys of its entries by username. The keys are removed by the removal listener of the cache.
+     * <p/>
+     * A key is added before and after its entry is stored, so it is indexed even if the removal of a previous entry
+     * with the same key was reported in between. A key indexed after its entry was already invalidated again is
+     * dropped by the next invalidation of the user.
+     */
+    private static final class Tier<V> implements RemovalListener<CredentialCacheKey, V> {
+
+        private final Cache<CredentialCacheKey, V> cache;
+
+        /**
+         * Keys by username, only accessed while holding the lock of the map
+         */
+        private final Map<String, Set<CredentialCacheKey>> keysByUser = new HashMap<>();
+
+        private Tier(final int seconds, final int size) {
+            this.cache = CacheBuilder.newBuilder()
+                    .expireAfterWrite(seconds, TimeUnit.SECONDS)
+                    .maximumSize(size)
+                    .removalListener(this)
+                    .build();
+        }
+
+        private void put(final CredentialCacheKey key, final V value) {
+            index(key);
+            cache.put(key, value);
+            index(key);
+        }
+
+        private void index(final CredentialCacheKey key) {
+            synchronized (keysByUser) {
+                Set<CredentialCacheKey> keys = keysByUser.get(key.getUsername());
+                if (keys == null) {
+                    keys = new HashSet<>(2);
+                    keysByUser.put(key.getUsername(), keys);
+                }
+                keys.add(key);
+            }
+        }
+
+        private void invalidateUser(final String username) {
+            final List<CredentialCacheKey> keys;
+            synchronized (keysByUser) {
+                final Set<CredentialCacheKey> indexed = keysByUser.get(username);
+                if (indexed == null) {
+                    return;
+                }
+                keys = ImmutableList.copyOf(indexed);
+            }
+            // the removal listener removes the keys from the index
+            cache.invalidateAll(keys);
+
+            synchronized (keysByUser) {
+                final Set<CredentialCacheKey> indexed = keysByUser.get(username);
+                if (indexed != null && indexed.retainAll(cache.asMap().keySet()) && indexed.isEmpty()) {
+                    keysByUser.remove(username);
+                }
+            }
+        }
+
+        private Set<String> indexedUsers() {
+            cache.cleanUp();
+            synchronized (keysByUser) {
+                return new HashSet<>(keysByUser.keySet());
+            }
+        }
+
+        @Override
+        public void onRemoval(final RemovalNotification<CredentialCacheKey, V> notification) {
+            if (notification.getCause() == RemovalCause.REPLACED) {
+                return;
+            }
+            final CredentialCacheKey key = notification.getKey();
+            synchronized (keysByUser) {
+                // the key may have been stored again in the meantime
+                if (cache.asMap().containsKey(key)) {
+                    return;
+                }
+                final Set<CredentialCacheKey> keys = keysByUser.get(key.getUsername());
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    keysByUser.remove(key.getUsername());
+                }
+            }
+        }
+    }
+}
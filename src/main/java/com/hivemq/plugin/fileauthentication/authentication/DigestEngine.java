@@ -0,0 +1,417 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes iterated, salted password digests in the same format as jasypt's {@code StandardByteDigester}:
+ * the salt is digested in front of the password and the result is digested again for every further iteration.
+ * <p/>
+ * {@link MessageDigest} instances are expensive to look up and not thread safe, so every thread keeps one
+ * instance per algorithm and reuses it for all verifications. The number of iterations does not influence the
+ * {@link MessageDigest} itself and is applied per call. The encoded password and the digest are written into
+ * buffers of the thread as well, so a verification does not allocate with providers which digest into a
+ * given array, like the ones of the JDK.
+ * <p/>
+ * The security provider is chosen once per algorithm according to the {@link DigestProvider} strategy.
+ */
+public class DigestEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(DigestEngine.class);
+
+    /**
+     * Time both providers are run before they are measured, so HotSpot has compiled the digests including
+     * the SHA intrinsics of the JDK
+     */
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Number of measurements per provider when the faster provider is chosen, the fastest one counts
+     */
+    private static final int MEASUREMENT_ROUNDS = 5;
+
+    /**
+     * Number of chained digests per measurement
+     */
+    private static final int MEASUREMENT_DIGESTS = 10000;
+
+    private final DigestProvider digestProvider;
+
+    private final Provider fallbackProvider;
+
+    private final ConcurrentMap<String, Provider> providers = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
+
+    /**
+     * @param provider security provider used for all digests
+     */
+    public DigestEngine(final Provider provider) {
+        this(DigestProvider.BOUNCYCASTLE, provider);
+    }
+
+    /**
+     * @param digestProvider   strategy for choosing the provider per algorithm
+     * @param fallbackProvider provider for algorithms the JDK does not provide, it is used for all algorithms
+     *                         with {@link DigestProvider#BOUNCYCASTLE}
+     */
+    public DigestEngine(final DigestProvider digestProvider, final Provider fallbackProvider) {
+        this.digestProvider = digestProvider;
+        this.fallbackProvider = fallbackProvider;
+    }
+
+    public DigestProvider getDigestProvider() {
+        return digestProvider;
+    }
+
+    /**
+     * @param algorithm name of the hash algorithm
+     * @return true if the security provider supports the algorithm
+     */
+    public boolean isSupported(final String algorithm) {
+        try {
+            getMessageDigest(algorithm);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Digests a password like jasypt does for the given parameters
+     *
+     * @param algorithm     used hash algorithm
+     * @param plainPassword plaintext password
+     * @param iterations    number of iterations, at least 1
+     * @param salt          salt bytes, which are digested in front of the password, may be empty
+     * @return the digest
+     */
+    public byte[] digest(final String algorithm, final String plainPassword, final int iterations, final byte[] salt) {
+        final Workspace workspace = workspaces.get();
+        final int length = digestInto(workspace, algorithm, plainPassword, iterations, salt);
+        return Arrays.copyOf(workspace.digest, length);
+    }
+
+    /**
+     * Digests the password into a buffer of the current thread and compares it in constant time with the expected
+     * digest, so a verification does not allocate
+     *
+     * @param algorithm     used hash algorithm
+     * @param plainPassword plaintext password provided from the client
+     * @param passwordHash  expected digest
+     * @param iterations    number of iterations, at least 1
+     * @param salt          salt bytes, which are digested in front of the password, may be empty
+     * @return true if the digest of the password matches the expected digest
+     */
+    public boolean matches(final String algorithm, final String plainPassword, final byte[] passwordHash,
+                           final int iterations, final byte[] salt) {
+        final Workspace workspace = workspaces.get();
+        final int length = digestInto(workspace, algorithm, plainPassword, iterations, salt);
+        return constantTimeEquals(workspace.digest, length, passwordHash);
+    }
+
+    /**
+     * @return the length of the digest, which was written to the start of {@link Workspace#digest}
+     */
+    private int digestInto(final Workspace workspace, final String algorithm, final String plainPassword,
+                           final int iterations, final byte[] salt) {
+        final MessageDigest messageDigest = getMessageDigest(workspace, algorithm);
+        final ByteBuffer password = workspace.encode(plainPassword);
+
+        messageDigest.reset();
+        messageDigest.update(salt);
+        messageDigest.update(password.array(), 0, password.limit());
+        // the plaintext password is not kept in the buffer of the thread
+        Arrays.fill(password.array(), 0, password.limit(), (byte) 0);
+
+        final int length = messageDigest.getDigestLength();
+        if (length == 0) {
+            // the provider does not know the length in advance
+            byte[] digest = messageDigest.digest();
+            for (int i = 1; i < iterations; i++) {
+                digest = messageDigest.digest(digest);
+            }
+            workspace.ensureDigestCapacity(digest.length);
+            System.arraycopy(digest, 0, workspace.digest, 0, digest.length);
+            return digest.length;
+        }
+
+        workspace.ensureDigestCapacity(length);
+        final byte[] digest = workspace.digest;
+        try {
+            messageDigest.digest(digest, 0, length);
+            for (int i = 1; i < iterations; i++) {
+                messageDigest.update(digest, 0, length);
+                messageDigest.digest(digest, 0, length);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Not able to compute " + algorithm + " digest", e);
+        }
+        return length;
+    }
+
+    /**
+     * Compares without returning early, so the time does not depend on the position of the first difference
+     *
+     * @param digest   buffer which starts with the computed digest
+     * @param length   length of the computed digest
+     * @param expected expected digest
+     * @return true if the first length bytes of the buffer equal the expected digest
+     */
+    @VisibleForTesting
+    static boolean constantTimeEquals(final byte[] digest, final int length, final byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < length; i++) {
+            difference |= digest[i] ^ expected[i];
+        }
+        return difference == 0;
+    }
+
+    private MessageDigest getMessageDigest(final String algorithm) {
+        return getMessageDigest(workspaces.get(), algorithm);
+    }
+
+    private MessageDigest getMessageDigest(final Workspace workspace, final String algorithm) {
+        final Map<String, MessageDigest> threadDigests = workspace.digests;
+        MessageDigest messageDigest = threadDigests.get(algorithm);
+        if (messageDigest == null) {
+            try {
+                messageDigest = MessageDigest.getInstance(algorithm, getProvider(algorithm));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported", e);
+            }
+            threadDigests.put(algorithm, messageDigest);
+        }
+        return messageDigest;
+    }
+
+    /**
+     * @param algorithm name of the hash algorithm
+     * @return the provider chosen for the algorithm
+     * @throws IllegalStateException if no provider supports the algorithm
+     */
+    @VisibleForTesting
+    Provider getProvider(final String algorithm) {
+        final Provider provider = providers.get(algorithm);
+        if (provider != null) {
+            return provider;
+        }
+        synchronized (providers) {
+            if (!providers.containsKey(algorithm)) {
+                providers.put(algorithm, selectProvider(algorithm));
+            }
+            return providers.get(algorithm);
+        }
+    }
+
+    private Provider selectProvider(final String algorithm) {
+        final Provider jdkProvider = jdkProvider(algorithm);
+        final boolean fallbackSupported = isSupported(fallbackProvider, algorithm);
+
+        if (digestProvider == DigestProvider.BOUNCYCASTLE || jdkProvider == null) {
+            if (!fallbackSupported) {
+                throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported by " + fallbackProvider.getName());
+            }
+            return fallbackProvider;
+        }
+        if (digestProvider == DigestProvider.JDK || !fallbackSupported) {
+            return jdkProvider;
+        }
+        return faster(algorithm, jdkProvider, fallbackProvider);
+    }
+
+    /**
+     * Measures the digests of both providers after a warm-up of one second and returns the faster one. If the
+     * providers do not produce the same digest, the second provider is returned.
+     *
+     * @param algorithm name of the hash algorithm
+     * @param first     first provider
+     * @param second    second provider
+     * @return the faster provider
+     */
+    @VisibleForTesting
+    static Provider faster(final String algorithm, final Provider first, final Provider second) {
+        final MessageDigest firstDigest;
+        final MessageDigest secondDigest;
+        try {
+            firstDigest = MessageDigest.getInstance(algorithm, first);
+            secondDigest = MessageDigest.getInstance(algorithm, second);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported", e);
+        }
+
+        final byte[] input = algorithm.getBytes(Charsets.UTF_8);
+        if (!MessageDigest.isEqual(firstDigest.digest(input), secondDigest.digest(input))) {
+            log.warn("The providers {} and {} compute different {} digests, using {}", first.getName(), second.getName(), algorithm, second.getName());
+            return second;
+        }
+
+        final long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() - warmupEnd < 0) {
+            measure(firstDigest, input);
+            measure(secondDigest, input);
+        }
+
+        long firstTime = Long.MAX_VALUE;
+        long secondTime = Long.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENT_ROUNDS; i++) {
+            firstTime = Math.min(firstTime, measure(firstDigest, input));
+            secondTime = Math.min(secondTime, measure(secondDigest, input));
+        }
+
+        final Provider faster = firstTime <= secondTime ? first : second;
+        log.info("Using {} for {} digests ({} ns with {}, {} ns with {} per digest)", faster.getName(), algorithm,
+                firstTime / MEASUREMENT_DIGESTS, first.getName(), secondTime / MEASUREMENT_DIGESTS, second.getName());
+        return faster;
+    }
+
+    /**
+     * @return the time in nanoseconds for the chained digests, every digest depends on the previous one
+     */
+    private static long measure(final MessageDigest messageDigest, final byte[] input) {
+        final long start = System.nanoTime();
+        byte[] digest = input;
+        for (int i = 0; i < MEASUREMENT_DIGESTS; i++) {
+            digest = messageDigest.digest(digest);
+        }
+        final long time = System.nanoTime() - start;
+        if (digest.length == 0) {
+            throw new IllegalStateException("Empty digest");
+        }
+        return time;
+    }
+
+    /**
+     * @return the provider of the JDK for the algorithm or null if the JDK does not provide it
+     */
+    private Provider jdkProvider(final String algorithm) {
+        try {
+            final Provider provider = MessageDigest.getInstance(algorithm).getProvider();
+            // a provider installed into the JVM is not part of the JDK
+            return provider.getName().equals(fallbackProvider.getName()) ? null : provider;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSupported(final Provider provider, final String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm, provider);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Digests and buffers of one thread, which are reused for all verifications of the thread
+     */
+    private static final class Workspace {
+
+        private final Map<String, MessageDigest> digests = new HashMap<>();
+
+        /**
+         * Replaces unpaired surrogates with '?' like {@link String#getBytes(java.nio.charset.Charset)} does
+         */
+        private final CharsetEncoder encoder = Charsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        private CharBuffer chars = CharBuffer.allocate(64);
+
+        private ByteBuffer password = ByteBuffer.allocate(256);
+
+        private byte[] digest = new byte[64];
+
+        /**
+         * jasypt normalizes the password to the unicode NFC form before it is encoded as UTF-8
+         *
+         * @return the buffer with the encoded password between 0 and its limit
+         */
+        private ByteBuffer encode(final String plainPassword) {
+            final String normalized = isStable(plainPassword) || Normalizer.isNormalized(plainPassword, Normalizer.Form.NFC)
+                    ? plainPassword : Normalizer.normalize(plainPassword, Normalizer.Form.NFC);
+
+            final int length = normalized.length();
+            if (chars.capacity() < length) {
+                chars = CharBuffer.allocate(length);
+            }
+            final int maxLength = (int) Math.ceil(length * (double) encoder.maxBytesPerChar());
+            if (password.capacity() < maxLength) {
+                password = ByteBuffer.allocate(maxLength);
+            }
+
+            chars.clear();
+            normalized.getChars(0, length, chars.array(), 0);
+            chars.limit(length);
+            password.clear();
+            encoder.reset();
+            encoder.encode(chars, password, true);
+            encoder.flush(password);
+            password.flip();
+            Arrays.fill(chars.array(), 0, length, '\0');
+            return password;
+        }
+
+        /**
+         * Characters below the combining diacritical marks never change during the NFC normalization, the check
+         * of the {@link Normalizer} itself allocates
+         */
+        private static boolean isStable(final String plainPassword) {
+            for (int i = 0; i < plainPassword.length(); i++) {
+                if (plainPassword.charAt(i) >= '\u0300') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void ensureDigestCapacity(final int length) {
+            if (digest.length < length) {
+                digest = new byte[length];
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * Strategy for choosing the security provider of the message digests used by the {@link DigestEngine}.
+ * <p/>
+ * All providers produce the same digests, so the strategy only influences how fast passwords are verified.
+ */
+public enum DigestProvider {
+
+    /**
+     * The providers of the JDK, whose digests are compiled to the SHA instructions of the CPU by HotSpot.
+     * Algorithms the JDK does not provide are computed by BouncyCastle.
+     */
+    JDK,
+
+    /**
+     * BouncyCastle for all algorithms, the default
+     */
+    BOUNCYCASTLE,
+
+    /**
+     * Measures both providers once per algorithm and uses the faster one. The measurement takes about a second per
+     * algorithm, which delays the startup and every change of the settings.
+     */
+    AUTO;
+
+    private static final Logger log = LoggerFactory.getLogger(DigestProvider.class);
+
+    /**
+     * @param name name of the strategy, case insensitive
+     * @return the strategy with the name, {@link #BOUNCYCASTLE} if the name is null or there is no strategy with this name
+     */
+    public static DigestProvider fromName(final String name) {
+        if (name == null) {
+            return BOUNCYCASTLE;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown digest provider '{}', using {} instead", name, BOUNCYCASTLE);
+            return BOUNCYCASTLE;
+        }
+    }
+}
@@ -16,24 +16,42 @@
 
 package com.hivemq.plugin.fileauthentication.authentication;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
 import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
 import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
 import com.hivemq.plugin.fileauthentication.util.HashSaltUtil;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
 import com.hivemq.spi.callback.CallbackPriority;
 import com.hivemq.spi.callback.security.OnAuthenticationCallback;
 import com.hivemq.spi.security.ClientCredentialsData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -45,20 +63,44 @@ import java.util.concurrent.TimeUnit;
 public class FileAuthenticator implements OnAuthenticationCallback {
 
     private static final Logger log = LoggerFactory.getLogger(FileAuthenticator.class);
-    private Configuration configurations;
 
-    private boolean isHashed;
-    private boolean isSalted;
-    private boolean isFirst;
-    private String separationChar;
-    private String algorithm;
-    private int iterations;
-    private int cachingTimeInSeconds;
-    private int cacheSize;
+    private static final String METRIC_PREFIX = "com.hivemq.plugins.file-authentication";
+    private Configuration configurations;
 
-    private LoadingCache<ClientCredentialWrapper, Boolean> cache;
+    /**
+     * Settings, credential index and cache, which are replaced together on every change
+     */
+    private volatile AuthenticatorState state;
     private PasswordComparator passwordComparator;
 
+    private ScheduledExecutorService snapshotScheduler;
+
+    /**
+     * Digest for the cache keys. The key is random, unless it is restored from the key file of a credential cache snapshot
+     */
+    private final KeyedDigest keyedDigest;
+
+    /**
+     * The key file, which contains the key of {@link #keyedDigest}, or null if it was not written yet
+     */
+    private volatile File writtenKeyFile;
+
+    /**
+     * True if the key of {@link #keyedDigest} is taken from the environment, then no key file is written
+     */
+    private final boolean snapshotKeyInEnvironment;
+
+    /**
+     * Verifies on the calling thread if asynchronous authentication is disabled, so concurrent checks of the same
+     * credentials still share one verification
+     */
+    private final AsyncCredentialVerifier callerVerifier = AsyncCredentialVerifier.onCallingThread();
+
+    /**
+     * Metrics of the batch verification, which outlive the verifiers replaced on configuration changes
+     */
+    private final Timer batchLatency = new Timer();
+    private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
 
     /**
      * The configuration and {@link PasswordComparator} is injected, using Guice.
@@ -72,171 +114,744 @@ public class FileAuthenticator implements OnAuthenticationCallback {
         this.configurations = configurations;
         this.passwordComparator = passwordComparator;
 
-        loadConfig();
+        final AuthenticatorSettings settings = AuthenticatorSettings.read(configurations);
+
+        final Optional<String> environmentKey = CredentialCacheSnapshot.keyFromEnvironment();
+        this.snapshotKeyInEnvironment = environmentKey.isPresent();
+        final Optional<byte[]> snapshotKey = !settings.isCacheSnapshot() ? Optional.<byte[]>absent()
+                : environmentKey.isPresent() ? CredentialCacheSnapshot.decodeKey(environmentKey.get())
+                : CredentialCacheSnapshot.readKey(settings.getCacheSnapshotKeyFile());
+        final Optional<CredentialCacheSnapshot> snapshot = snapshotKey.isPresent()
+                ? CredentialCacheSnapshot.read(settings.getCacheSnapshotFile()) : Optional.<CredentialCacheSnapshot>absent();
+        this.keyedDigest = snapshotKey.isPresent() ? new KeyedDigest(snapshotKey.get()) : KeyedDigest.withRandomKey();
+        this.writtenKeyFile = snapshotKey.isPresent() && !snapshotKeyInEnvironment ? settings.getCacheSnapshotKeyFile() : null;
 
         configurations.setRestartListener(new Configuration.RestartListener() {
             @Override
             public void restart() {
-                loadConfig();
-                changeCache();
+                changeSettings();
             }
         });
 
         configurations.getCredentialsConfiguration().addCallback(new CredentialChangeCallback() {
             @Override
-            public void onCredentialChange() {
-                log.debug("Credential cache is invalidated");
-                cache.invalidateAll();
+            public void onCredentialChange(final Set<String> changedUsernames) {
+                changeCredentials(changedUsernames);
             }
         });
 
-        changeCache(); // to initialize Cache
+        synchronized (this) {
+            state = createState(settings, null);
+            if (snapshot.isPresent()) {
+                restoreSnapshot(state, snapshot.get());
+            }
+            changeSnapshotScheduler(settings);
+        }
+
+
+    }
+
+
+    /**
+     * Reads the settings again and replaces the state after the properties were changed. The credential index, the
+     * cache, the verifier and the throttle of the previous state are reused if their settings did not change.
+     */
+    private synchronized void changeSettings() {
+        final AuthenticatorState previous = this.state;
+        this.state = createState(AuthenticatorSettings.read(configurations), previous);
+
+        final AsyncCredentialVerifier previousVerifier = previous.getAsyncVerifier();
+        if (previousVerifier != null && previousVerifier != this.state.getAsyncVerifier()) {
+            previousVerifier.shutdown();
+        }
+        if (previous.getRehasher() != null) {
+            previous.getRehasher().shutdown();
+        }
+        changeSnapshotScheduler(this.state.getSettings());
+    }
+
+    /**
+     * Parses the entries of the changed users again and removes them from the cache
+     *
+     * @param changedUsernames users which were added, removed or changed
+     */
+    private synchronized void changeCredentials(final Set<String> changedUsernames) {
+        final AuthenticatorState current = this.state;
+        final CredentialStore credentials = getCredentials();
+        // a new compiled credentials file is mapped as a whole, there are no changes to apply to the index
+        this.state = current.withCredentialIndex(isMapped(credentials) ? buildCredentialIndex(current.getSettings())
+                : current.getCredentialIndex().update(credentials, changedUsernames, parser(current.getSettings(), false)));
+
+        log.debug("Credential cache is invalidated for {} changed users", changedUsernames.size());
+        current.getCache().invalidateUsers(changedUsernames);
+        if (current.getVerifiedCredentials() != null) {
+            current.getVerifiedCredentials().removeOutdated(changedUsernames, this.state.getCredentialIndex());
+        }
+    }
+
+    /**
+     * Creates the credential index, the cache, the verifier and the throttle for the settings
+     *
+     * @param settings the new settings
+     * @param previous the current state, which may be reused partially, null on startup
+     * @return the new state
+     */
+    private AuthenticatorState createState(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        passwordComparator.setDigestProvider(settings.getDigestProvider());
+        // chooses the provider of the configured algorithm now instead of during the first login
+        if (settings.isHashed() && !passwordComparator.isSupported(settings.getAlgorithm())) {
+            log.warn("The configured hash algorithm {} is not supported", settings.getAlgorithm());
+        }
+
+        return new AuthenticatorState(settings, createCredentialIndex(settings, previous), createCache(settings, previous),
+                createAsyncVerifier(settings, previous), createLoginThrottle(settings, previous), createRehasher(settings),
+                createVerifiedCredentials(settings, previous));
+    }
 
+    /**
+     * Creates the credential index for the settings. The index of the previous state is reused if the entries are
+     * parsed the same way with the new settings, it is kept up to date by {@link #changeCredentials(Set)}.
+     *
+     * @param settings the new settings
+     * @param previous the current state, null on startup
+     * @return the credential index
+     */
+    private CredentialIndex createCredentialIndex(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        if (isSameParsing(previous, settings)) {
+            return previous.getCredentialIndex();
+        }
+
+        final CredentialIndex credentialIndex = buildCredentialIndex(settings);
+        log.debug("Credential index built with {} users", credentialIndex.size());
+        return credentialIndex;
+    }
+
+    /**
+     * Builds the credential index from the current credentials. The decoded entries of a compiled credentials file
+     * are only used if they were decoded with the same hashing settings, otherwise the file is rejected and all
+     * logins are denied.
+     *
+     * @param settings the settings the entries are parsed with
+     * @return the credential index
+     */
+    private CredentialIndex buildCredentialIndex(final AuthenticatorSettings settings) {
+        final CredentialStore credentials = getCredentials();
+        if (credentials == null || !credentials.isDecoded()) {
+            return CredentialIndex.build(credentials, parser(settings, isMapped(credentials)), settings.isOffHeapCredentials());
+        }
 
+        if (credentials.getFingerprint() != settings.getHashingFingerprint()) {
+            log.error("The compiled credentials file was compiled with other hashing settings, all logins are denied " +
+                    "until it is compiled again with the current configuration");
+            return CredentialIndex.EMPTY;
+        }
+        return CredentialIndex.decoded(credentials, new Predicate<String>() {
+            @Override
+            public boolean apply(final String algorithm) {
+                return isSupported(settings, algorithm);
+            }
+        });
     }
 
+    /**
+     * @return true if the entries of the credentials file are parsed and verified the same way with both settings
+     */
+    private static boolean isSameParsing(final AuthenticatorState previous, final AuthenticatorSettings settings) {
+        if (previous == null) {
+            return false;
+        }
+        final AuthenticatorSettings previousSettings = previous.getSettings();
+        return previousSettings.getHashingFingerprint() == settings.getHashingFingerprint()
+                && previousSettings.getDigestProvider() == settings.getDigestProvider()
+                && previousSettings.isOffHeapCredentials() == settings.isOffHeapCredentials();
+    }
 
     /**
-     * Can be used to change the settings on the cache after the properties were changed
-     * Pls note that all entries will be removed as a consequence
+     * Creates the {@link VerifiedCredentials} for the settings. The verified credentials of the previous state are
+     * reused if the size did not change, entries whose credential is parsed differently with the new settings are
+     * dropped on their next login.
+     *
+     * @param settings the new settings
+     * @param previous the current state, null on startup
+     * @return the verified credentials or null if they are not remembered
      */
-    private void changeCache() {
+    private static VerifiedCredentials createVerifiedCredentials(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        if (!settings.isVerifiedCredentials()) {
+            return null;
+        }
 
-        this.cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(cachingTimeInSeconds, TimeUnit.SECONDS)
-                .maximumSize(cacheSize)
-                .build(
-                        new CacheLoader<ClientCredentialWrapper, Boolean>() {
-                            @Override
-                            public Boolean load(ClientCredentialWrapper wrap) throws Exception {
-                                return checkCredentialsForCaching(wrap);
-                            }
-                        });
-        
-        if (this.cache != null) {
-            log.info("Cache was changed to new settings: cacheTime:{}, cacheSize:{}", this.cachingTimeInSeconds, this.cacheSize);
+        final VerifiedCredentials previousVerified = previous == null ? null : previous.getVerifiedCredentials();
+        if (previousVerified != null && previousVerified.getMaximumSize() == settings.getVerifiedCredentialsSize()) {
+            return previousVerified;
+        }
+        log.info("Verified credentials are remembered for up to {} users", settings.getVerifiedCredentialsSize());
+        return new VerifiedCredentials(settings.getVerifiedCredentialsSize());
+    }
+
+    /**
+     * Creates the rehasher for the settings
+     *
+     * @param settings the new settings
+     * @return the rehasher or null if re-hashing on login is disabled or not possible
+     */
+    private CredentialRehasher createRehasher(final AuthenticatorSettings settings) {
+        if (!settings.isRehashOnLogin()) {
+            return null;
+        }
+        if (!settings.isHashed()) {
+            log.warn("Re-hashing on login requires password hashing, passwords are not re-hashed");
+            return null;
+        }
+
+        final String algorithm;
+        try {
+            algorithm = PhcFormatUtil.toAlgorithm(settings.getRehashAlgorithm());
+        } catch (PasswordFormatException e) {
+            log.warn("No algorithm for re-hashing on login is configured, passwords are not re-hashed");
+            return null;
+        }
+        if (!passwordComparator.isSupported(algorithm)) {
+            log.warn("The algorithm {} for re-hashing on login is not supported, passwords are not re-hashed", algorithm);
+            return null;
+        }
+
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-auth-rehash-%d").setDaemon(true).build());
+        return new CredentialRehasher(passwordComparator, configurations.getPasswordUpdater(), parser(settings, true),
+                algorithm, settings.getRehashIterations(), executor, settings.getRehashInterval());
+    }
+
+    private CredentialStore getCredentials() {
+        return configurations.getCredentialsConfiguration().getCredentials();
+    }
+
+    private static boolean isMapped(final CredentialStore credentials) {
+        return credentials != null && credentials.isMapped();
+    }
+
+    /**
+     * @param settings the settings the entries are parsed with
+     * @param lookup   true if an entry is parsed on every lookup instead of once per load, so malformed entries are
+     *                 only logged at debug level and can not flood the log
+     * @return parser for the entries of the credentials file
+     */
+    private CredentialIndex.Parser parser(final AuthenticatorSettings settings, final boolean lookup) {
+        final CredentialDecoder decoder = decoder(settings);
+        return new CredentialIndex.Parser() {
+            @Override
+            public ParsedCredential parse(final String username, final String value) {
+                return FileAuthenticator.this.parse(settings, decoder, username, value, lookup);
+            }
+        };
+    }
+
+    /**
+     * Parses an entry of the credentials file according to the settings with a {@link CredentialDecoder}. Entries
+     * which can not be parsed or use an unsupported algorithm are logged and marked as malformed, so authentication
+     * attempts for this user are denied.
+     *
+     * @param settings the settings the entry is parsed with
+     * @param username the username of the entry
+     * @param value    the password string of the entry
+     * @return the parsed entry
+     */
+    @VisibleForTesting
+    ParsedCredential parse(final AuthenticatorSettings settings, final String username, final String value) {
+        return parse(settings, decoder(settings), username, value, false);
+    }
+
+    private ParsedCredential parse(final AuthenticatorSettings settings, final CredentialDecoder decoder,
+                                   final String username, final String value, final boolean lookup) {
+        final ParsedCredential credential;
+        try {
+            credential = decoder.decode(value);
+        } catch (PasswordFormatException e) {
+            logMalformed(lookup, "The password of user '{}' in the credentials file has an unsupported format: {}",
+                    username, e.getMessage());
+            return ParsedCredential.MALFORMED;
+        }
+
+        if (credential.isHashed() && !isSupported(settings, credential.getAlgorithm())) {
+            logMalformed(lookup, "The password of user '{}' in the credentials file uses the unsupported algorithm {}.",
+                    username, credential.getAlgorithm());
+            return ParsedCredential.MALFORMED;
+        }
+        return credential;
+    }
+
+    /**
+     * @return true if the algorithm is the configured one, which is checked once per settings, or a supported
+     * algorithm of a self-describing entry
+     */
+    private boolean isSupported(final AuthenticatorSettings settings, final String algorithm) {
+        return algorithm.equals(settings.getAlgorithm()) || passwordComparator.isSupported(algorithm);
+    }
+
+    /**
+     * @param settings the settings the entries are decoded with
+     * @return decoder for the settings, which splits hash and salt with {@link #getHashAndSalt(AuthenticatorSettings, String)}
+     */
+    private CredentialDecoder decoder(final AuthenticatorSettings settings) {
+        return new CredentialDecoder(settings.isHashed(), settings.isSalted(), settings.isSaltFirst(),
+                settings.getSeparationChar(), settings.getAlgorithm(), settings.getIterations()) {
+            @Override
+            HashedSaltedPassword getHashAndSalt(final String hashedPassword) throws PasswordFormatException {
+                return FileAuthenticator.this.getHashAndSalt(settings, hashedPassword);
+            }
+        };
+    }
+
+    private static void logMalformed(final boolean lookup, final String format, final Object... arguments) {
+        if (lookup) {
+            log.debug(format, arguments);
         } else {
-            log.info("Cache created with settings: cacheTime:{}, cacheSize:{}", this.cachingTimeInSeconds, this.cacheSize);
+            log.warn(format, arguments);
         }
     }
 
 
-    private void loadConfig() {
-        isHashed = configurations.isHashed();
-        iterations = configurations.getHashingIterations();
-        algorithm = configurations.getHashingAlgorithm();
-        separationChar = configurations.getSeparationChar();
-        isSalted = configurations.isSalted();
-        isFirst = configurations.isSaltFirst();
-        cachingTimeInSeconds = configurations.getCachingTime();
-        cacheSize = configurations.getCacheSize();
+    /**
+     * Creates the cache for the settings. The cache of the previous state is reused with its entries if the caching
+     * settings did not change and the credentials are still verified the same way.
+     *
+     * @param settings the settings
+     * @param previous the current state, null on startup
+     * @return the cache
+     */
+    private static CredentialResultCache createCache(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        if (isSameParsing(previous, settings) && isSameCaching(previous.getSettings(), settings)) {
+            return previous.getCache();
+        }
+
+        final CredentialResultCache cache = new CredentialResultCache(settings.getCachingTimeInSeconds(), settings.getCacheSize(),
+                settings.getFailedCachingTimeInSeconds(), settings.getFailedCacheSize());
+
+        if (previous == null) {
+            log.info("Cache created with settings: cacheTime:{}, cacheSize:{}, failedCacheTime:{}, failedCacheSize:{}",
+                    settings.getCachingTimeInSeconds(), settings.getCacheSize(), settings.getFailedCachingTimeInSeconds(), settings.getFailedCacheSize());
+        } else {
+            log.info("Cache was changed to new settings: cacheTime:{}, cacheSize:{}, failedCacheTime:{}, failedCacheSize:{}",
+                    settings.getCachingTimeInSeconds(), settings.getCacheSize(), settings.getFailedCachingTimeInSeconds(), settings.getFailedCacheSize());
+        }
+        return cache;
+    }
 
-        log.debug("File Authentication Configuration:");
-        log.debug("hashed: {}", isHashed);
-        log.debug("salted: {}", isSalted);
-        log.debug("salt first: {}", isFirst);
-        log.debug("iterations: {}", iterations);
-        log.debug("algorithm: {}", algorithm);
-        log.debug("separationChar: {}", separationChar);
-        log.debug("cachingTimeInSeconds: {}", cachingTimeInSeconds);
-        log.debug("cachingSize: {}", cacheSize);
 
+    private static boolean isSameCaching(final AuthenticatorSettings previous, final AuthenticatorSettings settings) {
+        return previous.getCachingTimeInSeconds() == settings.getCachingTimeInSeconds()
+                && previous.getCacheSize() == settings.getCacheSize()
+                && previous.getFailedCachingTimeInSeconds() == settings.getFailedCachingTimeInSeconds()
+                && previous.getFailedCacheSize() == settings.getFailedCacheSize();
+    }
+
+
+    /**
+     * Creates the {@link AsyncCredentialVerifier} for the settings. The verifier of the previous state is reused if
+     * the amount of threads and the batch settings did not change.
+     *
+     * @return the verifier or null if asynchronous authentication is disabled
+     */
+    private AsyncCredentialVerifier createAsyncVerifier(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        if (!settings.isAsyncAuthentication()) {
+            return null;
+        }
+
+        final AsyncCredentialVerifier previousVerifier = previous == null ? null : previous.getAsyncVerifier();
+        if (previousVerifier != null && previousVerifier.getThreads() == settings.getAsyncAuthenticationThreads()
+                && isSameBatching(previous.getSettings(), settings)) {
+            return previousVerifier;
+        }
+
+        if (!settings.isBatchVerification()) {
+            log.info("Asynchronous authentication enabled with {} threads", settings.getAsyncAuthenticationThreads());
+            return new AsyncCredentialVerifier(settings.getAsyncAuthenticationThreads());
+        }
+        log.info("Asynchronous authentication enabled with {} threads, batches of up to {} verifications and a window of {} ms",
+                settings.getAsyncAuthenticationThreads(), settings.getBatchVerificationSize(), settings.getBatchVerificationWindow());
+        return new AsyncCredentialVerifier(settings.getAsyncAuthenticationThreads(),
+                new CredentialBatchExecutor(settings.getAsyncAuthenticationThreads(), settings.getBatchVerificationWindow(),
+                        settings.getBatchVerificationSize(), batchLatency, batchSizes));
+    }
+
+    private static boolean isSameBatching(final AuthenticatorSettings previous, final AuthenticatorSettings settings) {
+        if (previous.isBatchVerification() != settings.isBatchVerification()) {
+            return false;
+        }
+        return !settings.isBatchVerification()
+                || (previous.getBatchVerificationWindow() == settings.getBatchVerificationWindow()
+                && previous.getBatchVerificationSize() == settings.getBatchVerificationSize());
+    }
+
+    /**
+     * Registers the metrics of the batch verification. The timer contains the throughput and the percentiles of the
+     * time from the submission of a verification until its result is available.
+     *
+     * @param metricRegistry registry of HiveMQ
+     */
+    public void registerMetrics(final MetricRegistry metricRegistry) {
+        metricRegistry.register(METRIC_PREFIX + ".batch-verification.time", batchLatency);
+        metricRegistry.register(METRIC_PREFIX + ".batch-verification.batch-size", batchSizes);
+    }
+
+
+    /**
+     * Creates the {@link LoginThrottle} for the settings. The throttle of the previous state is reused with its
+     * buckets if the rates and bursts did not change.
+     *
+     * @param settings the new settings
+     * @param previous the current state, null on startup
+     * @return the throttle or null if throttling is disabled
+     */
+    private static LoginThrottle createLoginThrottle(final AuthenticatorSettings settings, final AuthenticatorState previous) {
+        if (!settings.isThrottling()) {
+            return null;
+        }
+
+        final LoginThrottle previousThrottle = previous == null ? null : previous.getLoginThrottle();
+        if (previousThrottle != null && isSameThrottling(previous.getSettings(), settings)) {
+            return previousThrottle;
+        }
+        log.info("Login throttling enabled with settings: ipRate:{}, ipBurst:{}, userRate:{}, userBurst:{}",
+                settings.getThrottlingIpRate(), settings.getThrottlingIpBurst(), settings.getThrottlingUserRate(), settings.getThrottlingUserBurst());
+        return new LoginThrottle(settings.getThrottlingIpRate(), settings.getThrottlingIpBurst(),
+                settings.getThrottlingUserRate(), settings.getThrottlingUserBurst());
+    }
+
+
+    private static boolean isSameThrottling(final AuthenticatorSettings previous, final AuthenticatorSettings settings) {
+        return previous.getThrottlingIpRate() == settings.getThrottlingIpRate()
+                && previous.getThrottlingIpBurst() == settings.getThrottlingIpBurst()
+                && previous.getThrottlingUserRate() == settings.getThrottlingUserRate()
+                && previous.getThrottlingUserBurst() == settings.getThrottlingUserBurst();
+    }
+
+
+    /**
+     * Starts or stops writing the credential cache snapshot after the properties were changed
+     */
+    private void changeSnapshotScheduler(final AuthenticatorSettings settings) {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            snapshotScheduler = null;
+        }
+        if (!settings.isCacheSnapshot()) {
+            return;
+        }
+
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-auth-snapshot-%d").setDaemon(true).build());
+        snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot();
+            }
+        }, settings.getCacheSnapshotInterval(), settings.getCacheSnapshotInterval(), TimeUnit.SECONDS);
+        log.info("Credential cache snapshot is written every {} seconds to {}",
+                settings.getCacheSnapshotInterval(), settings.getCacheSnapshotFile().getAbsolutePath());
+    }
+
+    /**
+     * Writes all successfully verified credentials of the cache to the snapshot file
+     */
+    @VisibleForTesting
+    void writeSnapshot() {
+        final AuthenticatorState state = this.state;
+        final CredentialStore credentials = getCredentials();
+        if (credentials == null) {
+            return;
+        }
+
+        final List<CredentialCacheSnapshot.Entry> entries = new ArrayList<>();
+        for (Map.Entry<CredentialCacheKey, Long> granted : state.getCache().getGranted().entrySet()) {
+            final byte[] line = credentials.getBytes(granted.getKey().getUsername());
+            if (line != null) {
+                entries.add(new CredentialCacheSnapshot.Entry(granted.getKey(),
+                        CredentialCacheSnapshot.fingerprint(keyedDigest, line), granted.getValue()));
+            }
+        }
+
+        final File snapshotFile = state.getSettings().getCacheSnapshotFile();
+        try {
+            // the key is written first, so there is never a snapshot without the key it was written with
+            final File keyFile = state.getSettings().getCacheSnapshotKeyFile();
+            if (!snapshotKeyInEnvironment && !keyFile.equals(writtenKeyFile)) {
+                CredentialCacheSnapshot.writeKey(keyFile, keyedDigest.getKey());
+                writtenKeyFile = keyFile;
+            }
+            CredentialCacheSnapshot.write(snapshotFile, state.getSettings().getHashingFingerprint(), entries);
+            log.debug("Credential cache snapshot with {} entries written", entries.size());
+        } catch (IOException e) {
+            log.warn("Not able to write credential cache snapshot {}", snapshotFile.getAbsolutePath());
+            log.debug("Original exception", e);
+        }
+    }
+
+    /**
+     * Puts all entries of the snapshot into the cache, if the hashing settings are the same, the snapshot is not older
+     * than the caching time and the credential line of the user did not change since the snapshot was written.
+     * The entries expire at the end of their original caching time.
+     *
+     * @param state    the state on startup
+     * @param snapshot the snapshot read on startup
+     */
+    private void restoreSnapshot(final AuthenticatorState state, final CredentialCacheSnapshot snapshot) {
+        final AuthenticatorSettings settings = state.getSettings();
+        if (snapshot.getSettingsFingerprint() != settings.getHashingFingerprint()) {
+            log.info("Credential cache snapshot is ignored, because the hashing settings changed");
+            return;
+        }
+        if (System.currentTimeMillis() - snapshot.getCreatedMillis() > TimeUnit.SECONDS.toMillis(settings.getCachingTimeInSeconds())) {
+            log.info("Credential cache snapshot is ignored, because it is older than the caching time");
+            return;
+        }
+
+        final CredentialStore credentials = getCredentials();
+        int restored = 0;
+        for (CredentialCacheSnapshot.Entry entry : snapshot.getEntries()) {
+            final byte[] line = credentials == null ? null : credentials.getBytes(entry.getKey().getUsername());
+            if (line != null && CredentialCacheSnapshot.fingerprint(keyedDigest, line) == entry.getLineFingerprint()
+                    && state.getCache().restore(entry.getKey(), entry.getVerifiedMillis())) {
+                restored++;
+            }
+        }
+        log.info("Restored {} of {} entries from the credential cache snapshot", restored, snapshot.getEntries().size());
     }
 
 
     /**
      * Method which checks username/password from credential file against the provided username/password using a cache
+     * <p/>
+     * If asynchronous authentication is enabled, the verification runs on the verifier threads and this method
+     * waits for its result. Otherwise it runs on the calling thread. Concurrent checks of the same credentials share
+     * one verification in both cases.
      *
      * @param clientCredentialsData holds all data about the connecting client
      * @return true, if the credentials are ok, false otherwise.
      */
     @Override
     public Boolean checkCredentials(final ClientCredentialsData clientCredentialsData) {
+        if (!hasUsernameAndPassword(clientCredentialsData)) {
+            return false;
+        }
+
+        final AuthenticatorState state = this.state;
+        final CredentialCacheKey cacheKey = createCacheKey(clientCredentialsData);
+
+        return waitForResult(checkCredentialsAsync(state, cacheKey, clientCredentialsData));
+    }
+
+    /**
+     * Checks username/password like {@link #checkCredentials(ClientCredentialsData)}, but without blocking the
+     * calling thread if the result is not cached. Concurrent checks of the same credentials share one verification.
+     * <p/>
+     * If asynchronous authentication is disabled, the check is done on the calling thread.
+     *
+     * @param clientCredentialsData holds all data about the connecting client
+     * @return future with true, if the credentials are ok, false otherwise.
+     */
+    public ListenableFuture<Boolean> checkCredentialsAsync(final ClientCredentialsData clientCredentialsData) {
+        final AuthenticatorState state = this.state;
+        if (!hasUsernameAndPassword(clientCredentialsData)) {
+            return Futures.immediateFuture(false);
+        }
+        return checkCredentialsAsync(state, createCacheKey(clientCredentialsData), clientCredentialsData);
+    }
+
+    private ListenableFuture<Boolean> checkCredentialsAsync(final AuthenticatorState state,
+                                                            final CredentialCacheKey cacheKey,
+                                                            final ClientCredentialsData clientCredentialsData) {
+        final Boolean cached = state.getCache().getIfPresent(cacheKey);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+
+        final ParsedCredential credential = state.getCredentialIndex().get(cacheKey.getUsername());
+        if (isVerified(state, cacheKey, credential)) {
+            return Futures.immediateFuture(true);
+        }
+
+        final AsyncCredentialVerifier verifier = state.getAsyncVerifier() != null ? state.getAsyncVerifier() : callerVerifier;
+        return verifier.verify(cacheKey, credential, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                // only a started verification takes a token, logins which join it are not charged
+                if (isThrottled(state, clientCredentialsData, credential != null)) {
+                    return false;
+                }
+                final Boolean granted = checkCredentialsForCaching(state, cacheKey, credential, clientCredentialsData);
+                cacheResult(state, cacheKey, credential, granted);
+                return granted;
+            }
+        });
+    }
+
+    /**
+     * Caches the result of a verification, unless the credential of the user changed while it was verified. A change
+     * replaces the state before it invalidates the cached results of the changed users, so the result could only
+     * outlive the invalidation if the state was replaced since the credential was looked up. Only then the credential
+     * is looked up again.
+     *
+     * @param state      the state the credential was looked up in
+     * @param cacheKey   the cache key of the login
+     * @param credential the verified credential of the user, null if the user is unknown
+     * @param granted    result of the verification
+     */
+    private void cacheResult(final AuthenticatorState state, final CredentialCacheKey cacheKey,
+                             final ParsedCredential credential, final boolean granted) {
+        state.getCache().put(cacheKey, granted, isFailureCacheable(credential));
+        if (this.state != state && !Objects.equal(this.state.getCredentialIndex().get(cacheKey.getUsername()), credential)) {
+            log.trace("Credential of username '{}' changed during the verification, result is not cached", cacheKey.getUsername());
+            state.getCache().invalidate(cacheKey);
+        }
+    }
+
+    /**
+     * Failed verifications are only worth caching if they are expensive, which is the case when a hash had to be
+     * computed. Unknown users and plaintext passwords are rejected by a cheap lookup anyway.
+     *
+     * @param credential the credential of the user, null if the user is unknown
+     * @return true if a failed verification of this user should be cached
+     */
+    private static boolean isFailureCacheable(final ParsedCredential credential) {
+        return credential != null && credential.isHashed();
+    }
+
+    /**
+     * Checks if the password was accepted before for the current credential line of the user. A hit is put into the
+     * cache again, so it only costs the keyed digest of the cache key.
+     *
+     * @param state      the current state
+     * @param cacheKey   the cache key of the login
+     * @param credential the credential of the user, null if the user is unknown
+     * @return true if the login can be granted without hashing the password
+     */
+    private boolean isVerified(final AuthenticatorState state, final CredentialCacheKey cacheKey,
+                               final ParsedCredential credential) {
+        final VerifiedCredentials verifiedCredentials = state.getVerifiedCredentials();
+        if (verifiedCredentials == null || !verifiedCredentials.isVerified(cacheKey, credential)) {
+            return false;
+        }
+        log.trace("Password of username '{}' was verified before for the same credential", cacheKey.getUsername());
+        cacheResult(state, cacheKey, credential, true);
+        return true;
+    }
+
+    private static Boolean waitForResult(final ListenableFuture<Boolean> future) {
         try {
-            return this.cache.get(new ClientCredentialWrapper(clientCredentialsData));
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.debug("Interrupted while waiting for the credential verification. Denying access.");
+            return false;
         } catch (ExecutionException e) {
-            log.error("Unable to load from Cache", e);
+            log.error("Unable to verify credentials", e);
             return false;
         }
     }
 
     /**
-     * Method which checks username/password from credential file against the provided username/password, it is used by
-     * the load method of the cache, if entry is absent
+     * Checks the login throttling when a password verification starts. Throttled logins are not cached.
      *
-     * @param clientCredentialsDataWrap holds all data about the connecting client
-     * @return true, if the credentials are ok, false otherwise
+     * @param state                 the current state
+     * @param clientCredentialsData holds all data about the connecting client, username must be present
+     * @param knownUser             true if the user is present in the credentials file
+     * @return true if the login must be denied without verifying the password
      */
-    private Boolean checkCredentialsForCaching(final ClientCredentialWrapper clientCredentialsDataWrap) {
-        log.trace("Checking user name and password for client with IP {}, client identifier '{}' and username '{}'",
-                clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                clientCredentialsDataWrap.getClientId(), clientCredentialsDataWrap.getUsername().or("NONE"));
-        final Optional<String> usernameOptional = clientCredentialsDataWrap.getUsername();
-        final Optional<String> passwordOptional = clientCredentialsDataWrap.getPassword();
+    private static boolean isThrottled(final AuthenticatorState state, final ClientCredentialsData clientCredentialsData,
+                                       final boolean knownUser) {
+        final LoginThrottle throttle = state.getLoginThrottle();
+        if (throttle == null
+                || throttle.tryAcquire(clientCredentialsData.getInetAddress(), clientCredentialsData.getUsername().get(), knownUser)) {
+            return false;
+        }
+        log.debug("Too many logins for client with IP {}, client identifier '{}' and username '{}'. Denying access.",
+                getHostAddress(clientCredentialsData), clientCredentialsData.getClientId(), clientCredentialsData.getUsername().get());
+        return true;
+    }
+
+    private boolean hasUsernameAndPassword(final ClientCredentialsData clientCredentialsData) {
+        final Optional<String> usernameOptional = clientCredentialsData.getUsername();
+        final Optional<String> passwordOptional = clientCredentialsData.getPassword();
 
         if (!usernameOptional.isPresent()) {
             log.debug("No username is present for client with IP {} and client identifier '{}'. Denying access.",
-                    clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                    clientCredentialsDataWrap.getClientId());
+                    getHostAddress(clientCredentialsData), clientCredentialsData.getClientId());
 
             return false;
         }
 
         if (!passwordOptional.isPresent()) {
             log.debug("No password is present for client with IP {}, client identifier '{}' and username '{}'. Denying access.",
-                    clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                    clientCredentialsDataWrap.getClientId(), clientCredentialsDataWrap.getUsername().or("NONE"));
+                    getHostAddress(clientCredentialsData), clientCredentialsData.getClientId(), usernameOptional.get());
 
             return false;
         }
+        return true;
+    }
+
+    private CredentialCacheKey createCacheKey(final ClientCredentialsData clientCredentialsData) {
+        return CredentialCacheKey.create(keyedDigest,
+                clientCredentialsData.getUsername().get(), clientCredentialsData.getPassword().get());
+    }
+
+    /**
+     * Method which checks username/password from credential file against the provided username/password, it is used by
+     * the cache, if entry is absent
+     *
+     * @param state                 the state the credentials are checked with
+     * @param cacheKey              the cache key of the credentials
+     * @param credential            the credential of the user in the credential index of the state, null if the user is unknown
+     * @param clientCredentialsData holds all data about the connecting client, username and password must be present
+     * @return true, if the credentials are ok, false otherwise
+     */
+    private Boolean checkCredentialsForCaching(final AuthenticatorState state, final CredentialCacheKey cacheKey,
+                                               final ParsedCredential credential,
+                                               final ClientCredentialsData clientCredentialsData) {
+        log.trace("Checking user name and password for client with IP {}, client identifier '{}' and username '{}'",
+                getHostAddress(clientCredentialsData), clientCredentialsData.getClientId(), clientCredentialsData.getUsername().or("NONE"));
+        final Optional<String> usernameOptional = clientCredentialsData.getUsername();
+        final Optional<String> passwordOptional = clientCredentialsData.getPassword();
 
         if (usernameOptional.isPresent() && passwordOptional.isPresent()) {
 
             final String username = usernameOptional.get();
             final String password = passwordOptional.get();
 
-            final Optional<String> hashedPasswordOptional = Optional.fromNullable(configurations.getUser(username));
-
-            if (!hashedPasswordOptional.isPresent()) {
+            if (credential == null) {
                 log.debug("No password is present for username '{}' in the config file. Denying access.", username);
                 return false;
             }
 
-            final String hashedPassword = hashedPasswordOptional.get();
+            if (credential.isMalformed()) {
+                log.debug("The password of username '{}' in the config file has an unsupported format. Denying access.", username);
+                return false;
+            }
 
-            if (!isHashed) {
-                final boolean granted = passwordComparator.validatePlaintextPassword(hashedPassword, password);
+            if (!credential.isHashed()) {
+                final boolean granted = passwordComparator.validatePlaintextPassword(credential.getPlaintextPassword(), password);
                 log.debug("Plaintext password validation for client with IP {}, client identifier '{}' and username '{}' was {}.",
-                        clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                        clientCredentialsDataWrap.getClientId(), username, granted ? "successful" : "not successful");
+                        getHostAddress(clientCredentialsData),
+                        clientCredentialsData.getClientId(), username, granted ? "successful" : "not successful");
                 return granted;
             }
 
-            if (!isSalted) {
-                final boolean granted = passwordComparator.validateHashedPassword(algorithm, password, hashedPassword, iterations);
-                log.debug("Hashed password validation (without salt) for client with IP {}, client identifier '{}' and username '{}' was {}.",
-                        clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                        clientCredentialsDataWrap.getClientId(), username, granted ? "successful" : "not successful");
-                return granted;
-            }
+            final boolean granted = passwordComparator.validateHashedPassword(
+                    credential.getAlgorithm(),
+                    password,
+                    credential.getHash(),
+                    credential.getIterations(),
+                    credential.getSalt());
 
-            final HashedSaltedPassword hashedSaltedPassword;
-            try {
-                hashedSaltedPassword = getHashAndSalt(hashedPassword);
-            } catch (PasswordFormatException e) {
-                return false;
+            if (granted && state.getVerifiedCredentials() != null) {
+                state.getVerifiedCredentials().put(cacheKey, credential);
+            }
+            if (granted && state.getRehasher() != null) {
+                state.getRehasher().rehashIfOutdated(username, password, credential);
             }
 
-            final boolean granted = passwordComparator.validateHashedAndSaltedPassword(
-                    algorithm,
-                    password,
-                    hashedSaltedPassword.getHash(),
-                    iterations,
-                    hashedSaltedPassword.getSalt());
-
-            log.debug("Hashed password validation (with salt) for client with IP {}, client identifier '{}' and username '{}' was {}.",
-                    clientCredentialsDataWrap.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress(),
-                    clientCredentialsDataWrap.getClientId(), username, granted ? "successful" : "not successful");
+            log.debug("Hashed password validation for client with IP {}, client identifier '{}' and username '{}' was {}.",
+                    getHostAddress(clientCredentialsData),
+                    clientCredentialsData.getClientId(), username, granted ? "successful" : "not successful");
             return granted;
         } else {
             return false;
@@ -249,13 +864,14 @@ public class FileAuthenticator implements OnAuthenticationCallback {
      * <p/>
      * It was extracted for being able to override it in the test cases.
      *
+     * @param settings       settings with the order of hash and salt and the separator
      * @param hashedPassword string containing hash, salt and separator
      * @return {@link HashedSaltedPassword} with hash and salt
      * @throws PasswordFormatException thrown when the string is in an unsupported format
      */
     @VisibleForTesting
-    HashedSaltedPassword getHashAndSalt(final String hashedPassword) throws PasswordFormatException {
-        return HashSaltUtil.retrieve(isFirst, separationChar, hashedPassword);
+    HashedSaltedPassword getHashAndSalt(final AuthenticatorSettings settings, final String hashedPassword) throws PasswordFormatException {
+        return HashSaltUtil.retrieve(settings.isSaltFirst(), settings.getSeparationChar(), hashedPassword);
     }
 
     /**
@@ -270,69 +886,8 @@ public class FileAuthenticator implements OnAuthenticationCallback {
     }
 
 
-    /**
-     * this is a wrapper-class for the ClientCredential
-     * it is essentiell because the guave Cache used or caching needs a correct implemented version of equals and hasCode to work
-     */
-    private final static class ClientCredentialWrapper {
-
-
-        private final Optional<InetAddress> inetAddress;
-        private final Optional<String> password;
-        private final String clientId;
-        private final Optional<String> username;
-
-
-        private ClientCredentialWrapper(ClientCredentialsData clientCredentialsData) {
-            inetAddress = clientCredentialsData.getInetAddress();
-            password = clientCredentialsData.getPassword();
-            clientId = clientCredentialsData.getClientId();
-            username = clientCredentialsData.getUsername();
-        }
-
-
-        /**
-         * BEWARE equality is only based on Username and Password!
-         *
-         * @param o the object to be compared with
-         * @return true if username and password are equal AND both not null
-         */
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-
-            ClientCredentialWrapper that = (ClientCredentialWrapper) o;
-
-            if (!this.getUsername().isPresent()) return false;
-            if (!that.getUsername().isPresent()) return false;
-            if (!this.getPassword().isPresent()) return false;
-            if (!that.getPassword().isPresent()) return false;
-
-            if (!this.getUsername().get().equals(that.getUsername().get()))
-                return false;
-            if (!this.getPassword().get().equals(that.getPassword().get()))
-                return false;
-
-            return true;
-        }
-
-        Optional<InetAddress> getInetAddress() {
-            return inetAddress;
-        }
-
-        Optional<String> getPassword() {
-            return password;
-        }
-
-        String getClientId() {
-            return clientId;
-        }
-
-        Optional<String> getUsername() {
-            return username;
-        }
+    private static String getHostAddress(final ClientCredentialsData clientCredentialsData) {
+        return clientCredentialsData.getInetAddress().or(InetAddress.getLoopbackAddress()).getHostAddress();
     }
 
-
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits the number of password verifications per client IP and per username with token buckets.
+ * <p/>
+ * Every bucket is a single slot of an {@link AtomicLongArray}, which is updated lock-free (generic cell rate
+ * algorithm: the long holds the time at which the bucket is full again). The IPs and usernames are mapped to a fixed
+ * number of buckets with a randomly seeded hash, so a bucket is never evicted and refilled early, no matter how many
+ * IPs or usernames are used. IPs or usernames which share a bucket share its limit, so the throttle can only get
+ * stricter than configured. Only users of the credentials file get a bucket, unknown usernames are limited per IP.
+ * <p/>
+ * A token is only taken if both buckets have one left, so a denied login does not drain the other bucket.
+ */
+public class LoginThrottle {
+
+    /**
+     * Number of buckets per limit, a power of two
+     */
+    @VisibleForTesting
+    static final int BUCKETS = 1 << 18;
+
+    private final Ticker ticker;
+    private final HashFunction hashFunction = Hashing.murmur3_32(new SecureRandom().nextInt());
+    private final TokenBuckets ipBuckets;
+    private final TokenBuckets userBuckets;
+
+    /**
+     * @param ipRate    allowed verifications per second and IP
+     * @param ipBurst   allowed verifications in a burst per IP
+     * @param userRate  allowed verifications per second and username
+     * @param userBurst allowed verifications in a burst per username
+     */
+    public LoginThrottle(final int ipRate, final int ipBurst, final int userRate, final int userBurst) {
+        this(ipRate, ipBurst, userRate, userBurst, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    LoginThrottle(final int ipRate, final int ipBurst, final int userRate, final int userBurst, final Ticker ticker) {
+        this.ticker = ticker;
+        this.ipBuckets = new TokenBuckets(ipRate, ipBurst);
+        this.userBuckets = new TokenBuckets(userRate, userBurst);
+    }
+
+    /**
+     * Takes a token from the bucket of the IP and from the bucket of the username, if both have one left
+     *
+     * @param inetAddress address of the client, if known
+     * @param username    the username
+     * @param knownUser   true if the user is present in the credentials file
+     * @return true if the verification is allowed, false if one of the limits is exceeded
+     */
+    public boolean tryAcquire(final Optional<InetAddress> inetAddress, final String username, final boolean knownUser) {
+        final long now = ticker.read();
+        final int ipSlot = inetAddress.isPresent() ? slot(hashFunction.hashBytes(inetAddress.get().getAddress())) : -1;
+        final int userSlot = knownUser ? slot(hashFunction.hashString(username, Charsets.UTF_8)) : -1;
+
+        if ((ipSlot >= 0 && !ipBuckets.isAvailable(ipSlot, now)) || (userSlot >= 0 && !userBuckets.isAvailable(userSlot, now))) {
+            return false;
+        }
+        if (userSlot >= 0 && !userBuckets.tryAcquire(userSlot, now)) {
+            return false;
+        }
+        if (ipSlot >= 0 && !ipBuckets.tryAcquire(ipSlot, now)) {
+            // the last token of the IP was taken concurrently
+            if (userSlot >= 0) {
+                userBuckets.release(userSlot);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static int slot(final HashCode hashCode) {
+        return hashCode.asInt() & (BUCKETS - 1);
+    }
+
+    /**
+     * Holds for every bucket the time at which it would be completely refilled
+     */
+    private static final class TokenBuckets {
+
+        /**
+         * Nanoseconds it takes to refill one token
+         */
+        private final long interval;
+
+        /**
+         * Nanoseconds a bucket may be ahead of the current time before it is empty
+         */
+        private final long tolerance;
+
+        private final AtomicLongArray refilledAt = new AtomicLongArray(BUCKETS);
+
+        private TokenBuckets(final int rate, final int burst) {
+            if (rate <= 0 || burst <= 0) {
+                throw new IllegalArgumentException("Rate and burst of the login throttling must be positive");
+            }
+            this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.tolerance = interval * (burst - 1);
+            // the ticker may return negative values, so unused buckets are marked explicitly
+            for (int i = 0; i < BUCKETS; i++) {
+                refilledAt.lazySet(i, Long.MIN_VALUE);
+            }
+        }
+
+        private long start(final long refilledAt, final long now) {
+            return refilledAt == Long.MIN_VALUE || refilledAt - now < 0 ? now : refilledAt;
+        }
+
+        private boolean isAvailable(final int slot, final long now) {
+            return start(refilledAt.get(slot), now) - now <= tolerance;
+        }
+
+        private boolean tryAcquire(final int slot, final long now) {
+            while (true) {
+                final long current = refilledAt.get(slot);
+                final long start = start(current, now);
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (refilledAt.compareAndSet(slot, current, start + interval)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Gives back a token, which was taken by {@link #tryAcquire(int, long)} before
+         */
+        private void release(final int slot) {
+            while (true) {
+                final long current = refilledAt.get(slot);
+                if (refilledAt.compareAndSet(slot, current, current - interval)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Parsed entries of the credentials file, packed into a {@link CredentialStore}.
+ * <p/>
+ * The decoded hash and salt of every user are stored as binary value next to the username, so the heap footprint
+ * does not depend on the amount of users. A {@link ParsedCredential} is only created for the duration of a lookup.
+ * The entries are either packed outside of the heap when the credentials are loaded, or read from a compiled
+ * credentials file with decoded values. Every value starts with its type:
+ * <ul>
+ * <li>malformed: no further bytes</li>
+ * <li>plaintext: the UTF-8 bytes of the password</li>
+ * <li>hashed: iterations (4 bytes), length of the algorithm (1 byte), US-ASCII algorithm, length of the hash
+ * (4 bytes), hash, salt</li>
+ * </ul>
+ */
+final class PackedCredentials {
+
+    private static final Logger log = LoggerFactory.getLogger(PackedCredentials.class);
+
+    private static final byte MALFORMED = 0;
+    private static final byte PLAINTEXT = 1;
+    private static final byte HASHED = 2;
+
+    private final CredentialStore store;
+    private final Predicate<String> supportedAlgorithms;
+
+    private PackedCredentials(final CredentialStore store, final Predicate<String> supportedAlgorithms) {
+        this.store = store;
+        this.supportedAlgorithms = supportedAlgorithms;
+    }
+
+    /**
+     * Parses all entries of the credentials file and packs them outside of the heap
+     *
+     * @param credentials the content of the credentials file
+     * @param parser      parser for a single entry
+     * @return the packed entries
+     */
+    static PackedCredentials pack(final CredentialStore credentials, final CredentialIndex.Parser parser) {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (Map.Entry<String, String> entry : credentials) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            builder.putBytes(entry.getKey(), encode(parser.parse(entry.getKey(), entry.getValue())));
+        }
+        return new PackedCredentials(builder.build(true), Predicates.<String>alwaysTrue());
+    }
+
+    /**
+     * Reads the entries of a store with decoded values, which was built with {@link #encode(ParsedCredential)}
+     *
+     * @param decoded             a store with decoded values
+     * @param supportedAlgorithms the hash algorithms which can be verified, other hashed entries are malformed
+     * @return the packed entries
+     */
+    static PackedCredentials wrap(final CredentialStore decoded, final Predicate<String> supportedAlgorithms) {
+        return new PackedCredentials(decoded, supportedAlgorithms);
+    }
+
+    /**
+     * @param credential the parsed entry of a user
+     * @return the binary value of the entry
+     */
+    static byte[] encode(final ParsedCredential credential) {
+        if (credential.isMalformed()) {
+            return new byte[]{MALFORMED};
+        }
+        if (!credential.isHashed()) {
+            final byte[] password = credential.getPlaintextPassword().getBytes(Charsets.UTF_8);
+            return ByteBuffer.allocate(1 + password.length).put(PLAINTEXT).put(password).array();
+        }
+
+        final byte[] algorithm = credential.getAlgorithm().getBytes(Charsets.US_ASCII);
+        if (algorithm.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Name of the hash algorithm is too long");
+        }
+        final byte[] hash = credential.getHash();
+        final byte[] salt = credential.getSalt();
+        return ByteBuffer.allocate(10 + algorithm.length + hash.length + salt.length)
+                .put(HASHED).putInt(credential.getIterations())
+                .put((byte) algorithm.length).put(algorithm)
+                .putInt(hash.length).put(hash).put(salt)
+                .array();
+    }
+
+    /**
+     * @param username the username
+     * @return the credential of the user or null if the user is not present
+     */
+    ParsedCredential get(final String username) {
+        final byte[] value = store.getBytes(username);
+        if (value == null) {
+            return null;
+        }
+
+        switch (value[0]) {
+            case PLAINTEXT:
+                return ParsedCredential.plaintext(new String(value, 1, value.length - 1, Charsets.UTF_8));
+            case HASHED:
+                final ByteBuffer buffer = ByteBuffer.wrap(value);
+                final int iterations = buffer.getInt(1);
+                final int algorithmLength = buffer.get(5);
+                final String algorithm = new String(value, 6, algorithmLength, Charsets.US_ASCII);
+                if (!supportedAlgorithms.apply(algorithm)) {
+                    log.debug("The password of user '{}' in the credentials file uses the unsupported algorithm {}.",
+                            username, algorithm);
+                    return ParsedCredential.MALFORMED;
+                }
+                final int hashStart = 10 + algorithmLength;
+                final int hashLength = buffer.getInt(6 + algorithmLength);
+                return ParsedCredential.hashed(algorithm, iterations,
+                        Arrays.copyOfRange(value, hashStart, hashStart + hashLength),
+                        Arrays.copyOfRange(value, hashStart + hashLength, value.length));
+            default:
+                return ParsedCredential.MALFORMED;
+        }
+    }
+
+    /**
+     * @return the amount of users
+     */
+    int size() {
+        return store.size();
+    }
+}
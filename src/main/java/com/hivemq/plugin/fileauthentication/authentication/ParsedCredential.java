@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+/**
+ * Immutable representation of one line of the credentials file, which was parsed when the file was loaded.
+ * <p/>
+ * Depending on the configuration it either holds the plaintext password or the decoded hash and salt together
+ * with the parameters which were used to create the hash.
+ */
+public final class ParsedCredential {
+
+    /**
+     * Shared instance for all entries which could not be parsed
+     */
+    public static final ParsedCredential MALFORMED = new ParsedCredential(null, null, null, null, 0);
+
+    private final String plaintextPassword;
+    private final byte[] hash;
+    private final byte[] salt;
+    private final String algorithm;
+    private final int iterations;
+
+    private ParsedCredential(final String plaintextPassword, final byte[] hash, final byte[] salt,
+                             final String algorithm, final int iterations) {
+        this.plaintextPassword = plaintextPassword;
+        this.hash = hash;
+        this.salt = salt;
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param password plaintext password read from the credential file
+     * @return new {@link ParsedCredential} for a plaintext password
+     */
+    public static ParsedCredential plaintext(final String password) {
+        return new ParsedCredential(password, null, null, null, 0);
+    }
+
+    /**
+     * @param algorithm  used hash algorithm
+     * @param iterations iterations used during the hashing
+     * @param hash       decoded hash
+     * @param salt       salt bytes, which were digested in front of the password
+     * @return new {@link ParsedCredential} for a hashed password
+     */
+    public static ParsedCredential hashed(final String algorithm, final int iterations, final byte[] hash, final byte[] salt) {
+        return new ParsedCredential(null, hash, salt, algorithm, iterations);
+    }
+
+    public boolean isMalformed() {
+        return this == MALFORMED;
+    }
+
+    public boolean isHashed() {
+        return hash != null;
+    }
+
+    public String getPlaintextPassword() {
+        return plaintextPassword;
+    }
+
+    /**
+     * The returned array is shared and must not be modified.
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * The returned array is shared and must not be modified.
+     */
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final ParsedCredential that = (ParsedCredential) o;
+
+        return iterations == that.iterations
+                && Objects.equal(plaintextPassword, that.plaintextPassword)
+                && Objects.equal(algorithm, that.algorithm)
+                && Arrays.equals(hash, that.hash)
+                && Arrays.equals(salt, that.salt);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hashCode(plaintextPassword, algorithm, iterations) + Arrays.hashCode(hash);
+    }
+}
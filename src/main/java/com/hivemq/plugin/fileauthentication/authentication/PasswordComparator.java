@@ -16,13 +16,21 @@
 
 package com.hivemq.plugin.fileauthentication.authentication;
 
+import com.hivemq.plugin.fileauthentication.util.HashSaltUtil;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.salt.FixedStringSaltGenerator;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.jasypt.digest.StandardByteDigester;
+
+import java.util.Arrays;
 
 /**
  * In this class the provided password is validated against the password in the file
+ * <p/>
+ * All hashes are computed by a {@link DigestEngine}, which produces the same digests as the jasypt
+ * password encryptor, which was used to create the credentials file. Passwords in the self-describing format
+ * of {@link PhcFormatUtil} may also use PBKDF2, which is computed by a {@link Pbkdf2Engine}.
  *
  * @author Dominik Obermaier
  * @author Christian Goetz
@@ -30,10 +38,54 @@ import org.jasypt.util.password.ConfigurablePasswordEncryptor;
 public class PasswordComparator {
 
     /**
-     * Using BouncyCastle as security provider
+     * Using BouncyCastle as security provider, unless the {@link DigestProvider} chooses the JDK
      */
     private final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
 
+    private volatile DigestEngine digestEngine = new DigestEngine(PROVIDER);
+
+    private final Pbkdf2Engine pbkdf2Engine = new Pbkdf2Engine();
+
+    /**
+     * Chooses how the security provider of the digests is selected. The digests do not change, so passwords
+     * are validated the same way before and after.
+     *
+     * @param digestProvider the new strategy, BouncyCastle is used until it is set
+     */
+    public void setDigestProvider(final DigestProvider digestProvider) {
+        if (digestEngine.getDigestProvider() != digestProvider) {
+            digestEngine = new DigestEngine(digestProvider, PROVIDER);
+        }
+    }
+
+    /**
+     * @param algorithm hash algorithm of a password in the credential file
+     * @return true if passwords hashed with this algorithm can be validated
+     */
+    public boolean isSupported(final String algorithm) {
+        if (PhcFormatUtil.isPbkdf2(algorithm)) {
+            return pbkdf2Engine.isSupported(algorithm);
+        }
+        return digestEngine.isSupported(algorithm);
+    }
+
+    /**
+     * Hashes a password, so it can be validated with {@link #validateHashedPassword(String, String, byte[], int, byte[])}
+     *
+     * @param algorithm     hash algorithm
+     * @param plainPassword plaintext password
+     * @param iterations    number of iterations, at least 1
+     * @param salt          salt bytes
+     * @return the hash, for PBKDF2 as long as the output of its pseudo random function
+     */
+    public byte[] createHash(final String algorithm, final String plainPassword, final int iterations,
+                             final byte[] salt) {
+        if (PhcFormatUtil.isPbkdf2(algorithm)) {
+            return pbkdf2Engine.derive(algorithm, plainPassword, iterations, salt, pbkdf2Engine.getHashLength(algorithm));
+        }
+        return digestEngine.digest(algorithm, plainPassword, iterations, salt);
+    }
+
     /**
      * Validates a salted and hashed password
      *
@@ -50,9 +102,17 @@ public class PasswordComparator {
                                                    final int iterations,
                                                    final String salt) {
 
-        final ConfigurablePasswordEncryptor configurablePasswordEncryptor = getEncryptor(algorithm, iterations, salt);
+        if (salt == null) {
+            return validateHashedPassword(algorithm, plainPassword, passwordHash, iterations);
+        }
 
-        return configurablePasswordEncryptor.checkPassword(plainPassword, passwordHash);
+        final byte[] decodedHash;
+        try {
+            decodedHash = Base64.decode(passwordHash);
+        } catch (DecoderException e) {
+            return false;
+        }
+        return validateHashedPassword(algorithm, plainPassword, decodedHash, iterations, HashSaltUtil.toSaltBytes(salt));
     }
 
     /**
@@ -68,8 +128,44 @@ public class PasswordComparator {
                                           final String plainPassword,
                                           final String passwordHash,
                                           final int iterations) {
-        return validateHashedAndSaltedPassword(algorithm, plainPassword, passwordHash, iterations, null);
 
+        // without a configured salt the hash contains the random salt of the digester in front of the digest
+        final byte[] decoded;
+        try {
+            decoded = Base64.decode(passwordHash);
+        } catch (DecoderException e) {
+            return false;
+        }
+        if (decoded.length <= StandardByteDigester.DEFAULT_SALT_SIZE_BYTES) {
+            return false;
+        }
+
+        return validateHashedPassword(algorithm, plainPassword,
+                Arrays.copyOfRange(decoded, StandardByteDigester.DEFAULT_SALT_SIZE_BYTES, decoded.length),
+                iterations,
+                Arrays.copyOf(decoded, StandardByteDigester.DEFAULT_SALT_SIZE_BYTES));
+    }
+
+    /**
+     * Validates a password against an already decoded hash
+     *
+     * @param algorithm     used hash algorithm
+     * @param plainPassword plaintext password provided from the client
+     * @param passwordHash  decoded hash read from the credential file
+     * @param iterations    iterations used during the hashing
+     * @param salt          salt bytes, which are digested in front of the password
+     * @return true if the hashes match, otherwise false
+     */
+    public boolean validateHashedPassword(final String algorithm,
+                                          final String plainPassword,
+                                          final byte[] passwordHash,
+                                          final int iterations,
+                                          final byte[] salt) {
+
+        if (PhcFormatUtil.isPbkdf2(algorithm)) {
+            return pbkdf2Engine.matches(algorithm, plainPassword, passwordHash, iterations, salt);
+        }
+        return digestEngine.matches(algorithm, plainPassword, passwordHash, iterations, salt);
     }
 
     /**
@@ -84,31 +180,4 @@ public class PasswordComparator {
         return filePassword.equals(clientPassword);
     }
 
-    /**
-     * This initializes the jasypt password encryptor with the correct parameters
-     *
-     * @param algorithm  used hash algorithm
-     * @param iterations iterations which should be used
-     * @param salt       salt which should be used
-     * @return jasypt password encrypter
-     */
-    private ConfigurablePasswordEncryptor getEncryptor(final String algorithm, final int iterations, final String salt) {
-        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
-
-        final SimpleDigesterConfig config = new SimpleDigesterConfig();
-        config.setProvider(PROVIDER);
-        config.setAlgorithm(algorithm);
-        config.setIterations(iterations);
-
-        if (salt != null) {
-            final FixedStringSaltGenerator saltGenerator = new FixedStringSaltGenerator();
-            saltGenerator.setSalt(salt);
-            config.setSaltGenerator(saltGenerator);
-            config.setSaltSizeBytes(salt.length());
-        }
-
-        encryptor.setConfig(config);
-        return encryptor;
-    }
-
 }
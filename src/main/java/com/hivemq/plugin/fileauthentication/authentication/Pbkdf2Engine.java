@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Derives password hashes with PBKDF2 as provided by the JDK, e.g. {@code PBKDF2WithHmacSHA256}.
+ * <p/>
+ * Like the {@link DigestEngine} every thread keeps one {@link SecretKeyFactory} per algorithm. The length of the
+ * derived key is the length of the expected hash.
+ */
+public class Pbkdf2Engine {
+
+    private final ThreadLocal<Map<String, SecretKeyFactory>> factories = new ThreadLocal<Map<String, SecretKeyFactory>>() {
+        @Override
+        protected Map<String, SecretKeyFactory> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * @param algorithm JDK name of the PBKDF2 algorithm
+     * @return true if the JDK provides the algorithm
+     */
+    public boolean isSupported(final String algorithm) {
+        try {
+            getSecretKeyFactory(algorithm);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A longer hash needs another run of all iterations per block, which costs the defender more than an attacker,
+     * who only has to compare the first block.
+     *
+     * @param algorithm JDK name of the PBKDF2 algorithm, e.g. PBKDF2WithHmacSHA1
+     * @return the output length of the pseudo random function in bytes, e.g. 20 for HMAC-SHA1
+     */
+    public int getHashLength(final String algorithm) {
+        if (!PhcFormatUtil.isPbkdf2(algorithm)) {
+            throw new IllegalArgumentException(algorithm + " is not a PBKDF2 algorithm");
+        }
+        final String mac = "Hmac" + algorithm.substring(algorithm.indexOf("Hmac") + "Hmac".length());
+        try {
+            return Mac.getInstance(mac).getMacLength();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported", e);
+        }
+    }
+
+    /**
+     * @param algorithm     JDK name of the PBKDF2 algorithm
+     * @param plainPassword plaintext password
+     * @param iterations    number of iterations, at least 1
+     * @param salt          salt bytes, not empty
+     * @param length        length of the derived hash in bytes
+     * @return the derived hash
+     */
+    public byte[] derive(final String algorithm, final String plainPassword, final int iterations,
+                         final byte[] salt, final int length) {
+        final PBEKeySpec keySpec = new PBEKeySpec(plainPassword.toCharArray(), salt, iterations, length * 8);
+        try {
+            return getSecretKeyFactory(algorithm).generateSecret(keySpec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to derive a hash with " + algorithm, e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * @param algorithm     JDK name of the PBKDF2 algorithm
+     * @param plainPassword plaintext password provided from the client
+     * @param passwordHash  expected hash
+     * @param iterations    number of iterations, at least 1
+     * @param salt          salt bytes, not empty
+     * @return true if the derived hash of the password matches the expected hash
+     */
+    public boolean matches(final String algorithm, final String plainPassword, final byte[] passwordHash,
+                           final int iterations, final byte[] salt) {
+        return MessageDigest.isEqual(derive(algorithm, plainPassword, iterations, salt, passwordHash.length), passwordHash);
+    }
+
+    private SecretKeyFactory getSecretKeyFactory(final String algorithm) {
+        final Map<String, SecretKeyFactory> threadFactories = factories.get();
+        SecretKeyFactory factory = threadFactories.get(algorithm);
+        if (factory == null) {
+            try {
+                factory = SecretKeyFactory.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Hash algorithm " + algorithm + " is not supported", e);
+            }
+            threadFactories.put(algorithm, factory);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.Set;
+
+/**
+ * Remembers the last accepted password of every user together with the version of the credential line it was
+ * verified against.
+ * <p/>
+ * Unlike the {@link CredentialResultCache}, the entries do not expire and survive reloads of other users as well
+ * as changed settings, as long as the line of the user is parsed to the same credential. A login with the remembered
+ * password then only costs the keyed digest of the password, which is computed for the cache key anyway, instead of
+ * the iterated hash. As soon as the line of the user changes, the version does not match anymore and the entry is
+ * dropped.
+ * <p/>
+ * Only the first 128 bit of the keyed digest of the password are kept, never the password itself.
+ */
+public class VerifiedCredentials {
+
+    private final Cache<String, Entry> entries;
+    private final int maximumSize;
+
+    /**
+     * @param maximumSize maximum amount of remembered users
+     */
+    public VerifiedCredentials(final int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * Checks if the password of the key was accepted before for the current credential of the user. An entry for an
+     * outdated credential is removed.
+     *
+     * @param key        cache key of the login
+     * @param credential the current credential of the user, null if the user does not exist
+     * @return true if the password was verified against the same version of the credential
+     */
+    public boolean isVerified(final CredentialCacheKey key, final ParsedCredential credential) {
+        final Entry entry = entries.getIfPresent(key.getUsername());
+        if (entry == null) {
+            return false;
+        }
+        if (credential == null || !credential.isHashed() || entry.version != version(credential)) {
+            entries.asMap().remove(key.getUsername(), entry);
+            return false;
+        }
+        return entry.digestHigh == key.getDigestHigh() && entry.digestLow == key.getDigestLow();
+    }
+
+    /**
+     * Remembers a successful verification. Plaintext credentials are not remembered, because they are cheap to
+     * verify anyway.
+     *
+     * @param key        cache key of the login
+     * @param credential the credential the password was verified against
+     */
+    public void put(final CredentialCacheKey key, final ParsedCredential credential) {
+        if (credential.isHashed()) {
+            entries.put(key.getUsername(), new Entry(version(credential), key.getDigestHigh(), key.getDigestLow()));
+        }
+    }
+
+    /**
+     * Removes the entries of the changed users whose credential changed or was removed. Users whose line was written
+     * again with the same content keep their entry.
+     *
+     * @param usernames       users which were added, removed or changed
+     * @param credentialIndex the index after the change
+     */
+    public void removeOutdated(final Set<String> usernames, final CredentialIndex credentialIndex) {
+        for (String username : usernames) {
+            final Entry entry = entries.getIfPresent(username);
+            if (entry == null) {
+                continue;
+            }
+            final ParsedCredential credential = credentialIndex.get(username);
+            if (credential == null || !credential.isHashed() || entry.version != version(credential)) {
+                entries.asMap().remove(username, entry);
+            }
+        }
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @param credential a hashed credential
+     * @return 64 bit fingerprint of everything the verification of a password depends on
+     */
+    @VisibleForTesting
+    static long version(final ParsedCredential credential) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(credential.getAlgorithm(), Charsets.UTF_8)
+                .putInt(credential.getIterations())
+                .putInt(credential.getHash().length)
+                .putBytes(credential.getHash());
+        if (credential.getSalt() != null) {
+            hasher.putBytes(credential.getSalt());
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static class Entry {
+
+        private final long version;
+        private final long digestHigh;
+        private final long digestLow;
+
+        Entry(final long version, final long digestHigh, final long digestLow) {
+            this.version = version;
+            this.digestHigh = digestHigh;
+            this.digestLow = digestLow;
+        }
+    }
+}
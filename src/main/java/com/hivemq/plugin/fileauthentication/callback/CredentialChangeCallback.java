@@ -1,9 +1,14 @@
 package com.hivemq.plugin.fileauthentication.callback;
 
+import java.util.Set;
+
 /**
  * Callback to react to the change of the credentialInformation
  */
 public interface CredentialChangeCallback {
 
-    void onCredentialChange();
+    /**
+     * @param changedUsernames usernames which were added, removed or got a new password during the reload
+     */
+    void onCredentialChange(Set<String> changedUsernames);
 }
@@ -18,16 +18,22 @@ package com.hivemq.plugin.fileauthentication.configuration;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.MapDifference;
 import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
 import com.hivemq.plugin.fileauthentication.exception.ConfigurationFileNotFoundException;
 import com.hivemq.spi.config.SystemInformation;
 import com.hivemq.spi.services.PluginExecutorService;
 import com.hivemq.spi.services.configuration.ValueChangedCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -42,6 +48,8 @@ import java.util.concurrent.TimeUnit;
 @Singleton
 public class Configuration extends ReloadingPropertiesReader {
 
+    private static final Logger log = LoggerFactory.getLogger(Configuration.class);
+
     /**
      * Default cache size (in entries)
      */
@@ -57,6 +65,51 @@ public class Configuration extends ReloadingPropertiesReader {
      */
     private static final String DEFAULT_VALUE_CACHING_TIME = "600";
 
+    /**
+     * Default cache entry lifetime in seconds for failed logins
+     */
+    private static final String DEFAULT_VALUE_FAILED_CACHING_TIME = "60";
+
+    /**
+     * Default cache size (in entries) for failed logins
+     */
+    private static final String DEFAULT_VALUE_FAILED_CACHE_SIZE = "1000";
+
+    /**
+     * Default interval in seconds in which the credential cache snapshot is written
+     */
+    private static final String DEFAULT_VALUE_CACHE_SNAPSHOT_INTERVAL = "60";
+
+    /**
+     * Default password verifications per second and client IP
+     */
+    private static final String DEFAULT_VALUE_THROTTLING_IP_RATE = "10";
+
+    /**
+     * Default password verifications per client IP in a burst
+     */
+    private static final String DEFAULT_VALUE_THROTTLING_IP_BURST = "50";
+
+    /**
+     * Default password verifications per second and username
+     */
+    private static final String DEFAULT_VALUE_THROTTLING_USER_RATE = "5";
+
+    /**
+     * Default password verifications per username in a burst
+     */
+    private static final String DEFAULT_VALUE_THROTTLING_USER_BURST = "20";
+
+    /**
+     * Default iterations of re-hashed passwords, recommended for PBKDF2 with HMAC-SHA256
+     */
+    private static final String DEFAULT_VALUE_REHASH_ITERATIONS = "310000";
+
+    /**
+     * Default interval in seconds in which re-hashed passwords are written
+     */
+    private static final String DEFAULT_VALUE_REHASH_INTERVAL = "60";
+
     /**
      * Default for the number of Hashing Iterations
      */
@@ -68,6 +121,11 @@ public class Configuration extends ReloadingPropertiesReader {
     private RestartListener listener;
     private CredentialsConfiguration credentialsConfiguration;
 
+    /**
+     * True if a property changed by the current reload requires a restart, only accessed during the reload
+     */
+    private boolean restartRequired;
+
 
 
     @Inject
@@ -79,12 +137,11 @@ public class Configuration extends ReloadingPropertiesReader {
 
         init();
 
+        // a reload which changes several properties restarts only once, see afterReload
         final ValueChangedCallback callback = new ValueChangedCallback() {
             @Override
             public void valueChanged(final Object newValue) {
-                if (listener != null) {
-                    listener.restart();
-                }
+                restartRequired = true;
             }
         };
 
@@ -93,34 +150,184 @@ public class Configuration extends ReloadingPropertiesReader {
         addCallback("passwordHashing.enabled", callback);
         addCallback("passwordHashing.iterations", callback);
         addCallback("passwordHashing.algorithm", callback);
+        addCallback("passwordHashing.provider", callback);
         addCallback("passwordHashingSalt.separationChar", callback);
         addCallback("passwordHashingSalt.enabled", callback);
         addCallback("passwordHashingSalt.isFirst", callback);
         addCallback("cachingTime.seconds", callback);
         addCallback("cacheSize", callback);
+        addCallback("failedLoginCachingTime.seconds", callback);
+        addCallback("failedLoginCacheSize", callback);
+        addCallback("asyncAuthentication.enabled", callback);
+        addCallback("asyncAuthentication.threads", callback);
+        addCallback("asyncAuthentication.batch.enabled", callback);
+        addCallback("asyncAuthentication.batch.window.millis", callback);
+        addCallback("asyncAuthentication.batch.size", callback);
+        addCallback("cacheSnapshot.enabled", callback);
+        addCallback("cacheSnapshot.interval.seconds", callback);
+        addCallback("cacheSnapshot.filename", callback);
+        addCallback("cacheSnapshot.keyFile", callback);
+        addCallback("throttling.enabled", callback);
+        addCallback("throttling.ip.rate", callback);
+        addCallback("throttling.ip.burst", callback);
+        addCallback("throttling.user.rate", callback);
+        addCallback("throttling.user.burst", callback);
+        addCallback("offHeapCredentials.enabled", callback);
+        addCallback("verifiedCredentials.enabled", callback);
+        addCallback("verifiedCredentials.size", callback);
+        addCallback("rehashOnLogin.enabled", callback);
+        addCallback("rehashOnLogin.algorithm", callback);
+        addCallback("rehashOnLogin.iterations", callback);
+        addCallback("rehashOnLogin.interval.seconds", callback);
 
     }
 
+    private Configuration(final Properties properties) {
+        super(null, null);
+        this.pluginExecutorService = null;
+        this.systemInformation = null;
+        this.properties = properties;
+    }
+
+    /**
+     * Reads the configuration file once, without watching it and without reading the credentials, for example for
+     * command line tools
+     *
+     * @param file the configuration file
+     * @return the configuration
+     * @throws IOException if the file could not be read
+     */
+    public static Configuration read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        try (Reader reader = new FileReader(file)) {
+            properties.load(reader);
+        }
+        return new Configuration(properties);
+    }
+
     @PostConstruct
     public void postConstruct() {
 
+        final Optional<String> directory = Optional.fromNullable(getCredentialsDirectory());
+        if (directory.isPresent()) {
+            if (!new File(systemInformation.getConfigFolder(), directory.get()).isDirectory()) {
+                throw new ConfigurationFileNotFoundException("Credentials directory " + directory.get() + " was not found in plugin folder:" + systemInformation.getConfigFolder().getAbsolutePath());
+            }
+            if (isCompiledCredentials()) {
+                log.warn("Compiled credentials are not supported for a credentials directory, the shards are read as .properties files");
+            }
+            if (isCredentialsJournal()) {
+                log.warn("A credential journal is not supported for a credentials directory, changed shards are reloaded instead");
+            }
+            credentialsConfiguration = new CredentialsDirectoryConfiguration(pluginExecutorService, directory.get(), getReloadInterval(), isWatchingFile(), isOffHeapCredentials(), systemInformation);
+            credentialsConfiguration.init();
+            validateRehashOnLogin();
+            return;
+        }
+
         final Optional<String> filename = Optional.fromNullable(getCredentialsFilename());
         if (filename.isPresent() && new File(systemInformation.getConfigFolder(), filename.get()).exists()) {
-            credentialsConfiguration = new CredentialsConfiguration(pluginExecutorService, getCredentialsFilename(), getReloadInterval(),systemInformation);
+            if (isCredentialsJournal()) {
+                credentialsConfiguration = new JournaledCredentialsConfiguration(pluginExecutorService, getCredentialsFilename(), getReloadInterval(),
+                        isWatchingFile(), isCompiledCredentials(), isOffHeapCredentials(), getCredentialsJournalCompactionInterval(), systemInformation);
+            } else {
+                credentialsConfiguration = new CredentialsConfiguration(pluginExecutorService, getCredentialsFilename(), getReloadInterval(), isWatchingFile(), isCompiledCredentials(), isOffHeapCredentials(), systemInformation);
+            }
             credentialsConfiguration.init();
+            validateRehashOnLogin();
         } else {
             throw new ConfigurationFileNotFoundException("Credentials file " + filename.get() + " was not found in plugin folder:" + systemInformation.getConfigFolder().getAbsolutePath());
         }
     }
 
+    /**
+     * Re-hashing on login is rejected, if the credentials can not be updated
+     */
+    private void validateRehashOnLogin() {
+        if (isRehashOnLoginEnabled() && getPasswordUpdater() == null) {
+            log.warn("Re-hashing on login requires the credential journal (credentialsJournal.enabled), passwords are not re-hashed");
+        }
+    }
+
+    /**
+     * Restarts the listener once, if any of the changed properties requires a restart
+     *
+     * @param difference the difference between the properties before and after the reload
+     */
+    @Override
+    void afterReload(final MapDifference<String, String> difference) {
+        if (!restartRequired) {
+            return;
+        }
+        restartRequired = false;
+        validateRehashOnLogin();
+        if (listener != null) {
+            listener.restart();
+        }
+    }
+
+    /**
+     * Stops watching and polling the configuration file and the credentials
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (credentialsConfiguration != null) {
+            credentialsConfiguration.shutdown();
+        }
+    }
+
     public String getCredentialsFilename() {
         return properties.getProperty("filename", "credentials.properties");
     }
 
+    /**
+     * @return the directory with the credential shards, or null if a single credentials file is used
+     */
+    public String getCredentialsDirectory() {
+        return properties.getProperty("credentialsDirectory");
+    }
+
     public int getReloadInterval() {
         return Integer.parseInt(properties.getProperty("reloadCredentialsInterval.seconds", DEFAULT_VALUE_RELOAD));
     }
 
+    /**
+     * @return true if the configuration and credentials files are reloaded as soon as they changed
+     */
+    @Override
+    public boolean isWatchingFile() {
+        return Boolean.parseBoolean(properties.getProperty("reloadOnFileChange.enabled", "true"));
+    }
+
+    /**
+     * @return true if the credentials file was compiled with {@link com.hivemq.plugin.fileauthentication.util.CredentialsCompiler}
+     */
+    public boolean isCompiledCredentials() {
+        return Boolean.parseBoolean(properties.getProperty("compiledCredentials.enabled", "false"));
+    }
+
+    /**
+     * @return true if the credentials and their parsed hashes and salts are kept in direct buffers outside of the heap
+     */
+    public boolean isOffHeapCredentials() {
+        return Boolean.parseBoolean(properties.getProperty("offHeapCredentials.enabled", "false"));
+    }
+
+    /**
+     * @return true if the records of the credential journal next to the credentials file are applied incrementally
+     */
+    public boolean isCredentialsJournal() {
+        return Boolean.parseBoolean(properties.getProperty("credentialsJournal.enabled", "false"));
+    }
+
+    /**
+     * @return interval in seconds in which the credential journal is compacted into the credentials file
+     */
+    public int getCredentialsJournalCompactionInterval() {
+        return Integer.parseInt(properties.getProperty("credentialsJournal.compactionInterval.seconds", "300"));
+    }
+
     public int getCachingTime() {
         return Integer.parseInt(properties.getProperty("cachingTime.seconds", DEFAULT_VALUE_CACHING_TIME));
     }
@@ -129,6 +336,14 @@ public class Configuration extends ReloadingPropertiesReader {
         return Integer.parseInt(properties.getProperty("cacheSize", DEFAULT_VALUE_CACHE_SIZE));
     }
 
+    public int getFailedCachingTime() {
+        return Integer.parseInt(properties.getProperty("failedLoginCachingTime.seconds", DEFAULT_VALUE_FAILED_CACHING_TIME));
+    }
+
+    public int getFailedCacheSize() {
+        return Integer.parseInt(properties.getProperty("failedLoginCacheSize", DEFAULT_VALUE_FAILED_CACHE_SIZE));
+    }
+
     public boolean isHashed() {
         return Boolean.parseBoolean(properties.getProperty("passwordHashing.enabled", "true"));
     }
@@ -141,6 +356,13 @@ public class Configuration extends ReloadingPropertiesReader {
         return properties.getProperty("passwordHashing.algorithm", "SHA-512");
     }
 
+    /**
+     * @return the strategy for the security provider of the digests: jdk, bouncycastle or auto
+     */
+    public String getDigestProvider() {
+        return properties.getProperty("passwordHashing.provider", "bouncycastle");
+    }
+
     public String getSeparationChar() {
         return properties.getProperty("passwordHashingSalt.separationChar", "$");
     }
@@ -153,6 +375,110 @@ public class Configuration extends ReloadingPropertiesReader {
         return Boolean.parseBoolean(properties.getProperty("passwordHashingSalt.isFirst", "true"));
     }
 
+    public boolean isAsyncAuthentication() {
+        return Boolean.parseBoolean(properties.getProperty("asyncAuthentication.enabled", "false"));
+    }
+
+    public int getAsyncAuthenticationThreads() {
+        return Integer.parseInt(properties.getProperty("asyncAuthentication.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public boolean isBatchVerification() {
+        return Boolean.parseBoolean(properties.getProperty("asyncAuthentication.batch.enabled", "false"));
+    }
+
+    public int getBatchVerificationWindow() {
+        return Integer.parseInt(properties.getProperty("asyncAuthentication.batch.window.millis", "5"));
+    }
+
+    public int getBatchVerificationSize() {
+        return Integer.parseInt(properties.getProperty("asyncAuthentication.batch.size", "256"));
+    }
+
+    public boolean isCacheSnapshot() {
+        return Boolean.parseBoolean(properties.getProperty("cacheSnapshot.enabled", "false"));
+    }
+
+    public int getCacheSnapshotInterval() {
+        return Integer.parseInt(properties.getProperty("cacheSnapshot.interval.seconds", DEFAULT_VALUE_CACHE_SNAPSHOT_INTERVAL));
+    }
+
+    /**
+     * @return the file of the credential cache snapshot, which is placed in the plugin folder
+     */
+    public File getCacheSnapshotFile() {
+        return new File(systemInformation.getPluginFolder(), properties.getProperty("cacheSnapshot.filename", "credential-cache.snapshot"));
+    }
+
+    /**
+     * @return the file with the key of the credential cache snapshot. A relative path is resolved against the plugin
+     * folder, by default the key file is placed next to the snapshot
+     */
+    public File getCacheSnapshotKeyFile() {
+        final File keyFile = new File(properties.getProperty("cacheSnapshot.keyFile",
+                properties.getProperty("cacheSnapshot.filename", "credential-cache.snapshot") + ".key"));
+        return keyFile.isAbsolute() ? keyFile : new File(systemInformation.getPluginFolder(), keyFile.getPath());
+    }
+
+    public boolean isThrottling() {
+        return Boolean.parseBoolean(properties.getProperty("throttling.enabled", "false"));
+    }
+
+    public int getThrottlingIpRate() {
+        return Integer.parseInt(properties.getProperty("throttling.ip.rate", DEFAULT_VALUE_THROTTLING_IP_RATE));
+    }
+
+    public int getThrottlingIpBurst() {
+        return Integer.parseInt(properties.getProperty("throttling.ip.burst", DEFAULT_VALUE_THROTTLING_IP_BURST));
+    }
+
+    public int getThrottlingUserRate() {
+        return Integer.parseInt(properties.getProperty("throttling.user.rate", DEFAULT_VALUE_THROTTLING_USER_RATE));
+    }
+
+    public int getThrottlingUserBurst() {
+        return Integer.parseInt(properties.getProperty("throttling.user.burst", DEFAULT_VALUE_THROTTLING_USER_BURST));
+    }
+
+    public boolean isVerifiedCredentials() {
+        return Boolean.parseBoolean(properties.getProperty("verifiedCredentials.enabled", "false"));
+    }
+
+    public int getVerifiedCredentialsSize() {
+        return Integer.parseInt(properties.getProperty("verifiedCredentials.size", "100000"));
+    }
+
+    /**
+     * @return true if passwords with an outdated hash are hashed again with the target cost after a successful login,
+     * always false if the credentials can not be updated
+     */
+    public boolean isRehashOnLogin() {
+        return isRehashOnLoginEnabled() && getPasswordUpdater() != null;
+    }
+
+    private boolean isRehashOnLoginEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("rehashOnLogin.enabled", "false"));
+    }
+
+    /**
+     * @return target algorithm for re-hashed passwords, as used in the self-describing password format
+     */
+    public String getRehashAlgorithm() {
+        return properties.getProperty("rehashOnLogin.algorithm", "pbkdf2-sha256");
+    }
+
+    public int getRehashIterations() {
+        return Integer.parseInt(properties.getProperty("rehashOnLogin.iterations", DEFAULT_VALUE_REHASH_ITERATIONS));
+    }
+
+    /**
+     * @return interval in seconds in which re-hashed passwords are written to the credentials
+     */
+    public int getRehashInterval() {
+        return Integer.parseInt(properties.getProperty("rehashOnLogin.interval.seconds", DEFAULT_VALUE_REHASH_INTERVAL));
+    }
+
     public String getUser(String username) {
         return credentialsConfiguration.getUser(username);
     }
@@ -185,4 +511,11 @@ public class Configuration extends ReloadingPropertiesReader {
     public CredentialsConfiguration getCredentialsConfiguration() {
         return credentialsConfiguration;
     }
+
+    /**
+     * @return the credentials as {@link PasswordUpdater}, or null if they can not be updated
+     */
+    public PasswordUpdater getPasswordUpdater() {
+        return credentialsConfiguration instanceof PasswordUpdater ? (PasswordUpdater) credentialsConfiguration : null;
+    }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Append-only journal of changes to the credentials file, which is read incrementally.
+ * <p/>
+ * Every line of the UTF-8 encoded journal is a record:
+ * <ul>
+ * <li><code>add username=password</code> or <code>update username=password</code> sets the password entry</li>
+ * <li><code>delete username</code> removes the user</li>
+ * </ul>
+ * Username and password are escaped like in a .properties file, empty lines and lines starting with <code>#</code>
+ * are ignored. Only complete lines are read, a line which is still being written is read with the next call.
+ * Writers must only append to the journal and should hold a {@link FileLock} while appending, which is also taken
+ * before the journal is truncated.
+ */
+final class CredentialJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialJournal.class);
+
+    private final File file;
+
+    /**
+     * Position after the last complete line that was read
+     */
+    private long position;
+
+    CredentialJournal(final File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if records were read since the journal was rewound or truncated
+     */
+    boolean hasRecords() {
+        return position > 0;
+    }
+
+    /**
+     * Reads the journal from the beginning with the next call of {@link #readNew()}
+     */
+    void rewind() {
+        position = 0;
+    }
+
+    /**
+     * @return true if the journal is shorter than the already read part, so it was truncated or replaced
+     */
+    boolean wasTruncated() {
+        return file.length() < position;
+    }
+
+    /**
+     * Reads all complete records which were appended since the last call
+     *
+     * @return the new password entries by username, absent for deleted users, the last record of a user wins
+     * @throws IOException if the journal could not be read
+     */
+    Map<String, Optional<String>> readNew() throws IOException {
+        if (!file.exists()) {
+            return Collections.emptyMap();
+        }
+
+        final byte[] content;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long available = channel.size() - position;
+            if (available <= 0) {
+                return Collections.emptyMap();
+            }
+            if (available > Integer.MAX_VALUE) {
+                throw new IOException("Credential journal is too large, it must be compacted");
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) available);
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                // read until the buffer is full
+            }
+            content = buffer.array();
+        }
+
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0) {
+            return Collections.emptyMap();
+        }
+        position += end;
+
+        final Map<String, Optional<String>> records = new LinkedHashMap<>();
+        for (String line : new String(content, 0, end, Charsets.UTF_8).split("\n")) {
+            // like in a .properties file only leading whitespace is skipped, trailing whitespace belongs to the value
+            parseRecord(stripLeadingWhitespace(line), records);
+        }
+        return records;
+    }
+
+    private static String stripLeadingWhitespace(final String line) {
+        int start = 0;
+        while (start < line.length() && isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        return line.substring(start);
+    }
+
+    /**
+     * @return true for the whitespace characters of {@link Properties#load(java.io.Reader)}
+     */
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\f' || c == '\r';
+    }
+
+    private void parseRecord(final String line, final Map<String, Optional<String>> records) throws IOException {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return;
+        }
+
+        final int separator = line.indexOf(' ');
+        final String operation = separator < 0 ? line : line.substring(0, separator);
+        final Properties entry = new Properties();
+        if (separator >= 0) {
+            entry.load(new StringReader(line.substring(separator + 1)));
+        }
+        if (entry.size() != 1) {
+            log.warn("Ignoring invalid record '{}' in credential journal {}", operation, file.getAbsolutePath());
+            return;
+        }
+
+        final String username = entry.stringPropertyNames().iterator().next();
+        switch (operation) {
+            case "add":
+            case "update":
+                records.put(username, Optional.of(entry.getProperty(username)));
+                break;
+            case "delete":
+                records.put(username, Optional.<String>absent());
+                break;
+            default:
+                log.warn("Ignoring unknown record '{}' in credential journal {}", operation, file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Appends records for the changes while holding a {@link FileLock}
+     *
+     * @param changes the new password entries by username, absent for deleted users
+     * @throws IOException if the journal could not be written
+     */
+    void append(final Map<String, Optional<String>> changes) throws IOException {
+        final StringBuilder records = new StringBuilder();
+        for (Map.Entry<String, Optional<String>> change : changes.entrySet()) {
+            records.append(change.getValue().isPresent() ? "update " : "delete ");
+            CredentialStore.escape(change.getKey(), true, records);
+            if (change.getValue().isPresent()) {
+                records.append('=');
+                CredentialStore.escape(change.getValue().get(), false, records);
+            }
+            records.append('\n');
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.lock();
+            try {
+                // other writers append while holding the lock as well, so the end of the journal does not move
+                final long end = channel.size();
+                if (end > 0 && !endsWithNewline(channel)) {
+                    records.insert(0, '\n');
+                }
+                final ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(Charsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, end + buffer.position());
+                }
+                channel.force(false);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(final FileChannel channel) throws IOException {
+        final ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, channel.size() - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * Truncates the journal, if no records were appended since the last call of {@link #readNew()}
+     *
+     * @return true if the journal was truncated or does not exist
+     * @throws IOException if the journal could not be truncated
+     */
+    boolean truncateIfRead() throws IOException {
+        if (!file.exists()) {
+            position = 0;
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final FileLock lock = channel.lock();
+            try {
+                if (channel.size() != position) {
+                    return false;
+                }
+                channel.truncate(0);
+                position = 0;
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+}
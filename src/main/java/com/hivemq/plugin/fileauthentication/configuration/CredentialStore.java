@@ -0,0 +1,920 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.hivemq.plugin.fileauthentication.util.FilePermissionUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Immutable store of the entries of the credentials file.
+ * <p/>
+ * All usernames and passwords are packed as UTF-8 into a single buffer. An open-addressing hash table with linear
+ * probing maps the usernames to the offsets of their entries, so the store needs a few objects in total instead of
+ * several objects per user, and lookups never take a lock.
+ * <p/>
+ * The buffer is either on the heap or a read-only mapping of a compiled credentials file, which was written by
+ * {@link #writeTo(File)}. Both have the same layout (big endian):
+ * <ul>
+ * <li>header: magic, version, amount of users, amount of slots, length of the data (4 bytes each), fingerprint of
+ * the settings the values were decoded with or 0 for password strings (8 bytes)</li>
+ * <li>table: offset of the entry in the data or -1 for an empty slot, String hash code of the username
+ * (4 bytes each) for every slot</li>
+ * <li>data: username length (4 bytes), username, password length (4 bytes), password for every entry</li>
+ * </ul>
+ * <p/>
+ * The buffer of a store built with {@link Builder#build(boolean)} can also be a direct buffer outside of the heap,
+ * which keeps the heap footprint independent of the amount of users. Such stores and compiled credentials files can
+ * also hold binary values, which are read with {@link #getBytes(String)}. A store with decoded values has a
+ * {@link #getFingerprint() fingerprint}, so the values are never interpreted with other settings than they were
+ * decoded with.
+ * <p/>
+ * A few changes, for example of the credential journal, are applied with {@link #withChanges(Map)} as a small overlay
+ * on top of the buffer, so the buffer does not need to be rebuilt for every change.
+ */
+public final class CredentialStore implements Iterable<Map.Entry<String, String>> {
+
+    public static final CredentialStore EMPTY = new Builder().build();
+
+    /**
+     * Every change copies the overlay, so an overlay beyond this size should be compacted
+     */
+    public static final int MAX_OVERLAY_SIZE = 1024;
+
+    private static final int MAGIC = 0x46414343;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 28;
+    private static final int SLOT_SIZE = 8;
+    private static final int EMPTY_SLOT = -1;
+
+    private final ByteBuffer buffer;
+    private final boolean mapped;
+    private final int size;
+    private final int capacity;
+    private final int dataStart;
+    private final long fingerprint;
+
+    /**
+     * Users which were added, changed or removed (absent) after the buffer was built
+     */
+    private final ImmutableMap<String, Optional<String>> overlay;
+
+    private CredentialStore(final ByteBuffer buffer, final boolean mapped) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled credentials file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " of compiled credentials file");
+        }
+        this.size = buffer.getInt(8);
+        this.capacity = buffer.getInt(12);
+        this.dataStart = HEADER_SIZE + capacity * SLOT_SIZE;
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || size >= capacity
+                || (long) dataStart + buffer.getInt(16) != buffer.limit()) {
+            throw new IOException("Compiled credentials file is corrupt");
+        }
+        this.fingerprint = buffer.getLong(20);
+        this.buffer = buffer;
+        this.mapped = mapped;
+        this.overlay = ImmutableMap.of();
+    }
+
+    private CredentialStore(final CredentialStore base, final ImmutableMap<String, Optional<String>> overlay, final int size) {
+        this.buffer = base.buffer;
+        this.mapped = base.mapped;
+        this.capacity = base.capacity;
+        this.dataStart = base.dataStart;
+        this.fingerprint = base.fingerprint;
+        this.overlay = overlay;
+        this.size = size;
+    }
+
+    /**
+     * Parses a .properties file directly into a new store, without creating a {@link Properties} table.
+     * <p/>
+     * The syntax of the file is exactly the one of {@link Properties#load(Reader)}. If a username is contained more
+     * than once, the last entry wins.
+     *
+     * @param reader the content of the credentials file, is not closed
+     * @return the new store
+     * @throws IOException if the reader could not be read
+     */
+    public static CredentialStore load(final Reader reader) throws IOException {
+        final Builder builder = new Builder();
+        new BuilderProperties(builder).load(reader);
+        return builder.build();
+    }
+
+    /**
+     * Merges several stores into a new store. If a username is contained in more than one store, the entry of the
+     * last store wins.
+     *
+     * @param stores the stores to merge
+     * @return the new store
+     */
+    public static CredentialStore merge(final Iterable<CredentialStore> stores) {
+        final Builder builder = new Builder();
+        for (CredentialStore store : stores) {
+            builder.putAll(store);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a store with some changed entries, which shares the buffer with this store. The cost depends only on the
+     * amount of changes, not on the size of this store.
+     *
+     * @param changes the new password entries by username, absent for removed users
+     * @return the new store
+     * @throws IllegalStateException if the store holds decoded values, which can not be mixed with password strings
+     */
+    public CredentialStore withChanges(final Map<String, Optional<String>> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        if (isDecoded()) {
+            throw new IllegalStateException("Password strings can not be added to a store with decoded values");
+        }
+        final Map<String, Optional<String>> merged = new HashMap<>(overlay);
+        int newSize = size;
+        for (Map.Entry<String, Optional<String>> change : changes.entrySet()) {
+            final boolean present = get(change.getKey()) != null;
+            if (present != change.getValue().isPresent()) {
+                newSize += present ? -1 : 1;
+            }
+            merged.put(change.getKey(), change.getValue());
+        }
+        return new CredentialStore(this, ImmutableMap.copyOf(merged), newSize);
+    }
+
+    /**
+     * @return a store without overlay, whose entries are all packed into a single buffer
+     */
+    public CredentialStore compact() {
+        return overlay.isEmpty() ? this : merge(Collections.singletonList(this));
+    }
+
+    /**
+     * Maps a compiled credentials file read-only into memory. Only the header is read, the entries are read from the
+     * mapping when they are looked up.
+     * <p/>
+     * The file must not be modified while it is mapped, a new version has to be moved over it instead.
+     *
+     * @param file the compiled credentials file
+     * @return the new store
+     * @throws IOException if the file could not be mapped or is not a compiled credentials file
+     */
+    public static CredentialStore map(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Compiled credentials file is too large");
+            }
+            // the mapping stays valid after the channel was closed
+            return new CredentialStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+        }
+    }
+
+    /**
+     * Writes this store as compiled credentials file, which can be mapped with {@link #map(File)}.
+     * <p/>
+     * The file is written next to the target and then moved over it, so a mapping of the previous file stays valid.
+     * The new file gets the permissions and owner of the previous file, a new file is only readable by its owner.
+     *
+     * @param file the compiled credentials file
+     * @throws IOException if the file could not be written
+     */
+    public void writeTo(final File file) throws IOException {
+        if (!overlay.isEmpty()) {
+            compact().writeTo(file);
+            return;
+        }
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FilePermissionUtil.createOwnerOnly(temporary)) {
+            final ByteBuffer content = buffer.duplicate();
+            content.clear();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        FilePermissionUtil.copyPermissions(target, temporary);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the entries as .properties file, which can be read with {@link #load(Reader)}. All characters outside of
+     * ASCII in changed and new entries are escaped, so these can be read with any ASCII compatible charset.
+     * <p/>
+     * If the file exists, its layout is kept: comments, blank lines and unchanged entries are written as they were,
+     * changed entries are rewritten at their position, entries of removed users are dropped and new entries are
+     * appended. The existing file is read with the default charset, like a {@link java.io.FileReader} does.
+     * <p/>
+     * The file is written next to the target and then moved over it. The new file gets the permissions and owner of
+     * the previous file, a new file is only readable by its owner.
+     *
+     * @param file the credentials file
+     * @throws IOException if the file could not be written
+     */
+    public void writePropertiesTo(final File file) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        final List<PropertiesLayout.Line> layout = Files.exists(target)
+                ? PropertiesLayout.read(new String(Files.readAllBytes(target), Charset.defaultCharset()))
+                : Collections.<PropertiesLayout.Line>emptyList();
+
+        try (FileChannel channel = FilePermissionUtil.createOwnerOnly(temporary)) {
+            final Writer writer = Channels.newWriter(channel, Charset.defaultCharset().newEncoder(), 64 * 1024);
+            final Set<String> written = writeLayout(layout, writer);
+
+            final StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, String> entry : this) {
+                if (written.contains(entry.getKey())) {
+                    continue;
+                }
+                line.setLength(0);
+                escape(entry.getKey(), true, line);
+                line.append('=');
+                escape(entry.getValue(), false, line);
+                writer.write(line.append('\n').toString());
+            }
+            writer.flush();
+            channel.force(true);
+        }
+        FilePermissionUtil.copyPermissions(target, temporary);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the lines of the previous file with the entries of this store
+     *
+     * @return the usernames which were written
+     */
+    private Set<String> writeLayout(final List<PropertiesLayout.Line> layout, final Writer writer) throws IOException {
+        // if a username is contained more than once, the last entry wins
+        final Map<String, PropertiesLayout.Line> lastLines = new HashMap<>();
+        for (PropertiesLayout.Line line : layout) {
+            if (line.getKey() != null) {
+                lastLines.put(line.getKey(), line);
+            }
+        }
+
+        final StringBuilder escaped = new StringBuilder();
+        for (PropertiesLayout.Line line : layout) {
+            final String key = line.getKey();
+            final String value = key == null ? null : get(key);
+            if (key != null && value == null) {
+                continue;
+            }
+
+            final PropertiesLayout.Line lastLine = lastLines.get(key);
+            if (key == null || value.equals(lastLine.getValue())) {
+                writer.write(line.getText());
+            } else if (line == lastLine) {
+                escaped.setLength(0);
+                escape(key, true, escaped);
+                escaped.append('=');
+                escape(value, false, escaped);
+                writer.write(escaped.toString());
+            } else {
+                // an earlier entry of a changed user, the changed entry is written at the position of the last one
+                continue;
+            }
+            // appended entries need to start on a line of their own
+            writer.write(line.getTerminator().isEmpty() ? "\n" : line.getTerminator());
+        }
+        return lastLines.keySet();
+    }
+
+    /**
+     * Escapes a key or value like {@link Properties#store(Writer, String)} does
+     */
+    static void escape(final String string, final boolean key, final StringBuilder out) {
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case ' ':
+                    out.append(i == 0 || key ? "\\ " : " ");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                case '\\':
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    out.append('\\').append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        out.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * @param username the username
+     * @return the password entry of the user or null if the user is not present
+     */
+    public String get(final String username) {
+        if (!overlay.isEmpty()) {
+            final Optional<String> changed = overlay.get(username);
+            if (changed != null) {
+                return changed.orNull();
+            }
+        }
+        final int valuePosition = findValue(username);
+        return valuePosition < 0 ? null : string(valuePosition + 4, buffer.getInt(valuePosition));
+    }
+
+    /**
+     * @param username the username
+     * @return a copy of the value bytes of the user or null if the user is not present
+     */
+    public byte[] getBytes(final String username) {
+        if (!overlay.isEmpty()) {
+            final Optional<String> changed = overlay.get(username);
+            if (changed != null) {
+                return changed.isPresent() ? changed.get().getBytes(Charsets.UTF_8) : null;
+            }
+        }
+        final int valuePosition = findValue(username);
+        if (valuePosition < 0) {
+            return null;
+        }
+        final byte[] value = new byte[buffer.getInt(valuePosition)];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(valuePosition + 4);
+        source.get(value);
+        return value;
+    }
+
+    /**
+     * @return the position of the length of the value of the user, or -1 if the user is not present
+     */
+    private int findValue(final String username) {
+        final int hash = username.hashCode();
+        final int mask = capacity - 1;
+        byte[] usernameBytes = null;
+
+        for (int slot = smear(hash) & mask; ; slot = (slot + 1) & mask) {
+            final int offset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+            if (offset == EMPTY_SLOT) {
+                return -1;
+            }
+            if (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4) == hash) {
+                if (usernameBytes == null) {
+                    usernameBytes = username.getBytes(Charsets.UTF_8);
+                }
+                final int position = dataStart + offset;
+                if (usernameEquals(buffer, position, usernameBytes)) {
+                    return position + 4 + usernameBytes.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the amount of users
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the amount of users which were changed with {@link #withChanges(Map)} since the buffer was built
+     */
+    public int overlaySize() {
+        return overlay.size();
+    }
+
+    /**
+     * @return true if the entries are read from a mapped compiled credentials file
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return fingerprint of the settings the binary values were decoded with, 0 if the values are password strings
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the values are decoded binary values instead of password strings
+     */
+    public boolean isDecoded() {
+        return fingerprint != 0;
+    }
+
+    /**
+     * @return true if the entries are stored outside of the heap, either mapped or in a direct buffer
+     */
+    public boolean isOffHeap() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * @return a store with the same entries in a direct buffer outside of the heap, this store if it is already
+     * outside of the heap
+     */
+    public CredentialStore toOffHeap() {
+        if (!overlay.isEmpty()) {
+            return compact().toOffHeap();
+        }
+        if (isOffHeap()) {
+            return this;
+        }
+        final ByteBuffer direct = ByteBuffer.allocateDirect(buffer.limit());
+        final ByteBuffer source = buffer.duplicate();
+        source.clear();
+        direct.put(source);
+        direct.clear();
+        try {
+            return new CredentialStore(direct, false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the entries in no particular order, every call creates new strings
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        if (overlay.isEmpty()) {
+            return packedIterator();
+        }
+        final Iterator<Map.Entry<String, String>> unchanged = Iterators.filter(packedIterator(), new Predicate<Map.Entry<String, String>>() {
+            @Override
+            public boolean apply(final Map.Entry<String, String> entry) {
+                return !overlay.containsKey(entry.getKey());
+            }
+        });
+        final Iterator<Map.Entry<String, String>> changed = new AbstractIterator<Map.Entry<String, String>>() {
+            private final Iterator<Map.Entry<String, Optional<String>>> changes = overlay.entrySet().iterator();
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                while (changes.hasNext()) {
+                    final Map.Entry<String, Optional<String>> change = changes.next();
+                    if (change.getValue().isPresent()) {
+                        return new AbstractMap.SimpleImmutableEntry<>(change.getKey(), change.getValue().get());
+                    }
+                }
+                return endOfData();
+            }
+        };
+        return Iterators.concat(unchanged, changed);
+    }
+
+    private Iterator<Map.Entry<String, String>> packedIterator() {
+        return new AbstractIterator<Map.Entry<String, String>>() {
+            private int slot = 0;
+
+            @Override
+            protected Map.Entry<String, String> computeNext() {
+                while (slot < capacity) {
+                    final int offset = buffer.getInt(HEADER_SIZE + slot++ * SLOT_SIZE);
+                    if (offset != EMPTY_SLOT) {
+                        final int position = dataStart + offset;
+                        final int usernameLength = buffer.getInt(position);
+                        final int valuePosition = position + 4 + usernameLength;
+                        return new AbstractMap.SimpleImmutableEntry<>(
+                                string(position + 4, usernameLength),
+                                string(valuePosition + 4, buffer.getInt(valuePosition)));
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * Finds all entries which differ from the entries of another store, for example the store before a reload.
+     * <p/>
+     * The username hash codes, which were computed while parsing, locate the entry of a user in the other store, and
+     * the UTF-8 bytes of both entries are compared directly. So the result is exact, and only the usernames of
+     * changed entries are decoded. Users in the overlay of one of the stores are compared by their entries, so the
+     * cost of the overlays only depends on their size.
+     *
+     * @param previous the store to compare with
+     * @return all usernames which were added, removed or whose password entry changed
+     */
+    public Set<String> changedUsernames(final CredentialStore previous) {
+        final ImmutableSet.Builder<String> packedChanges = ImmutableSet.builder();
+        collectChanges(this, previous, true, packedChanges);
+        collectChanges(previous, this, false, packedChanges);
+        if (overlay.isEmpty() && previous.overlay.isEmpty()) {
+            return packedChanges.build();
+        }
+
+        final ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+        for (String username : Iterables.concat(packedChanges.build(), overlay.keySet(), previous.overlay.keySet())) {
+            if (!Objects.equal(get(username), previous.get(username))) {
+                changed.add(username);
+            }
+        }
+        return changed.build();
+    }
+
+    /**
+     * @param source        the store whose entries are looked up in the other store
+     * @param other         the other store
+     * @param compareValues true to compare the password entries, false to only find users missing in the other store
+     * @param changed       builder the changed usernames are added to
+     */
+    private static void collectChanges(final CredentialStore source, final CredentialStore other, final boolean compareValues,
+                                       final ImmutableSet.Builder<String> changed) {
+        final ByteBuffer buffer = source.buffer;
+        for (int slot = 0; slot < source.capacity; slot++) {
+            final int offset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+            if (offset == EMPTY_SLOT) {
+                continue;
+            }
+            final int position = source.dataStart + offset;
+            final int otherPosition = other.find(buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4), buffer, position);
+            if (otherPosition < 0 || (compareValues && !bytesEqual(
+                    buffer, position + 4 + buffer.getInt(position),
+                    other.buffer, otherPosition + 4 + other.buffer.getInt(otherPosition)))) {
+                changed.add(source.string(position + 4, buffer.getInt(position)));
+            }
+        }
+    }
+
+    /**
+     * @param hash           String hash code of the username
+     * @param entries        buffer of another store
+     * @param entryPosition  position of the entry in the buffer of the other store
+     * @return the position of the entry with the same username in this store or -1 if the user is not present
+     */
+    private int find(final int hash, final ByteBuffer entries, final int entryPosition) {
+        final int mask = capacity - 1;
+        for (int slot = smear(hash) & mask; ; slot = (slot + 1) & mask) {
+            final int offset = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+            if (offset == EMPTY_SLOT) {
+                return -1;
+            }
+            if (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4) == hash) {
+                final int position = dataStart + offset;
+                if (bytesEqual(buffer, position, entries, entryPosition)) {
+                    return position;
+                }
+            }
+        }
+    }
+
+    /**
+     * Two stores are equal if they contain the same users with the same passwords
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final CredentialStore that = (CredentialStore) o;
+        if (size != that.size) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : this) {
+            if (!entry.getValue().equals(that.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash code as defined by {@link Map#hashCode()}
+     */
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+        for (Map.Entry<String, String> entry : this) {
+            hashCode += entry.hashCode();
+        }
+        return hashCode;
+    }
+
+    private String string(final int position, final int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + position, length, Charsets.UTF_8);
+        }
+        final byte[] bytes = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Compares two length-prefixed byte sequences
+     */
+    private static boolean bytesEqual(final ByteBuffer buffer, final int position, final ByteBuffer other, final int otherPosition) {
+        final int length = buffer.getInt(position);
+        if (other.getInt(otherPosition) != length) {
+            return false;
+        }
+        for (int i = 4; i < length + 4; i++) {
+            if (buffer.get(position + i) != other.get(otherPosition + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean usernameEquals(final ByteBuffer buffer, final int position, final byte[] username) {
+        if (buffer.getInt(position) != username.length) {
+            return false;
+        }
+        for (int i = 0; i < username.length; i++) {
+            if (buffer.get(position + 4 + i) != username[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of the String hash code, so similar usernames do not end up in neighbouring slots
+     */
+    private static int smear(final int hashCode) {
+        return 0x1b873593 * Integer.rotateLeft(hashCode * 0xcc9e2d51, 15);
+    }
+
+    /**
+     * Passes the entries of {@link Properties#load(Reader)} to a builder instead of keeping them in the table
+     */
+    private static final class BuilderProperties extends Properties {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Builder builder;
+
+        BuilderProperties(final Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public synchronized Object put(final Object key, final Object value) {
+            builder.put((String) key, (String) value);
+            return null;
+        }
+    }
+
+    /**
+     * Builds a {@link CredentialStore}. The entries are packed and inserted into the table while they are added, so
+     * {@link #build()} only trims the data.
+     */
+    public static final class Builder {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private byte[] data = new byte[1024];
+        private int length;
+        private int[] offsets = emptyTable(INITIAL_CAPACITY);
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private int size;
+        private long fingerprint;
+
+        /**
+         * Marks the values as decoded binary values, see {@link CredentialStore#getFingerprint()}
+         *
+         * @param fingerprint fingerprint of the settings the values were decoded with, not 0
+         * @return this builder
+         */
+        public Builder decodedWith(final long fingerprint) {
+            this.fingerprint = fingerprint;
+            return this;
+        }
+
+        /**
+         * Adds an entry, an existing entry of the same user is replaced
+         *
+         * @param username the username
+         * @param password the password entry of the user
+         * @return this builder
+         */
+        public Builder put(final String username, final String password) {
+            return putBytes(username, password.getBytes(Charsets.UTF_8));
+        }
+
+        /**
+         * Adds an entry with a binary value, which can only be read with {@link CredentialStore#getBytes(String)}.
+         * An existing entry of the same user is replaced.
+         *
+         * @param username the username
+         * @param value    the value of the user
+         * @return this builder
+         */
+        public Builder putBytes(final String username, final byte[] value) {
+            final byte[] usernameBytes = username.getBytes(Charsets.UTF_8);
+
+            final int offset = length;
+            ensureCapacity(8 + usernameBytes.length + value.length);
+            writeInt(usernameBytes.length);
+            System.arraycopy(usernameBytes, 0, data, length, usernameBytes.length);
+            length += usernameBytes.length;
+            writeInt(value.length);
+            System.arraycopy(value, 0, data, length, value.length);
+            length += value.length;
+
+            inserted(insert(offsets, hashes, data, username.hashCode(), offset, true));
+            return this;
+        }
+
+        /**
+         * Adds all entries of a store, existing entries of the same users are replaced. The packed entries are copied
+         * without decoding them.
+         *
+         * @param store the store to add
+         * @return this builder
+         */
+        public Builder putAll(final CredentialStore store) {
+            if (!store.overlay.isEmpty()) {
+                for (Map.Entry<String, String> entry : store) {
+                    put(entry.getKey(), entry.getValue());
+                }
+                return this;
+            }
+
+            final ByteBuffer source = store.buffer.duplicate();
+            for (int slot = 0; slot < store.capacity; slot++) {
+                final int entryOffset = source.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+                if (entryOffset == EMPTY_SLOT) {
+                    continue;
+                }
+                final int position = store.dataStart + entryOffset;
+                final int usernameLength = source.getInt(position);
+                final int entryLength = 8 + usernameLength + source.getInt(position + 4 + usernameLength);
+
+                final int offset = length;
+                ensureCapacity(entryLength);
+                source.position(position);
+                source.get(data, offset, entryLength);
+                length += entryLength;
+
+                inserted(insert(offsets, hashes, data, source.getInt(HEADER_SIZE + slot * SLOT_SIZE + 4), offset, true));
+            }
+            return this;
+        }
+
+        /**
+         * @return the new store on the heap, the builder must not be used afterwards
+         */
+        public CredentialStore build() {
+            return build(false);
+        }
+
+        /**
+         * @param offHeap true to store the entries in a direct buffer outside of the heap
+         * @return the new store, the builder must not be used afterwards
+         */
+        public CredentialStore build(final boolean offHeap) {
+            final long storeSize = HEADER_SIZE + (long) offsets.length * SLOT_SIZE + length;
+            if (storeSize > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many credentials for a single store");
+            }
+
+            final ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect((int) storeSize) : ByteBuffer.allocate((int) storeSize);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(offsets.length).putInt(length).putLong(fingerprint);
+            for (int slot = 0; slot < offsets.length; slot++) {
+                buffer.putInt(offsets[slot]).putInt(hashes[slot]);
+            }
+            buffer.put(data, 0, length);
+
+            data = null;
+            offsets = null;
+            hashes = null;
+            try {
+                return new CredentialStore(buffer, false);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void inserted(final boolean newSlot) {
+            if (newSlot) {
+                size++;
+                if (2 * size > offsets.length) {
+                    resize();
+                }
+            }
+        }
+
+        /**
+         * @param offset  offset of the entry, which is already written to the data
+         * @param compare true if the username may already be present
+         * @return true if a new slot was used, false if the entry of an existing user was replaced
+         */
+        private static boolean insert(final int[] offsets, final int[] hashes, final byte[] data,
+                                      final int hash, final int offset, final boolean compare) {
+            final int mask = offsets.length - 1;
+            for (int slot = smear(hash) & mask; ; slot = (slot + 1) & mask) {
+                if (offsets[slot] == EMPTY_SLOT) {
+                    offsets[slot] = offset;
+                    hashes[slot] = hash;
+                    return true;
+                }
+                if (compare && hashes[slot] == hash) {
+                    final ByteBuffer entries = ByteBuffer.wrap(data);
+                    if (bytesEqual(entries, offsets[slot], entries, offset)) {
+                        offsets[slot] = offset;
+                        return false;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            final int[] newOffsets = emptyTable(2 * offsets.length);
+            final int[] newHashes = new int[newOffsets.length];
+            for (int slot = 0; slot < offsets.length; slot++) {
+                if (offsets[slot] != EMPTY_SLOT) {
+                    // all usernames are distinct, so they do not need to be compared
+                    insert(newOffsets, newHashes, data, hashes[slot], offsets[slot], false);
+                }
+            }
+            offsets = newOffsets;
+            hashes = newHashes;
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (length + additional > data.length) {
+                data = Arrays.copyOf(data, Math.max(2 * data.length, length + additional));
+            }
+        }
+
+        private void writeInt(final int value) {
+            data[length++] = (byte) (value >> 24);
+            data[length++] = (byte) (value >> 16);
+            data[length++] = (byte) (value >> 8);
+            data[length++] = (byte) value;
+        }
+
+        private static int[] emptyTable(final int capacity) {
+            final int[] table = new int[capacity];
+            Arrays.fill(table, EMPTY_SLOT);
+            return table;
+        }
+    }
+}
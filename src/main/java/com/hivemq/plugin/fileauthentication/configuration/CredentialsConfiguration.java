@@ -16,13 +16,23 @@
 
 package com.hivemq.plugin.fileauthentication.configuration;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
 import com.hivemq.spi.config.SystemInformation;
 import com.hivemq.spi.services.PluginExecutorService;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 /**
  * @author Christian Götz
@@ -31,36 +41,154 @@ public class CredentialsConfiguration extends ReloadingPropertiesReader {
 
     private final String filename;
     private final int reloadSeconds;
+    private final boolean watchFile;
+    private final boolean compiled;
+    private final boolean offHeap;
     private final List<CredentialChangeCallback> callbacks;
-    private int previousCredentialsHash;
+    private volatile CredentialStore credentials = CredentialStore.EMPTY;
 
 
     @Inject
     public CredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds, final SystemInformation systemInformation) {
+        this(pluginExecutorService, filename, reloadSeconds, false, systemInformation);
+    }
+
+    public CredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds, final boolean watchFile, final SystemInformation systemInformation) {
+        this(pluginExecutorService, filename, reloadSeconds, watchFile, false, systemInformation);
+    }
+
+    /**
+     * @param compiled true if the file is a compiled credentials file, which is memory-mapped instead of parsed
+     */
+    public CredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds, final boolean watchFile, final boolean compiled, final SystemInformation systemInformation) {
+        this(pluginExecutorService, filename, reloadSeconds, watchFile, compiled, false, systemInformation);
+    }
+
+    /**
+     * @param compiled true if the file is a compiled credentials file, which is memory-mapped instead of parsed
+     * @param offHeap  true if the parsed credentials are kept in a direct buffer outside of the heap
+     */
+    public CredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds, final boolean watchFile, final boolean compiled, final boolean offHeap, final SystemInformation systemInformation) {
         super(pluginExecutorService, systemInformation);
         this.callbacks = new ArrayList<>();
         this.filename = filename;
         this.reloadSeconds = reloadSeconds;
+        this.watchFile = watchFile;
+        this.compiled = compiled;
+        this.offHeap = offHeap;
     }
 
     public String getUser(final String username) {
 
-        String pw = properties.getProperty(username);
+        final String pw = credentials.get(username);
         if ((pw == null) || (pw.equals(""))) {
             return null;
         }
-        return properties.getProperty(username);
+        return pw;
+    }
+
+    /**
+     * @return all entries of the credentials file
+     */
+    public CredentialStore getCredentials() {
+        return credentials;
     }
 
+    /**
+     * The credentials are not kept as {@link Properties}, use {@link #getCredentials()} instead.
+     *
+     * @return a copy of all entries of the credentials file
+     */
+    @Override
+    public Properties getProperties() {
+        final Properties copy = new Properties();
+        for (Map.Entry<String, String> entry : credentials) {
+            copy.setProperty(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
 
+    /**
+     * Maps a compiled credentials file, other files are parsed as .properties in parallel
+     */
     @Override
-    void afterReload() {
-        if (this.hashCode() != previousCredentialsHash) {
-            for (CredentialChangeCallback credentialChangeCallback : callbacks) {
-                credentialChangeCallback.onCredentialChange();
+    void load(final File file) throws IOException {
+        if (compiled) {
+            replaceCredentials(mapCompiled(file));
+        } else {
+            replaceCredentials(inConfiguredMemory(CredentialsFileLoader.load(file, Runtime.getRuntime().availableProcessors())));
+        }
+    }
+
+    /**
+     * @param file the compiled credentials file
+     * @return the mapped file
+     * @throws IOException if the file could not be mapped
+     */
+    CredentialStore mapCompiled(final File file) throws IOException {
+        return CredentialStore.map(file);
+    }
+
+    /**
+     * Parses the credentials file directly into a new {@link CredentialStore}
+     */
+    @Override
+    void load(final Reader reader) throws IOException {
+        replaceCredentials(inConfiguredMemory(CredentialStore.load(reader)));
+    }
+
+    /**
+     * @param store a store which was loaded on the heap
+     * @return the store outside of the heap if configured, otherwise the store itself
+     */
+    CredentialStore inConfiguredMemory(final CredentialStore store) {
+        return offHeap ? store.toOffHeap() : store;
+    }
+
+    /**
+     * @param credentials the new entries, which are visible to all readers afterwards
+     */
+    void replaceCredentials(final CredentialStore credentials) {
+        this.credentials = credentials;
+    }
+
+    /**
+     * Compares the new entries directly with the previous {@link CredentialStore} and notifies the callbacks with all
+     * usernames which were added, removed or changed during the reload
+     */
+    @Override
+    void reloadFile(final File file) throws IOException {
+        final CredentialStore previous = credentials;
+        load(file);
+
+        final Set<String> changedUsernames = credentials.changedUsernames(previous);
+        if (!changedUsernames.isEmpty()) {
+            notifyCallbacks(changedUsernames);
+        }
+    }
+
+    /**
+     * @param store   the current entries
+     * @param updates the requested updates
+     * @return the new entries of all updates whose expected entry is the current one
+     */
+    static Map<String, Optional<String>> applicableChanges(final CredentialStore store, final Collection<PasswordUpdate> updates) {
+        final Map<String, Optional<String>> changes = new LinkedHashMap<>();
+        for (PasswordUpdate update : updates) {
+            if (Objects.equal(store.get(update.getUsername()), update.getExpectedPassword())) {
+                changes.put(update.getUsername(), Optional.of(update.getNewPassword()));
             }
         }
-        this.previousCredentialsHash = this.hashCode();
+        return changes;
+    }
+
+    /**
+     * @param changedUsernames all usernames which were added, removed or changed
+     */
+    void notifyCallbacks(final Set<String> changedUsernames) {
+        for (CredentialChangeCallback credentialChangeCallback : callbacks) {
+            credentialChangeCallback.onCredentialChange(changedUsernames);
+        }
     }
 
     /**
@@ -92,14 +220,8 @@ public class CredentialsConfiguration extends ReloadingPropertiesReader {
     }
 
     @Override
-    public int hashCode() {
-
-        int result = filename != null ? filename.hashCode() : 0;
-        result = 31 * result + reloadSeconds;
-        result = 31 * result + properties.size();
-        //used because properties.hashcode doesnt change then properties change
-        result = 31 * result + (properties.toString().hashCode());
-        return result;
+    protected boolean isWatchingFile() {
+        return watchFile;
     }
 
 }
\ No newline at end of file
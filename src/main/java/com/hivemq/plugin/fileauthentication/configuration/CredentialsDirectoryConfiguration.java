@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Credentials which are split into several .properties files (shards) in one directory.
+ * <p/>
+ * All shards are parsed in parallel on startup. On reload only the shards which were added, changed or removed are
+ * parsed again, and only the users of these shards are reported to the callbacks, so the cache entries of all other
+ * users stay valid. If a username is contained in more than one shard, the entry of the shard whose filename comes
+ * last in alphabetical order wins.
+ * <p/>
+ * Only the merged credentials keep the passwords. Of every shard only its usernames are kept, so the memory of the
+ * shards does not add up to the memory of the merged credentials. On reload the new entries of the changed users are
+ * taken from the changed shards and applied to the merged credentials as an overlay, so a small shard change does not
+ * merge all shards again. An unchanged shard is only read again if one of its users was overridden by a changed or
+ * removed shard before. If the overlay grows beyond {@link CredentialStore#MAX_OVERLAY_SIZE} it is compacted.
+ */
+public class CredentialsDirectoryConfiguration extends CredentialsConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialsDirectoryConfiguration.class);
+
+    static final String SHARD_SUFFIX = ".properties";
+
+    private final PluginExecutorService pluginExecutorService;
+    private final SystemInformation systemInformation;
+
+    /**
+     * All loaded shards by filename with their usernames, only accessed while holding the lock of this instance
+     */
+    private final SortedMap<String, Shard> shards = Maps.newTreeMap();
+    private File directory;
+
+    /**
+     * @param directory name of the directory with the shards, relative to the config folder
+     */
+    public CredentialsDirectoryConfiguration(final PluginExecutorService pluginExecutorService, final String directory, final int reloadSeconds, final boolean watchDirectory, final SystemInformation systemInformation) {
+        this(pluginExecutorService, directory, reloadSeconds, watchDirectory, false, systemInformation);
+    }
+
+    /**
+     * @param directory name of the directory with the shards, relative to the config folder
+     * @param offHeap   true if the parsed credentials are kept in direct buffers outside of the heap
+     */
+    public CredentialsDirectoryConfiguration(final PluginExecutorService pluginExecutorService, final String directory, final int reloadSeconds, final boolean watchDirectory, final boolean offHeap, final SystemInformation systemInformation) {
+        super(pluginExecutorService, directory, reloadSeconds, watchDirectory, false, offHeap, systemInformation);
+        this.pluginExecutorService = pluginExecutorService;
+        this.systemInformation = systemInformation;
+    }
+
+    @Override
+    public void init() {
+
+        this.directory = new File(systemInformation.getConfigFolder(), getFilename());
+
+        synchronized (this) {
+            final List<CredentialStore> stores = new ArrayList<>();
+            for (Shard shard : loadShards(listShards())) {
+                stores.add(shard.getCredentials());
+                shards.put(shard.getFile().getName(), usernamesOnly(shard));
+            }
+            replaceCredentials(inConfiguredMemory(CredentialStore.merge(stores)));
+            log.info("Loaded {} users from {} credential shards in {}", getCredentials().size(), shards.size(), directory.getAbsolutePath());
+        }
+
+        final Runnable reload = new Runnable() {
+            @Override
+            public void run() {
+                reload();
+            }
+        };
+
+        watchAndPoll(isWatchingFile() ? FileWatcher.startFolder(directory, SHARD_SUFFIX, pluginExecutorService, reload) : Optional.<FileWatcher>absent(), reload);
+    }
+
+    /**
+     * Parses all added and changed shards again, drops removed shards and notifies the callbacks with the changed
+     * users of these shards
+     */
+    @Override
+    public synchronized void reload() {
+
+        final List<File> changedFiles = new ArrayList<>();
+        final Set<String> removed = new HashSet<>(shards.keySet());
+
+        for (File file : listShards()) {
+            final Shard shard = shards.get(file.getName());
+            removed.remove(file.getName());
+            if (shard == null) {
+                changedFiles.add(file);
+                continue;
+            }
+
+            try {
+                final FileState newFileState = shard.getFileState().refresh(file);
+                if (newFileState == shard.getFileState()) {
+                    continue;
+                }
+                if (shard.getFileState().hasSameContent(newFileState)) {
+                    log.trace("Credential shard {} was touched, but its content did not change", file.getAbsolutePath());
+                    shards.put(file.getName(), new Shard(file, newFileState, shard.getCredentials()));
+                } else {
+                    changedFiles.add(file);
+                }
+            } catch (IOException e) {
+                log.debug("Not able to reload credential shard {}", file.getAbsolutePath());
+            }
+        }
+
+        if (changedFiles.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        // the usernames of the changed and removed shards before the reload, and the entries of the changed shards
+        final Map<String, CredentialStore> previousUsernames = new HashMap<>();
+        final Map<String, CredentialStore> loaded = new HashMap<>();
+        final Set<String> candidates = new HashSet<>();
+        for (String filename : removed) {
+            final CredentialStore usernames = shards.remove(filename).getCredentials();
+            previousUsernames.put(filename, usernames);
+            addUsernames(usernames, candidates);
+        }
+        for (Shard shard : loadShards(changedFiles)) {
+            final String filename = shard.getFile().getName();
+            final Shard previous = shards.put(filename, usernamesOnly(shard));
+            if (previous != null) {
+                previousUsernames.put(filename, previous.getCredentials());
+                addUsernames(previous.getCredentials(), candidates);
+            }
+            loaded.put(filename, shard.getCredentials());
+            addUsernames(shard.getCredentials(), candidates);
+        }
+
+        final CredentialStore credentials = getCredentials();
+        final Map<String, Optional<String>> changes = changes(candidates, credentials, loaded, previousUsernames);
+        CredentialStore changedCredentials = credentials.withChanges(changes);
+        if (changedCredentials.overlaySize() > CredentialStore.MAX_OVERLAY_SIZE) {
+            changedCredentials = inConfiguredMemory(changedCredentials.compact());
+        }
+        replaceCredentials(changedCredentials);
+        final Set<String> changed = changes.keySet();
+        log.debug("Reloaded {} and removed {} credential shards in {}", changedFiles.size(), removed.size(), directory.getAbsolutePath());
+
+        if (!changed.isEmpty()) {
+            notifyCallbacks(ImmutableSet.copyOf(changed));
+        }
+    }
+
+    /**
+     * Finds the shard with the entry of every candidate, starting with the last shard. A user of a changed shard may
+     * still be overridden by a shard which comes later.
+     *
+     * @param candidates        users of the changed and removed shards
+     * @param credentials       the current credentials
+     * @param loaded            the entries of the changed shards by filename
+     * @param previousUsernames the usernames of the changed and removed shards before the reload by filename
+     * @return the new entries of all candidates whose entry changed, absent for removed users
+     */
+    private Map<String, Optional<String>> changes(final Set<String> candidates, final CredentialStore credentials,
+                                                  final Map<String, CredentialStore> loaded,
+                                                  final Map<String, CredentialStore> previousUsernames) {
+        final List<String> lastFirst = Lists.reverse(new ArrayList<>(shards.keySet()));
+        final Map<String, CredentialStore> reread = new HashMap<>();
+        final Map<String, Optional<String>> changes = new HashMap<>();
+        for (String username : candidates) {
+            final String current = credentials.get(username);
+            String value = null;
+            for (String filename : lastFirst) {
+                if (shards.get(filename).getCredentials().get(username) == null) {
+                    continue;
+                }
+                if (loaded.containsKey(filename)) {
+                    value = loaded.get(filename).get(username);
+                } else if (wasOverridden(username, filename, previousUsernames)) {
+                    value = reread(filename, reread).get(username);
+                } else {
+                    // the unchanged shard was already the one with the entry of the user
+                    value = current;
+                }
+                break;
+            }
+            if (!Objects.equal(value, current)) {
+                changes.put(username, Optional.fromNullable(value));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return true if a changed or removed shard after the given shard contained the user before the reload
+     */
+    private static boolean wasOverridden(final String username, final String filename,
+                                         final Map<String, CredentialStore> previousUsernames) {
+        for (Map.Entry<String, CredentialStore> previous : previousUsernames.entrySet()) {
+            if (previous.getKey().compareTo(filename) > 0 && previous.getValue().get(username) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the entries of an unchanged shard again, at most once per reload
+     *
+     * @param filename the filename of the shard
+     * @param reread   the shards which were read again during this reload by filename
+     * @return the entries of the shard, empty if the shard could not be read
+     */
+    private CredentialStore reread(final String filename, final Map<String, CredentialStore> reread) {
+        CredentialStore store = reread.get(filename);
+        if (store == null) {
+            final File file = shards.get(filename).getFile();
+            try {
+                store = loadShard(file).getCredentials();
+            } catch (IOException e) {
+                log.error("Not able to load credential shard {}", file.getAbsolutePath());
+                store = CredentialStore.EMPTY;
+            }
+            reread.put(filename, store);
+        }
+        return store;
+    }
+
+    private static void addUsernames(final CredentialStore store, final Set<String> usernames) {
+        for (Map.Entry<String, String> entry : store) {
+            usernames.add(entry.getKey());
+        }
+    }
+
+    /**
+     * @return all shards in the directory, sorted by filename
+     */
+    private List<File> listShards() {
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SHARD_SUFFIX);
+            }
+        });
+        if (files == null) {
+            log.error("Not able to list credentials directory {}", directory.getAbsolutePath());
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Parses the shards in parallel on a fork-join pool, shards which could not be read are skipped
+     *
+     * @param files the shards to parse
+     * @return the parsed shards
+     */
+    private List<Shard> loadShards(final List<File> files) {
+        final List<Shard> loaded = new ArrayList<>(files.size());
+        if (files.isEmpty()) {
+            return loaded;
+        }
+        if (files.size() == 1) {
+            final File file = files.get(0);
+            try {
+                loaded.add(loadShard(file));
+            } catch (IOException e) {
+                log.error("Not able to load credential shard {}", file.getAbsolutePath());
+            }
+            return loaded;
+        }
+
+        final List<Callable<Shard>> tasks = new ArrayList<>(files.size());
+        for (final File file : files) {
+            tasks.add(new Callable<Shard>() {
+                @Override
+                public Shard call() throws Exception {
+                    return loadShard(file);
+                }
+            });
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<Shard>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    loaded.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    log.error("Not able to load credential shard {}", files.get(i).getAbsolutePath());
+                    log.debug("Original exception", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return loaded;
+    }
+
+    private Shard loadShard(final File file) throws IOException {
+        final FileState fileState = FileState.read(file);
+        // the shards themselves are loaded in parallel
+        return new Shard(file, fileState, CredentialsFileLoader.load(file, 1));
+    }
+
+    /**
+     * @param shard a loaded shard
+     * @return the shard with only its usernames, which have empty passwords
+     */
+    private Shard usernamesOnly(final Shard shard) {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (Map.Entry<String, String> entry : shard.getCredentials()) {
+            builder.put(entry.getKey(), "");
+        }
+        return new Shard(shard.getFile(), shard.getFileState(), inConfiguredMemory(builder.build()));
+    }
+
+    /**
+     * A parsed shard together with the state of its file at the time it was parsed. Only a shard which was just
+     * loaded has the passwords, a shard kept in {@link #shards} only has the usernames.
+     */
+    private static final class Shard {
+
+        private final File file;
+        private final FileState fileState;
+        private final CredentialStore credentials;
+
+        private Shard(final File file, final FileState fileState, final CredentialStore credentials) {
+            this.file = file;
+            this.fileState = fileState;
+            this.credentials = credentials;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        FileState getFileState() {
+            return fileState;
+        }
+
+        CredentialStore getCredentials() {
+            return credentials;
+        }
+    }
+}
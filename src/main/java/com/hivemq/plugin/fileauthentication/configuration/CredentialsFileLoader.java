@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a large credentials file in parallel.
+ * <p/>
+ * The file is read with a single NIO read into one buffer and split into chunks, which only end after a complete logical line of the
+ * .properties format. Every chunk is parsed on its own with {@link CredentialStore#load(Reader)}, so all escaping rules
+ * of {@link Properties#load(Reader)} apply, and the chunks are merged in the order of the file afterwards.
+ * <p/>
+ * A chunk can only end after a line which does not end with an odd number of backslashes. Such a line can neither
+ * be continued nor be a continuation line whose successor belongs to it.
+ */
+final class CredentialsFileLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialsFileLoader.class);
+
+    /**
+     * Files smaller than two chunks are parsed on the calling thread
+     */
+    @VisibleForTesting
+    static int minChunkSize = 1024 * 1024;
+
+    /**
+     * Amount of chunks per thread, so threads which finished early can take over chunks of the others
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final Set<Charset> SPLITTABLE_CHARSETS = ImmutableSet.of(
+            Charsets.UTF_8, Charsets.ISO_8859_1, Charsets.US_ASCII);
+
+    private CredentialsFileLoader() {
+    }
+
+    /**
+     * Parses the credentials file with the default charset, like a {@link java.io.FileReader} does
+     *
+     * @param file        the credentials file
+     * @param parallelism the maximum amount of threads, which parse the file
+     * @return the new store
+     * @throws IOException if the file could not be read
+     */
+    static CredentialStore load(final File file, final int parallelism) throws IOException {
+        final Charset charset = Charset.defaultCharset();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || !isSplittable(charset)) {
+                try (Reader reader = new InputStreamReader(Channels.newInputStream(channel), charset)) {
+                    return CredentialStore.load(reader);
+                }
+            }
+
+            // the file is not mapped, so a concurrent truncation of the file can not fault the parser threads
+            final ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // read until the buffer is full or the file was truncated meanwhile
+            }
+            content.flip();
+            size = content.limit();
+            final int chunks = (int) Math.min((long) parallelism * CHUNKS_PER_THREAD, size / minChunkSize);
+            if (parallelism <= 1 || chunks < 2) {
+                return parse(content, 0, (int) size, charset);
+            }
+
+            final List<Callable<CredentialStore>> tasks = new ArrayList<>(chunks);
+            int start = 0;
+            for (int chunk = 1; chunk <= chunks && start < size; chunk++) {
+                final int end = chunk == chunks ? (int) size : nextLineStart(content, (int) (size * chunk / chunks));
+                if (end <= start) {
+                    continue;
+                }
+                final int chunkStart = start;
+                tasks.add(new Callable<CredentialStore>() {
+                    @Override
+                    public CredentialStore call() throws Exception {
+                        return parse(content, chunkStart, end, charset);
+                    }
+                });
+                start = end;
+            }
+            log.trace("Parsing credentials file {} in {} chunks", file.getAbsolutePath(), tasks.size());
+
+            return CredentialStore.merge(invokeAll(tasks, parallelism));
+        }
+    }
+
+    private static List<CredentialStore> invokeAll(final List<Callable<CredentialStore>> tasks, final int parallelism) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, tasks.size()));
+        try {
+            final List<CredentialStore> stores = new ArrayList<>(tasks.size());
+            for (Future<CredentialStore> result : pool.invokeAll(tasks)) {
+                stores.add(result.get());
+            }
+            return stores;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading credentials", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static CredentialStore parse(final ByteBuffer content, final int start, final int end, final Charset charset) throws IOException {
+        final ByteBuffer chunk = content.duplicate();
+        chunk.position(start);
+        chunk.limit(end);
+        try (Reader reader = new InputStreamReader(new ByteBufferInputStream(chunk), charset)) {
+            return CredentialStore.load(reader);
+        }
+    }
+
+    /**
+     * @param content the content of the file
+     * @param from    the position to search from
+     * @return the start of the next logical line after the position, or the end of the content
+     */
+    @VisibleForTesting
+    static int nextLineStart(final ByteBuffer content, final int from) {
+        for (int i = from; i < content.limit(); i++) {
+            if (content.get(i) == '\n' && !isContinued(content, i)) {
+                return i + 1;
+            }
+        }
+        return content.limit();
+    }
+
+    /**
+     * @return true if the line ending at the newline ends with an odd number of backslashes
+     */
+    private static boolean isContinued(final ByteBuffer content, final int newline) {
+        int i = newline - 1;
+        if (i >= 0 && content.get(i) == '\r') {
+            i--;
+        }
+        int backslashes = 0;
+        while (i >= 0 && content.get(i) == '\\') {
+            backslashes++;
+            i--;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * @return true if the bytes of line breaks and backslashes never occur within other characters, so the file can
+     * be split without decoding it
+     */
+    private static boolean isSplittable(final Charset charset) {
+        return SPLITTABLE_CHARSETS.contains(charset);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+    }
+}
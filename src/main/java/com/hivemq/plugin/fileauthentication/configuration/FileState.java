@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Objects;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * State of a file at the time it was read: modification time, size, file key and a checksum of the content.
+ * <p/>
+ * The attributes are cheap to read and are compared first. The checksum is only computed if the attributes changed,
+ * so touching or atomically replacing a file with the same content does not count as a change.
+ */
+final class FileState {
+
+    /**
+     * Coarsest modification time resolution of common file systems. A file modified within this time before its
+     * state was taken can be modified again without a visible change of the modification time.
+     */
+    static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+    private final long lastModified;
+    private final long size;
+    private final Object fileKey;
+    private final HashCode checksum;
+    private final long readMillis;
+
+    private FileState(final BasicFileAttributes attributes, final HashCode checksum, final long readMillis) {
+        this.lastModified = attributes.lastModifiedTime().toMillis();
+        this.size = attributes.size();
+        this.fileKey = attributes.fileKey();
+        this.checksum = checksum;
+        this.readMillis = readMillis;
+    }
+
+    /**
+     * Reads the attributes of the file and computes the checksum of its content
+     *
+     * @param file the file to read
+     * @return the current state of the file
+     * @throws IOException if the file could not be read
+     */
+    static FileState read(final File file) throws IOException {
+        final long readMillis = System.currentTimeMillis();
+        return new FileState(readAttributes(file), checksum(file), readMillis);
+    }
+
+    /**
+     * Returns the current state of the file.
+     * <p/>
+     * The content is only read if the attributes differ or the file was modified right before this state was taken,
+     * otherwise this state is returned.
+     *
+     * @param file the file to check
+     * @return the current state of the file
+     * @throws IOException if the file could not be read
+     */
+    FileState refresh(final File file) throws IOException {
+        final long readMillis = System.currentTimeMillis();
+        final BasicFileAttributes attributes = readAttributes(file);
+
+        if (hasSameAttributes(attributes) && lastModified + MODIFICATION_TIME_GRANULARITY_MILLIS < this.readMillis) {
+            return this;
+        }
+        return new FileState(attributes, checksum(file), readMillis);
+    }
+
+    /**
+     * @param other another state of the same file
+     * @return true if the content of the file is the same in both states
+     */
+    boolean hasSameContent(final FileState other) {
+        return checksum.equals(other.checksum);
+    }
+
+    private boolean hasSameAttributes(final BasicFileAttributes attributes) {
+        return lastModified == attributes.lastModifiedTime().toMillis()
+                && size == attributes.size()
+                && Objects.equal(fileKey, attributes.fileKey());
+    }
+
+    private static BasicFileAttributes readAttributes(final File file) throws IOException {
+        return java.nio.file.Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+
+    private static HashCode checksum(final File file) throws IOException {
+        return Files.asByteSource(file).hash(Hashing.murmur3_128());
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches a file or the files of a folder with a {@link WatchService} and runs a task shortly after a file was changed.
+ * <p/>
+ * The folder of the file is watched instead of the file itself, so editors which write a temporary file and rename it
+ * to the watched file are detected, too. All watchers of the same folder, for example of the configuration file, the
+ * credentials file and the credential journal, share one watch service and thread. Bursts of events are debounced:
+ * the task runs once, {@link #DEBOUNCE_MILLIS} after the last event.
+ */
+final class FileWatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(FileWatcher.class);
+
+    static final long DEBOUNCE_MILLIS = 200;
+
+    /**
+     * Interval in seconds in which watched files are polled anyway, in case the watch service missed a change
+     */
+    static final int FALLBACK_POLL_SECONDS = 300;
+
+    /**
+     * The watched folders by absolute path, only accessed while holding the lock of the map
+     */
+    private static final Map<Path, WatchedFolder> folders = new HashMap<>();
+
+    private final Predicate<Path> filter;
+    private final WatchedFolder folder;
+    private final PluginExecutorService pluginExecutorService;
+    private final Runnable onChange;
+    private final AtomicReference<Future<?>> pending = new AtomicReference<>();
+    private volatile boolean closed;
+
+    private FileWatcher(final Predicate<Path> filter, final WatchedFolder folder,
+                        final PluginExecutorService pluginExecutorService, final Runnable onChange) {
+        this.filter = filter;
+        this.folder = folder;
+        this.pluginExecutorService = pluginExecutorService;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Starts watching the file in the daemon thread of its folder
+     *
+     * @param file                  the file to watch
+     * @param pluginExecutorService executor which runs the task
+     * @param onChange              task which is run after the file was changed
+     * @return the watcher, or absent if the file system does not support watching the file
+     */
+    static Optional<FileWatcher> start(final File file, final PluginExecutorService pluginExecutorService, final Runnable onChange) {
+        final Path filename = file.toPath().getFileName();
+        return start(file, file.getAbsoluteFile().getParentFile(), new Predicate<Path>() {
+            @Override
+            public boolean apply(final Path changed) {
+                return filename.equals(changed);
+            }
+        }, pluginExecutorService, onChange);
+    }
+
+    /**
+     * Starts watching all files with the suffix in the folder in its daemon thread. Deleted files are reported, too.
+     *
+     * @param folder                the folder to watch
+     * @param suffix                suffix of the watched files, for example <code>.properties</code>
+     * @param pluginExecutorService executor which runs the task
+     * @param onChange              task which is run after a file was created, changed or deleted
+     * @return the watcher, or absent if the file system does not support watching the folder
+     */
+    static Optional<FileWatcher> startFolder(final File folder, final String suffix, final PluginExecutorService pluginExecutorService, final Runnable onChange) {
+        return start(folder, folder.getAbsoluteFile(), new Predicate<Path>() {
+            @Override
+            public boolean apply(final Path changed) {
+                return changed.toString().endsWith(suffix);
+            }
+        }, pluginExecutorService, onChange);
+    }
+
+    private static Optional<FileWatcher> start(final File file, final File folder, final Predicate<Path> filter,
+                                               final PluginExecutorService pluginExecutorService, final Runnable onChange) {
+        final Path path = folder.toPath().normalize();
+        synchronized (folders) {
+            WatchedFolder watchedFolder = folders.get(path);
+            if (watchedFolder == null || !watchedFolder.isValid()) {
+                try {
+                    watchedFolder = WatchedFolder.register(path);
+                } catch (IOException | UnsupportedOperationException e) {
+                    log.warn("Not able to watch file {}, changes are only detected by polling", file.getAbsolutePath());
+                    log.debug("Original exception", e);
+                    return Optional.absent();
+                }
+                folders.put(path, watchedFolder);
+                new ThreadFactoryBuilder().setNameFormat("file-auth-watcher-" + folder.getName()).setDaemon(true).build()
+                        .newThread(watchedFolder).start();
+            }
+
+            final FileWatcher watcher = new FileWatcher(filter, watchedFolder, pluginExecutorService, onChange);
+            watchedFolder.watchers.add(watcher);
+            return Optional.of(watcher);
+        }
+    }
+
+    /**
+     * Schedules the task and cancels the previously scheduled task, if it did not run yet
+     */
+    private void debounce() {
+        final Future<?> scheduled = pluginExecutorService.schedule(onChange, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        final Future<?> previous = pending.getAndSet(scheduled);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        if (closed) {
+            scheduled.cancel(false);
+        }
+    }
+
+    /**
+     * @return true if changes of the file are still reported, false after {@link #close()} or if the folder can no
+     * longer be watched
+     */
+    boolean isHealthy() {
+        return !closed && folder.isValid();
+    }
+
+    /**
+     * Wraps a polling task, so it only polls every <code>fallbackSeconds</code> while this watcher is healthy and on
+     * every run otherwise
+     *
+     * @param poll            the polling task
+     * @param fallbackSeconds interval in seconds in which the file is polled while the watcher is healthy
+     * @return the task to schedule in the regular polling interval
+     */
+    Runnable pollWhenUnhealthy(final Runnable poll, final long fallbackSeconds) {
+        return pollWhenUnhealthy(poll, fallbackSeconds, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    Runnable pollWhenUnhealthy(final Runnable poll, final long fallbackSeconds, final Ticker ticker) {
+        final long fallbackNanos = TimeUnit.SECONDS.toNanos(fallbackSeconds);
+        return new Runnable() {
+            private long lastPoll = ticker.read();
+
+            @Override
+            public void run() {
+                final long now = ticker.read();
+                if (isHealthy() && now - lastPoll < fallbackNanos) {
+                    return;
+                }
+                lastPoll = now;
+                poll.run();
+            }
+        };
+    }
+
+    /**
+     * Stops watching the file. The watch service of the folder is closed with its last watcher
+     */
+    void close() {
+        closed = true;
+        final Future<?> scheduled = pending.getAndSet(null);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+
+        synchronized (folders) {
+            folder.watchers.remove(this);
+            if (folder.watchers.isEmpty()) {
+                if (folders.get(folder.path) == folder) {
+                    folders.remove(folder.path);
+                }
+                folder.close();
+            }
+        }
+    }
+
+    /**
+     * A watched folder with its watch service, which reports the events to all watchers of the folder
+     */
+    private static final class WatchedFolder implements Runnable {
+
+        private final Path path;
+        private final WatchService watchService;
+        private final WatchKey watchKey;
+        private final List<FileWatcher> watchers = new CopyOnWriteArrayList<>();
+        private volatile boolean closed;
+
+        private WatchedFolder(final Path path, final WatchService watchService, final WatchKey watchKey) {
+            this.path = path;
+            this.watchService = watchService;
+            this.watchKey = watchKey;
+        }
+
+        private static WatchedFolder register(final Path path) throws IOException {
+            final WatchService watchService = FileSystems.getDefault().newWatchService();
+            try {
+                final WatchKey watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return new WatchedFolder(path, watchService, watchKey);
+            } catch (IOException | UnsupportedOperationException e) {
+                watchService.close();
+                throw e;
+            }
+        }
+
+        private boolean isValid() {
+            return !closed && watchKey.isValid();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final WatchKey key = watchService.take();
+
+                    final List<WatchEvent<?>> events = key.pollEvents();
+                    for (FileWatcher watcher : watchers) {
+                        if (isChanged(watcher, events)) {
+                            watcher.debounce();
+                        }
+                    }
+
+                    if (!key.reset()) {
+                        log.warn("Folder {} is no longer watched, changes are only detected by polling", path);
+                        close();
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                // closed, stop watching
+            }
+        }
+
+        private static boolean isChanged(final FileWatcher watcher, final List<WatchEvent<?>> events) {
+            for (WatchEvent<?> event : events) {
+                // on overflow events were lost, so the file may have changed
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || watcher.filter.apply((Path) event.context())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Not able to close watch service of folder {}", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Credentials file with a {@link CredentialJournal} next to it, for example <code>credentials.properties.journal</code>.
+ * <p/>
+ * New records of the journal are applied as small changes to the loaded credentials, so only the cache entries of
+ * the changed users are invalidated and the credentials file is not parsed again. The journal is compacted
+ * periodically: the credentials with all applied records are written to the credentials file and the journal is
+ * truncated. If the credentials file is reloaded, the whole journal is applied again.
+ */
+public class JournaledCredentialsConfiguration extends CredentialsConfiguration implements PasswordUpdater {
+
+    private static final Logger log = LoggerFactory.getLogger(JournaledCredentialsConfiguration.class);
+
+    static final String JOURNAL_SUFFIX = ".journal";
+
+    private final PluginExecutorService pluginExecutorService;
+    private final boolean compiled;
+    private final int compactionSeconds;
+    private final File file;
+    private final CredentialJournal journal;
+
+    /**
+     * Content of the credentials file without the records of the journal, only accessed while holding the lock
+     */
+    private CredentialStore fileCredentials = CredentialStore.EMPTY;
+
+    /**
+     * @param compactionSeconds interval in which the journal is compacted into the credentials file
+     */
+    public JournaledCredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds,
+                                             final boolean watchFile, final boolean compiled, final int compactionSeconds,
+                                             final SystemInformation systemInformation) {
+        this(pluginExecutorService, filename, reloadSeconds, watchFile, compiled, false, compactionSeconds, systemInformation);
+    }
+
+    /**
+     * @param offHeap           true if the parsed credentials are kept in a direct buffer outside of the heap
+     * @param compactionSeconds interval in which the journal is compacted into the credentials file
+     */
+    public JournaledCredentialsConfiguration(final PluginExecutorService pluginExecutorService, final String filename, final int reloadSeconds,
+                                             final boolean watchFile, final boolean compiled, final boolean offHeap,
+                                             final int compactionSeconds, final SystemInformation systemInformation) {
+        super(pluginExecutorService, filename, reloadSeconds, watchFile, compiled, offHeap, systemInformation);
+        this.pluginExecutorService = pluginExecutorService;
+        this.compiled = compiled;
+        this.compactionSeconds = compactionSeconds;
+        this.file = new File(systemInformation.getConfigFolder(), filename);
+        this.journal = new CredentialJournal(new File(systemInformation.getConfigFolder(), filename + JOURNAL_SUFFIX));
+    }
+
+    @Override
+    public void init() {
+        super.init();
+
+        final Runnable applyJournal = new Runnable() {
+            @Override
+            public void run() {
+                applyJournal();
+            }
+        };
+
+        watchAndPoll(isWatchingFile() ? FileWatcher.start(journal.getFile(), pluginExecutorService, applyJournal) : Optional.<FileWatcher>absent(), applyJournal);
+
+        cancelOnShutdown(pluginExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, compactionSeconds, compactionSeconds, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Rejects a compiled credentials file with decoded values, the records of the journal are password strings
+     */
+    @Override
+    CredentialStore mapCompiled(final File file) throws IOException {
+        final CredentialStore credentials = super.mapCompiled(file);
+        if (credentials.isDecoded()) {
+            log.error("The compiled credentials file {} contains decoded passwords, which can not be combined with the " +
+                    "credential journal. Compile it without the plugin configuration.", file.getAbsolutePath());
+            throw new IOException("Compiled credentials file with decoded passwords");
+        }
+        return credentials;
+    }
+
+    /**
+     * Applies the whole journal to the loaded content of the credentials file
+     */
+    @Override
+    synchronized void replaceCredentials(final CredentialStore credentials) {
+        fileCredentials = credentials;
+        journal.rewind();
+        super.replaceCredentials(credentials.withChanges(readJournal()));
+    }
+
+    /**
+     * Applies all records which were appended to the journal since the last call and notifies the callbacks with the
+     * changed users
+     */
+    synchronized void applyJournal() {
+        final CredentialStore previous = getCredentials();
+        if (journal.wasTruncated()) {
+            log.debug("Credential journal {} was truncated, it is applied again", journal.getFile().getAbsolutePath());
+            replaceCredentials(fileCredentials);
+            notifyIfChanged(getCredentials().changedUsernames(previous));
+            return;
+        }
+
+        final Map<String, Optional<String>> records = readJournal();
+        if (records.isEmpty()) {
+            return;
+        }
+
+        final ImmutableSet.Builder<String> changedUsernames = ImmutableSet.builder();
+        for (Map.Entry<String, Optional<String>> record : records.entrySet()) {
+            if (!Objects.equal(previous.get(record.getKey()), record.getValue().orNull())) {
+                changedUsernames.add(record.getKey());
+            }
+        }
+        super.replaceCredentials(previous.withChanges(records));
+        notifyIfChanged(changedUsernames.build());
+    }
+
+    /**
+     * Writes the credentials with all applied records to the credentials file and truncates the journal
+     */
+    synchronized void compact() {
+        // changes of the credentials file since the last poll must not be overwritten
+        reload();
+        applyJournal();
+        if (!journal.hasRecords()) {
+            return;
+        }
+
+        try {
+            final CredentialStore compacted = getCredentials().compact();
+            if (compiled) {
+                compacted.writeTo(file);
+            } else {
+                compacted.writePropertiesTo(file);
+            }
+            updateFileState();
+
+            if (!journal.truncateIfRead()) {
+                // the credentials file already contains the applied records, applying them again does not change anything
+                log.debug("Records were appended to credential journal {} during compaction", journal.getFile().getAbsolutePath());
+                return;
+            }
+            fileCredentials = compiled ? CredentialStore.map(file) : inConfiguredMemory(compacted);
+            super.replaceCredentials(fileCredentials);
+            log.info("Compacted credential journal {} into {}", journal.getFile().getAbsolutePath(), file.getAbsolutePath());
+        } catch (IOException e) {
+            log.error("Not able to compact credential journal {}", journal.getFile().getAbsolutePath());
+            log.debug("Original exception", e);
+        }
+    }
+
+    /**
+     * Appends the applicable updates as records to the journal, so the credentials file is only written by the next
+     * compaction
+     */
+    @Override
+    public synchronized Set<String> updatePasswords(final Collection<PasswordUpdate> updates) throws IOException {
+        applyJournal();
+        final Map<String, Optional<String>> changes = applicableChanges(getCredentials(), updates);
+        if (changes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        journal.append(changes);
+        applyJournal();
+        return changes.keySet();
+    }
+
+    private Map<String, Optional<String>> readJournal() {
+        try {
+            return journal.readNew();
+        } catch (IOException e) {
+            log.debug("Not able to read credential journal {}", journal.getFile().getAbsolutePath());
+            return Collections.emptyMap();
+        }
+    }
+
+    private void notifyIfChanged(final Set<String> changedUsernames) {
+        if (!changedUsernames.isEmpty()) {
+            notifyCallbacks(changedUsernames);
+        }
+    }
+}
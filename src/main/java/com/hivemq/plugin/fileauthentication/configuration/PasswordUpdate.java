@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+/**
+ * New password entry of a user, which only replaces the entry it was derived from.
+ */
+public final class PasswordUpdate {
+
+    private final String username;
+    private final String expectedPassword;
+    private final String newPassword;
+
+    /**
+     * @param username         the user
+     * @param expectedPassword the current password entry, the update is dropped if the entry changed in the meantime
+     * @param newPassword      the new password entry
+     */
+    public PasswordUpdate(final String username, final String expectedPassword, final String newPassword) {
+        this.username = username;
+        this.expectedPassword = expectedPassword;
+        this.newPassword = newPassword;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getExpectedPassword() {
+        return expectedPassword;
+    }
+
+    public String getNewPassword() {
+        return newPassword;
+    }
+}
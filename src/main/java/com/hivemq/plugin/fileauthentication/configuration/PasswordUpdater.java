@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Credentials which can replace password entries, e.g. for re-hashing on login.
+ * <p/>
+ * Only a credential journal is a password updater, so the files maintained by the operator are never rewritten
+ * because of a login.
+ */
+public interface PasswordUpdater {
+
+    /**
+     * @return all current entries
+     */
+    CredentialStore getCredentials();
+
+    /**
+     * Replaces the password entries of the users. An update is dropped if the entry of the user is not the expected
+     * one anymore.
+     *
+     * @param updates the new password entries
+     * @return the usernames whose entries were replaced
+     * @throws IOException if the updates could not be written
+     */
+    Set<String> updatePasswords(Collection<PasswordUpdate> updates) throws IOException;
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Splits the content of a .properties file into its logical lines, so a file can be written again with the comments,
+ * blank lines and the formatting of unchanged entries of the previous file.
+ * <p/>
+ * The rules for comments and line continuations are the ones of {@link Properties#load(java.io.Reader)}.
+ */
+final class PropertiesLayout {
+
+    private PropertiesLayout() {
+    }
+
+    /**
+     * @param content the content of a .properties file
+     * @return the logical lines of the file in their order, the concatenated texts are the content
+     * @throws IOException if a line could not be parsed
+     */
+    static List<Line> read(final String content) throws IOException {
+        final List<Line> lines = new ArrayList<>();
+        int position = 0;
+        while (position < content.length()) {
+            final int start = position;
+            int end = endOfLine(content, start);
+            position = nextLine(content, end);
+
+            if (!isCommentOrBlank(content, start, end)) {
+                while (isContinued(content, start, end) && position < content.length()) {
+                    end = endOfLine(content, position);
+                    position = nextLine(content, end);
+                }
+            }
+            lines.add(Line.parse(content.substring(start, end), content.substring(end, position)));
+        }
+        return lines;
+    }
+
+    private static int endOfLine(final String content, final int start) {
+        int end = start;
+        while (end < content.length() && content.charAt(end) != '\n' && content.charAt(end) != '\r') {
+            end++;
+        }
+        return end;
+    }
+
+    private static int nextLine(final String content, final int end) {
+        if (end < content.length() && content.charAt(end) == '\r') {
+            return end + 1 < content.length() && content.charAt(end + 1) == '\n' ? end + 2 : end + 1;
+        }
+        return end < content.length() ? end + 1 : end;
+    }
+
+    private static boolean isCommentOrBlank(final String content, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = content.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\f') {
+                return c == '#' || c == '!';
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the physical line ends with an odd number of backslashes
+     */
+    private static boolean isContinued(final String content, final int start, final int end) {
+        int backslashes = 0;
+        for (int i = end - 1; i >= start && content.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    /**
+     * A logical line of the file, which is either an entry or a comment or blank line
+     */
+    static final class Line {
+
+        private final String text;
+        private final String terminator;
+        private final String key;
+        private final String value;
+
+        private Line(final String text, final String terminator, final String key, final String value) {
+            this.text = text;
+            this.terminator = terminator;
+            this.key = key;
+            this.value = value;
+        }
+
+        private static Line parse(final String text, final String terminator) throws IOException {
+            final Properties entry = new Properties();
+            entry.load(new StringReader(text));
+            if (entry.size() != 1) {
+                return new Line(text, terminator, null, null);
+            }
+            final String key = entry.stringPropertyNames().iterator().next();
+            return new Line(text, terminator, key, entry.getProperty(key));
+        }
+
+        /**
+         * @return the text of the line as in the file, without the line terminator
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * @return the line terminator, empty for the last line of a file without a trailing line terminator
+         */
+        String getTerminator() {
+            return terminator;
+        }
+
+        /**
+         * @return the key of the entry, null for a comment or blank line
+         */
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the value of the entry, null for a comment or blank line
+         */
+        String getValue() {
+            return value;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.hivemq.plugin.fileauthentication.configuration;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
@@ -29,9 +30,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,9 +47,16 @@ public abstract class ReloadingPropertiesReader {
 
     private final PluginExecutorService pluginExecutorService;
     private final SystemInformation systemInformation;
-    protected Properties properties;
+    protected volatile Properties properties;
     protected Map<String, List<ValueChangedCallback<String>>> callbacks = Maps.newHashMap();
     private File file;
+    private FileState fileState;
+
+    /**
+     * Watchers and scheduled tasks which are stopped on {@link #shutdown()}
+     */
+    private final List<FileWatcher> watchers = new CopyOnWriteArrayList<>();
+    private final List<Future<?>> scheduledTasks = new CopyOnWriteArrayList<>();
 
     public ReloadingPropertiesReader(final PluginExecutorService pluginExecutorService, final SystemInformation systemInformation) {
         this.pluginExecutorService = pluginExecutorService;
@@ -58,17 +69,66 @@ public abstract class ReloadingPropertiesReader {
 
         try {
             properties = new Properties();
-            properties.load(new FileReader(file));
+            fileState = FileState.read(file);
+            load(file);
         } catch (IOException e) {
             log.error("Not able to load configuration file {}", file.getAbsolutePath());
         }
 
-        pluginExecutorService.scheduleAtFixedRate(new Runnable() {
+        final Runnable reload = new Runnable() {
             @Override
             public void run() {
                 reload();
             }
-        }, 10, getReloadIntervalinSeconds(), TimeUnit.SECONDS);
+        };
+
+        watchAndPoll(isWatchingFile() ? FileWatcher.start(file, pluginExecutorService, reload) : Optional.<FileWatcher>absent(), reload);
+    }
+
+    /**
+     * Keeps the watcher and polls in the reload interval. Polling is kept as fallback, for example for network file
+     * systems which do not report changes, but only every {@link FileWatcher#FALLBACK_POLL_SECONDS} while the watcher
+     * is healthy
+     *
+     * @param watcher the watcher of the file, absent if the file is not watched
+     * @param poll    task which checks the file for changes
+     */
+    void watchAndPoll(final Optional<FileWatcher> watcher, final Runnable poll) {
+        final int interval = getReloadIntervalinSeconds();
+        Runnable task = poll;
+        if (watcher.isPresent()) {
+            watchers.add(watcher.get());
+            task = watcher.get().pollWhenUnhealthy(poll, Math.max(interval, FileWatcher.FALLBACK_POLL_SECONDS));
+        }
+        cancelOnShutdown(pluginExecutorService.scheduleAtFixedRate(task, interval, interval, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @param scheduledTask a periodic task which is cancelled on {@link #shutdown()}
+     */
+    void cancelOnShutdown(final Future<?> scheduledTask) {
+        scheduledTasks.add(scheduledTask);
+    }
+
+    /**
+     * Stops watching and polling the file
+     */
+    public void shutdown() {
+        for (FileWatcher watcher : watchers) {
+            watcher.close();
+        }
+        watchers.clear();
+        for (Future<?> scheduledTask : scheduledTasks) {
+            scheduledTask.cancel(false);
+        }
+        scheduledTasks.clear();
+    }
+
+    /**
+     * @return the file in the config folder, null before {@link #init()}
+     */
+    File getFile() {
+        return file;
     }
 
     @NotNull
@@ -78,18 +138,42 @@ public abstract class ReloadingPropertiesReader {
     public abstract int getReloadIntervalinSeconds();
 
     /**
-     * Reloads the specified .properties file
+     * can be overwritten to reload the file as soon as it changed, in addition to the polling
+     *
+     * @return true if the file should be watched for changes
+     */
+    protected boolean isWatchingFile() {
+        return false;
+    }
+
+    /**
+     * Takes the state of the file after the plugin wrote it, so the written content is not loaded again by the next
+     * poll or watch event
+     *
+     * @throws IOException if the file could not be read
      */
-    public void reload() {
+    synchronized void updateFileState() throws IOException {
+        fileState = FileState.read(file);
+    }
+
+    /**
+     * Reloads the specified .properties file, if its content changed since the last reload
+     */
+    public synchronized void reload() {
 
-        Map<String, String> oldValues = getCurrentValues();
         try {
-            final FileReader fileReader = new FileReader(file);
-            replaceProperties(fileReader);
+            final FileState newFileState = fileState == null ? FileState.read(file) : fileState.refresh(file);
+            if (newFileState == fileState) {
+                return;
+            }
+            if (fileState != null && fileState.hasSameContent(newFileState)) {
+                log.trace("Configuration file {} was touched, but its content did not change", this.file.getAbsolutePath());
+                fileState = newFileState;
+                return;
+            }
 
-            Map<String, String> newValues = getCurrentValues();
-            logChanges(oldValues, newValues);
-            afterReload();
+            reloadFile(file);
+            fileState = newFileState;
 
         } catch (IOException e) {
             log.debug("Not able to reload configuration file {}", this.file.getAbsolutePath());
@@ -97,24 +181,63 @@ public abstract class ReloadingPropertiesReader {
     }
 
 
+    /**
+     * Loads the changed file and reports the differences to the previous values. Can be overwritten to find the
+     * differences without copying all values before and after the reload
+     *
+     * @param file the changed file
+     * @throws IOException if the file could not be read
+     */
+    void reloadFile(final File file) throws IOException {
+        final Map<String, String> oldValues = getCurrentValues();
+        load(file);
+
+        final Map<String, String> newValues = getCurrentValues();
+        final MapDifference<String, String> difference = Maps.difference(oldValues, newValues);
+        logChanges(difference);
+        afterReload(difference);
+    }
+
     /**
      * can be overwritten to perform operations after the reload of the properties file
      * it is not abstract to not force implementing it in extended classes
+     *
+     * @param difference the difference between the properties before and after the reload
      */
-    void afterReload() {
+    void afterReload(final MapDifference<String, String> difference) {
 
     }
 
     public void replaceProperties(final FileReader fileReader) throws IOException {
         try {
-            final Properties props = new Properties();
-            props.load(fileReader);
-            properties = props;
+            load(fileReader);
         } finally {
             fileReader.close();
         }
     }
 
+    /**
+     * can be overwritten to read files which are not in the .properties format
+     *
+     * @param file the file to read
+     * @throws IOException if the file could not be read
+     */
+    void load(final File file) throws IOException {
+        replaceProperties(new FileReader(file));
+    }
+
+    /**
+     * can be overwritten to keep the content of the file in another structure than {@link Properties}
+     *
+     * @param reader the content of the file
+     * @throws IOException if the file could not be read
+     */
+    void load(final Reader reader) throws IOException {
+        final Properties props = new Properties();
+        props.load(reader);
+        properties = props;
+    }
+
     public void addCallback(final String propertyName, final ValueChangedCallback<String> changedCallback) {
 
         if (!callbacks.containsKey(propertyName)) {
@@ -124,6 +247,9 @@ public abstract class ReloadingPropertiesReader {
         callbacks.get(propertyName).add(changedCallback);
     }
 
+    /**
+     * @return a copy of all values, which is used to find the differences after a reload
+     */
     private Map<String, String> getCurrentValues() {
         Map<String, String> values = Maps.newHashMap();
         for (String key : properties.stringPropertyNames()) {
@@ -132,8 +258,7 @@ public abstract class ReloadingPropertiesReader {
         return values;
     }
 
-    private void logChanges(final Map<String, String> oldValues, final Map<String, String> newValues) {
-        final MapDifference<String, String> difference = Maps.difference(oldValues, newValues);
+    private void logChanges(final MapDifference<String, String> difference) {
 
         for (Map.Entry<String, MapDifference.ValueDifference<String>> stringValueDifferenceEntry : difference.entriesDiffering().entrySet()) {
             log.debug("Plugin configuration {} changed from {} to {}",
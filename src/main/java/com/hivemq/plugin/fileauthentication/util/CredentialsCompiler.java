@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import com.hivemq.plugin.fileauthentication.authentication.CredentialDecoder;
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Command line tool which compiles a credentials .properties file into a compiled credentials file.
+ * <p/>
+ * The compiled file is memory-mapped by the plugin if <code>compiledCredentials.enabled</code> is set, so neither
+ * startup nor reload have to parse the credentials. The target file is replaced atomically, so it can be compiled
+ * while the plugin is running.
+ * <p/>
+ * If the plugin configuration is passed as well, the hashes and salts are decoded with its hashing settings, so a
+ * login does not need to decode them either. The plugin rejects such a file if its hashing settings changed since
+ * the file was compiled. A file with decoded passwords can not be used with the credential journal.
+ * <p/>
+ * Usage, with the libraries of HiveMQ on the class path: <code>java -cp file-authentication-plugin.jar:hivemq.jar
+ * com.hivemq.plugin.fileauthentication.util.CredentialsCompiler credentials.properties credentials.bin
+ * [fileAuthConfiguration.properties]</code>
+ */
+public class CredentialsCompiler {
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: CredentialsCompiler <credentials.properties> <compiled credentials file> [<plugin configuration>]");
+            System.exit(1);
+        }
+
+        final CredentialStore credentials = args.length == 2
+                ? compile(new File(args[0]), new File(args[1]))
+                : compile(new File(args[0]), new File(args[1]), Configuration.read(new File(args[2])));
+        System.out.println("Compiled " + credentials.size() + " users into " + args[1]);
+    }
+
+    /**
+     * Compiles the password strings, which are parsed by the plugin on every lookup
+     *
+     * @param source credentials file in the .properties format
+     * @param target compiled credentials file
+     * @return the compiled credentials
+     * @throws IOException if the source could not be read or the target could not be written
+     */
+    public static CredentialStore compile(final File source, final File target) throws IOException {
+        final CredentialStore credentials = load(source);
+        credentials.writeTo(target);
+        return credentials;
+    }
+
+    /**
+     * Compiles the decoded passwords, which are read by the plugin without decoding them again
+     *
+     * @param source        credentials file in the .properties format
+     * @param target        compiled credentials file
+     * @param configuration the plugin configuration with the hashing settings
+     * @return the compiled credentials
+     * @throws IOException if the source could not be read or the target could not be written
+     */
+    public static CredentialStore compile(final File source, final File target, final Configuration configuration) throws IOException {
+        final CredentialStore credentials = CredentialDecoder.read(configuration).compile(load(source));
+        credentials.writeTo(target);
+        return credentials;
+    }
+
+    private static CredentialStore load(final File source) throws IOException {
+        // same encoding as the .properties file is read with by the plugin
+        try (Reader reader = new InputStreamReader(new FileInputStream(source))) {
+            return CredentialStore.load(reader);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * This util keeps the permissions of files with credentials, which are written next to their target and then
+ * moved over it.
+ * <p/>
+ * The temporary file is created readable by its owner only, so nobody can open it while it is written. Before the
+ * move it gets the permissions, owner and group of the file it replaces.
+ */
+public class FilePermissionUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(FilePermissionUtil.class);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Creates a new file, which only its owner can read and write. An existing file is replaced.
+     *
+     * @param file the file to create
+     * @return channel for writing the file
+     * @throws IOException if the file could not be created
+     */
+    public static FileChannel createOwnerOnly(final Path file) throws IOException {
+        Files.deleteIfExists(file);
+        if (isPosix(file)) {
+            final FileAttribute<Set<PosixFilePermission>> ownerOnly = PosixFilePermissions.asFileAttribute(OWNER_ONLY);
+            return FileChannel.open(file, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly);
+        }
+        return FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Gives the file the permissions, owner and group of the file it is going to replace. If there is no such file,
+     * the file keeps its permissions. An owner or group, which can not be changed without privileges, is kept as well.
+     *
+     * @param replaced the file which is replaced
+     * @param file     the new file
+     * @throws IOException if the permissions could not be read or set
+     */
+    public static void copyPermissions(final Path replaced, final Path file) throws IOException {
+        if (!Files.exists(replaced)) {
+            return;
+        }
+        if (isPosix(replaced)) {
+            final PosixFileAttributes attributes = Files.readAttributes(replaced, PosixFileAttributes.class);
+            final PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+            view.setPermissions(attributes.permissions());
+            try {
+                view.setGroup(attributes.group());
+                view.setOwner(attributes.owner());
+            } catch (IOException e) {
+                log.debug("Not able to set owner and group of {}: {}", file, e.getMessage());
+            }
+            return;
+        }
+        final AclFileAttributeView acl = Files.getFileAttributeView(replaced, AclFileAttributeView.class);
+        if (acl != null) {
+            Files.getFileAttributeView(file, AclFileAttributeView.class).setAcl(acl.getAcl());
+        }
+    }
+
+    /**
+     * @param file an existing file
+     * @return false if the group or other users have any permission on the file. Files on file systems without POSIX
+     * permissions are not checked and true is returned
+     * @throws IOException if the permissions could not be read
+     */
+    public static boolean isOwnerOnly(final Path file) throws IOException {
+        if (!isPosix(file)) {
+            return true;
+        }
+        final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+        permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+        return permissions.isEmpty();
+    }
+
+    private static boolean isPosix(final Path file) {
+        return file.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+}
@@ -21,6 +21,8 @@ import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
 import com.google.common.base.Charsets;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.util.Arrays;
+
 /**
  * This util extracts hash and salt from the given string.
  *
@@ -59,4 +61,21 @@ public class HashSaltUtil {
 
     }
 
+    /**
+     * Converts a salt string into the bytes, which are digested in front of the password.
+     * <p/>
+     * The salt is used like jasypt uses a fixed string salt with a salt size equal to the length of the string:
+     * the UTF-8 bytes of the salt, cut after as many bytes as the string has characters.
+     *
+     * @param salt the salt as returned by {@link #retrieve(boolean, String, String)}
+     * @return the salt bytes
+     */
+    public static byte[] toSaltBytes(final String salt) {
+        final byte[] saltBytes = salt.getBytes(Charsets.UTF_8);
+        if (saltBytes.length == salt.length()) {
+            return saltBytes;
+        }
+        return Arrays.copyOf(saltBytes, salt.length());
+    }
+
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import com.google.common.base.Charsets;
+import com.hivemq.plugin.fileauthentication.authentication.DigestProvider;
+import com.hivemq.plugin.fileauthentication.authentication.PasswordComparator;
+import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool which measures a hash algorithm on this host and recommends the number of iterations for a
+ * target verification time of a password.
+ * <p/>
+ * The algorithm is given like in the self-describing password format, e.g. <code>sha-512</code> or
+ * <code>pbkdf2-sha256</code>. The result applies to the host and JVM the tool runs on, so it should be run on the
+ * HiveMQ host with the same Java version.
+ * <p/>
+ * Usage: <code>java -cp file-authentication-plugin.jar:guava.jar:bcprov.jar
+ * com.hivemq.plugin.fileauthentication.util.IterationCalibrator pbkdf2-sha256 10</code>
+ */
+public class IterationCalibrator {
+
+    /**
+     * Minimum duration of a measured hash, so the timer resolution and the JIT compilation do not matter
+     */
+    private static final long MIN_MEASUREMENT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int MEASUREMENT_ROUNDS = 5;
+
+    private static final byte[] SALT = "calibration-salt".getBytes(Charsets.UTF_8);
+
+    public static void main(final String[] args) throws PasswordFormatException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: IterationCalibrator <algorithm> <target milliseconds> [bouncycastle|jdk|auto]");
+            System.exit(1);
+        }
+
+        final String algorithm = PhcFormatUtil.toAlgorithm(args[0]);
+        final long targetNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[1]));
+
+        final PasswordComparator passwordComparator = new PasswordComparator();
+        passwordComparator.setDigestProvider(DigestProvider.fromName(args.length == 3 ? args[2] : null));
+        if (!passwordComparator.isSupported(algorithm)) {
+            System.err.println("The algorithm " + algorithm + " is not supported");
+            System.exit(1);
+        }
+
+        final double nanosPerIteration = measureNanosPerIteration(passwordComparator, algorithm);
+        final int iterations = recommendIterations(nanosPerIteration, targetNanos);
+        System.out.println(String.format("%s takes %.1f ns per iteration on this host", algorithm, nanosPerIteration));
+        System.out.println("Recommended iterations for " + args[1] + " ms per verification: " + iterations);
+    }
+
+    /**
+     * Hashes with doubled iterations until a hash takes long enough and measures this number of iterations again
+     *
+     * @param passwordComparator comparator which computes the hashes
+     * @param algorithm          the measured algorithm
+     * @return the time of a single iteration in nanoseconds
+     */
+    public static double measureNanosPerIteration(final PasswordComparator passwordComparator, final String algorithm) {
+        int iterations = 1;
+        while (measure(passwordComparator, algorithm, iterations) < MIN_MEASUREMENT_NANOS && iterations < Integer.MAX_VALUE / 2) {
+            iterations *= 2;
+        }
+
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENT_ROUNDS; i++) {
+            fastest = Math.min(fastest, measure(passwordComparator, algorithm, iterations));
+        }
+        return (double) fastest / iterations;
+    }
+
+    /**
+     * @param nanosPerIteration time of a single iteration in nanoseconds
+     * @param targetNanos       target time of a verification in nanoseconds
+     * @return the number of iterations, which take the target time, at least 1
+     */
+    public static int recommendIterations(final double nanosPerIteration, final long targetNanos) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, targetNanos / nanosPerIteration));
+    }
+
+    private static long measure(final PasswordComparator passwordComparator, final String algorithm, final int iterations) {
+        final long start = System.nanoTime();
+        passwordComparator.createHash(algorithm, "calibration", iterations, SALT);
+        return System.nanoTime() - start;
+    }
+}
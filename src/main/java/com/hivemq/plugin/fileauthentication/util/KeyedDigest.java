@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Computes HMAC-SHA256 digests with a secret key.
+ * <p/>
+ * {@link Mac} instances are not thread safe, so every thread keeps its own initialized instance.
+ */
+public class KeyedDigest {
+
+    public static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Length of the secret key in bytes
+     */
+    public static final int KEY_LENGTH = 32;
+
+    private final byte[] key;
+
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                final Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(new SecretKeySpec(key, ALGORITHM));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to initialize " + ALGORITHM, e);
+            }
+        }
+    };
+
+    public KeyedDigest(final byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new IllegalArgumentException("A non empty key is required");
+        }
+        this.key = key.clone();
+    }
+
+    /**
+     * @return a new {@link KeyedDigest} with a random key, which is only valid for the lifetime of this instance
+     */
+    public static KeyedDigest withRandomKey() {
+        final byte[] key = new byte[KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        return new KeyedDigest(key);
+    }
+
+    /**
+     * @return a copy of the secret key
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * @param data the bytes to digest
+     * @return the 32 byte HMAC of the data
+     */
+    public byte[] digest(final byte[] data) {
+        return mac.get().doFinal(data);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.io.BaseEncoding;
+import com.hivemq.plugin.fileauthentication.authentication.ParsedCredential;
+import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This util parses and creates passwords in the self-describing format {@code $alg$iterations$salt$hash}.
+ * <p/>
+ * In contrast to the format parsed by {@link HashSaltUtil} every entry carries its own algorithm and number of
+ * iterations, so entries with different hash costs can be mixed in one credentials file. Salt and hash are
+ * Base64 encoded, the padding is optional.
+ * <p/>
+ * The algorithm is either the name of a message digest like {@code SHA-512}, which is applied like jasypt does,
+ * or {@code pbkdf2-sha1}, {@code pbkdf2-sha256} or {@code pbkdf2-sha512} for PBKDF2 as provided by the JDK.
+ */
+public class PhcFormatUtil {
+
+    public static final String SEPARATOR = "$";
+
+    /**
+     * Prefix of the algorithm ids in the file, which select PBKDF2
+     */
+    public static final String PBKDF2_ID_PREFIX = "pbkdf2-";
+
+    /**
+     * Prefix of the JDK algorithm names for PBKDF2
+     */
+    public static final String PBKDF2_ALGORITHM_PREFIX = "PBKDF2WithHmac";
+
+    private static final Splitter SPLITTER = Splitter.on(SEPARATOR);
+
+    private static final BaseEncoding BASE64 = BaseEncoding.base64().omitPadding();
+
+    /**
+     * @param password password string read from the credential file
+     * @return true if the password starts like a password in the self-describing format
+     */
+    public static boolean isPhcFormat(final String password) {
+        return password != null && password.startsWith(SEPARATOR);
+    }
+
+    /**
+     * Parses a password in the self-describing format.
+     *
+     * @param password password string read from the credential file
+     * @return new {@link ParsedCredential} with the decoded hash and salt and the parameters of the entry
+     * @throws PasswordFormatException if the password is not in the expected format
+     */
+    public static ParsedCredential parse(final String password) throws PasswordFormatException {
+        if (!isPhcFormat(password)) {
+            throw new PasswordFormatException("The password does not start with " + SEPARATOR);
+        }
+
+        final List<String> parts = SPLITTER.splitToList(password.substring(SEPARATOR.length()));
+        if (parts.size() != 4) {
+            throw new PasswordFormatException("The password must consist of algorithm, iterations, salt and hash");
+        }
+
+        final String algorithm = toAlgorithm(parts.get(0));
+
+        final int iterations;
+        try {
+            iterations = Integer.parseInt(parts.get(1));
+        } catch (NumberFormatException e) {
+            throw new PasswordFormatException("The iterations of the password are not a number");
+        }
+        if (iterations < 1) {
+            throw new PasswordFormatException("The iterations of the password must be at least 1");
+        }
+
+        final byte[] salt = decode(parts.get(2));
+        final byte[] hash = decode(parts.get(3));
+        if (hash.length == 0) {
+            throw new PasswordFormatException("The hash of the password is empty");
+        }
+        if (isPbkdf2(algorithm) && salt.length == 0) {
+            throw new PasswordFormatException("PBKDF2 requires a salt");
+        }
+
+        return ParsedCredential.hashed(algorithm, iterations, hash, salt);
+    }
+
+    /**
+     * Creates a password in the self-describing format.
+     *
+     * @param algorithm  message digest name or JDK name of the PBKDF2 algorithm
+     * @param iterations iterations used during the hashing
+     * @param salt       salt bytes
+     * @param hash       hash bytes
+     * @return the password string for the credential file
+     */
+    public static String format(final String algorithm, final int iterations, final byte[] salt, final byte[] hash) {
+        return SEPARATOR + toId(algorithm) + SEPARATOR + iterations + SEPARATOR + BASE64.encode(salt) + SEPARATOR + BASE64.encode(hash);
+    }
+
+    /**
+     * @param algorithm the algorithm of a parsed password
+     * @return true if the algorithm is PBKDF2 and not a message digest
+     */
+    public static boolean isPbkdf2(final String algorithm) {
+        return algorithm.startsWith(PBKDF2_ALGORITHM_PREFIX);
+    }
+
+    /**
+     * @param id algorithm id as used in the self-describing format, e.g. {@code pbkdf2-sha256} or {@code sha-512}
+     * @return the name of the algorithm for the {@link com.hivemq.plugin.fileauthentication.authentication.PasswordComparator}
+     * @throws PasswordFormatException if the id is empty
+     */
+    public static String toAlgorithm(final String id) throws PasswordFormatException {
+        if (id.isEmpty()) {
+            throw new PasswordFormatException("The algorithm of the password is empty");
+        }
+        final String lowerCaseId = id.toLowerCase(Locale.ENGLISH);
+        if (lowerCaseId.startsWith(PBKDF2_ID_PREFIX)) {
+            return PBKDF2_ALGORITHM_PREFIX + lowerCaseId.substring(PBKDF2_ID_PREFIX.length()).toUpperCase(Locale.ENGLISH);
+        }
+        return id.toUpperCase(Locale.ENGLISH);
+    }
+
+    private static String toId(final String algorithm) {
+        if (isPbkdf2(algorithm)) {
+            return PBKDF2_ID_PREFIX + algorithm.substring(PBKDF2_ALGORITHM_PREFIX.length()).toLowerCase(Locale.ENGLISH);
+        }
+        return algorithm.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static byte[] decode(final String base64) throws PasswordFormatException {
+        try {
+            return BASE64.decode(CharMatcher.is('=').trimTrailingFrom(base64));
+        } catch (IllegalArgumentException e) {
+            throw new PasswordFormatException("The salt or hash of the password is not valid Base64");
+        }
+    }
+}
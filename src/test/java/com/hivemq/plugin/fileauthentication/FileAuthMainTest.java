@@ -16,13 +16,21 @@
 
 package com.hivemq.plugin.fileauthentication;
 
+import com.codahale.metrics.MetricRegistry;
 import com.hivemq.plugin.fileauthentication.authentication.FileAuthenticator;
+import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.spi.callback.Callback;
+import com.hivemq.spi.callback.events.broker.OnBrokerStop;
 import com.hivemq.spi.callback.registry.CallbackRegistry;
+import com.hivemq.spi.services.BlockingMetricService;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 /**
@@ -36,6 +44,12 @@ public class FileAuthMainTest {
     @Mock
     FileAuthenticator fileAuthenticator;
 
+    @Mock
+    BlockingMetricService metricService;
+
+    @Mock
+    Configuration configuration;
+
     @Before
     public void setUp() throws Exception {
         initMocks(this);
@@ -44,9 +58,32 @@ public class FileAuthMainTest {
     @Test
     public void test_callback_is_added() throws Exception {
 
-        FileAuthMain fileAuthMain = new FileAuthMain(fileAuthenticator, callbackRegistry);
+        FileAuthMain fileAuthMain = new FileAuthMain(fileAuthenticator, callbackRegistry, metricService, configuration);
         fileAuthMain.postConstruct();
 
         verify(callbackRegistry).addCallback(fileAuthenticator);
     }
+
+    @Test
+    public void test_metrics_are_registered() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        when(metricService.getMetricRegistry()).thenReturn(metricRegistry);
+
+        FileAuthMain fileAuthMain = new FileAuthMain(fileAuthenticator, callbackRegistry, metricService, configuration);
+        fileAuthMain.postConstruct();
+
+        verify(fileAuthenticator).registerMetrics(metricRegistry);
+    }
+
+    @Test
+    public void test_configuration_is_shut_down_on_broker_stop() throws Exception {
+        FileAuthMain fileAuthMain = new FileAuthMain(fileAuthenticator, callbackRegistry, metricService, configuration);
+        fileAuthMain.postConstruct();
+
+        final ArgumentCaptor<Callback> captor = ArgumentCaptor.forClass(Callback.class);
+        verify(callbackRegistry, times(2)).addCallback(captor.capture());
+        ((OnBrokerStop) captor.getAllValues().get(1)).onBrokerStop();
+
+        verify(configuration).shutdown();
+    }
 }
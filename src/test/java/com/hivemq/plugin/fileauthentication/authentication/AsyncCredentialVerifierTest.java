@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncCredentialVerifierTest {
+
+    private AsyncCredentialVerifier verifier;
+    private KeyedDigest keyedDigest;
+
+    @Before
+    public void setUp() throws Exception {
+        verifier = new AsyncCredentialVerifier(2);
+        keyedDigest = KeyedDigest.withRandomKey();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        verifier.shutdown();
+    }
+
+    @Test
+    public void test_same_credentials_share_verification() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger verifications = new AtomicInteger();
+        final Callable<Boolean> verification = blockingVerification(latch, verifications);
+
+        final ListenableFuture<Boolean> future1 = verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null, verification);
+        final ListenableFuture<Boolean> future2 = verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null, verification);
+
+        assertSame(future1, future2);
+
+        latch.countDown();
+        assertTrue(future1.get(10, TimeUnit.SECONDS));
+        assertEquals(1, verifications.get());
+    }
+
+    @Test
+    public void test_different_credentials_are_verified_separately() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger verifications = new AtomicInteger();
+        final Callable<Boolean> verification = blockingVerification(latch, verifications);
+
+        final ListenableFuture<Boolean> future1 = verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw1"), null, verification);
+        final ListenableFuture<Boolean> future2 = verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw2"), null, verification);
+
+        assertNotSame(future1, future2);
+
+        latch.countDown();
+        future1.get(10, TimeUnit.SECONDS);
+        future2.get(10, TimeUnit.SECONDS);
+        assertEquals(2, verifications.get());
+    }
+
+    @Test
+    public void test_changed_credential_is_verified_separately() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger verifications = new AtomicInteger();
+        final Callable<Boolean> verification = blockingVerification(latch, verifications);
+        final CredentialCacheKey key = CredentialCacheKey.create(keyedDigest, "user", "pw");
+
+        final ListenableFuture<Boolean> future1 = verifier.verify(key, ParsedCredential.plaintext("pw"), verification);
+        final ListenableFuture<Boolean> future2 = verifier.verify(key, ParsedCredential.plaintext("changed"), verification);
+        final ListenableFuture<Boolean> future3 = verifier.verify(key, ParsedCredential.plaintext("changed"), verification);
+
+        assertNotSame(future1, future2);
+        assertSame(future2, future3);
+
+        latch.countDown();
+        future1.get(10, TimeUnit.SECONDS);
+        future2.get(10, TimeUnit.SECONDS);
+        assertEquals(2, verifications.get());
+    }
+
+    @Test
+    public void test_calling_thread_verifier_runs_verification_immediately() throws Exception {
+        final AtomicInteger verifications = new AtomicInteger();
+        final AsyncCredentialVerifier callingThread = AsyncCredentialVerifier.onCallingThread();
+
+        final ListenableFuture<Boolean> future = callingThread.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null,
+                blockingVerification(new CountDownLatch(0), verifications));
+
+        assertTrue(future.isDone());
+        assertEquals(1, verifications.get());
+    }
+
+    @Test
+    public void test_finished_verification_is_not_reused() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(0);
+        final AtomicInteger verifications = new AtomicInteger();
+        final Callable<Boolean> verification = blockingVerification(latch, verifications);
+
+        verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null, verification).get(10, TimeUnit.SECONDS);
+        verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null, verification).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, verifications.get());
+    }
+
+    @Test
+    public void test_verify_after_shutdown() throws Exception {
+        verifier.shutdown();
+
+        final ListenableFuture<Boolean> future = verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null,
+                blockingVerification(new CountDownLatch(0), new AtomicInteger()));
+
+        assertTrue(future.isDone());
+        assertTrue(future.get());
+    }
+
+    private static Callable<Boolean> blockingVerification(final CountDownLatch latch, final AtomicInteger verifications) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                verifications.incrementAndGet();
+                latch.await();
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialBatchExecutorTest {
+
+    private final Timer latency = new Timer();
+    private final Histogram batchSizes = new Histogram(new ExponentiallyDecayingReservoir());
+    private CredentialBatchExecutor executor;
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    @Test
+    public void test_full_batch_is_dispatched_without_waiting_for_window() throws Exception {
+        executor = new CredentialBatchExecutor(2, (int) TimeUnit.HOURS.toMillis(1), 4, latency, batchSizes);
+        final CountDownLatch done = new CountDownLatch(4);
+
+        for (int i = 0; i < 3; i++) {
+            executor.execute(countDown(done));
+        }
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(0, batchSizes.getCount());
+
+        executor.execute(countDown(done));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, batchSizes.getCount());
+        assertEquals(4, batchSizes.getSnapshot().getMax());
+    }
+
+    @Test
+    public void test_partial_batch_is_dispatched_after_window() throws Exception {
+        executor = new CredentialBatchExecutor(2, 20, 100, latency, batchSizes);
+        final CountDownLatch done = new CountDownLatch(3);
+
+        for (int i = 0; i < 3; i++) {
+            executor.execute(countDown(done));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, batchSizes.getCount());
+        assertEquals(3, batchSizes.getSnapshot().getMax());
+        awaitCount(latency, 3);
+    }
+
+    @Test
+    public void test_zero_window_dispatches_every_verification() throws Exception {
+        executor = new CredentialBatchExecutor(2, 0, 100, latency, batchSizes);
+        final CountDownLatch done = new CountDownLatch(2);
+
+        executor.execute(countDown(done));
+        executor.execute(countDown(done));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, batchSizes.getCount());
+    }
+
+    @Test
+    public void test_shutdown_dispatches_pending_batch() throws Exception {
+        executor = new CredentialBatchExecutor(2, (int) TimeUnit.HOURS.toMillis(1), 100, latency, batchSizes);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(countDown(done));
+
+        executor.shutdown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void test_duplicate_credentials_are_verified_once_per_batch() throws Exception {
+        executor = new CredentialBatchExecutor(2, (int) TimeUnit.HOURS.toMillis(1), 3, latency, batchSizes);
+        final AsyncCredentialVerifier verifier = new AsyncCredentialVerifier(2, executor);
+        final KeyedDigest keyedDigest = KeyedDigest.withRandomKey();
+        final AtomicInteger verifications = new AtomicInteger();
+
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "pw"), null, counting(verifications)));
+        }
+        futures.add(verifier.verify(CredentialCacheKey.create(keyedDigest, "user", "other"), null, counting(verifications)));
+        futures.add(verifier.verify(CredentialCacheKey.create(keyedDigest, "other", "pw"), null, counting(verifications)));
+
+        for (ListenableFuture<Boolean> future : futures) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        assertSame(futures.get(0), futures.get(9));
+        assertEquals(3, verifications.get());
+        assertEquals(1, batchSizes.getCount());
+    }
+
+    private static void awaitCount(final Timer timer, final long count) throws InterruptedException {
+        // the latency is recorded after the verification completed its future
+        for (int i = 0; i < 1000 && timer.getCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, timer.getCount());
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static Callable<Boolean> counting(final AtomicInteger verifications) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                verifications.incrementAndGet();
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class CredentialCacheKeyTest {
+
+    private KeyedDigest keyedDigest;
+
+    @Before
+    public void setUp() throws Exception {
+        keyedDigest = KeyedDigest.withRandomKey();
+    }
+
+    @Test
+    public void test_same_credentials_are_equal() throws Exception {
+        final CredentialCacheKey key1 = CredentialCacheKey.create(keyedDigest, "user", "password");
+        final CredentialCacheKey key2 = CredentialCacheKey.create(keyedDigest, "user", "password");
+
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+    }
+
+    @Test
+    public void test_different_password_is_not_equal() throws Exception {
+        final CredentialCacheKey key1 = CredentialCacheKey.create(keyedDigest, "user", "password");
+        final CredentialCacheKey key2 = CredentialCacheKey.create(keyedDigest, "user", "wrong");
+
+        assertNotEquals(key1, key2);
+    }
+
+    @Test
+    public void test_different_username_is_not_equal() throws Exception {
+        final CredentialCacheKey key1 = CredentialCacheKey.create(keyedDigest, "user1", "password");
+        final CredentialCacheKey key2 = CredentialCacheKey.create(keyedDigest, "user2", "password");
+
+        assertNotEquals(key1, key2);
+    }
+
+    @Test
+    public void test_different_digest_key_is_not_equal() throws Exception {
+        final CredentialCacheKey key1 = CredentialCacheKey.create(keyedDigest, "user", "password");
+        final CredentialCacheKey key2 = CredentialCacheKey.create(KeyedDigest.withRandomKey(), "user", "password");
+
+        assertFalse(key1.equals(key2));
+    }
+}
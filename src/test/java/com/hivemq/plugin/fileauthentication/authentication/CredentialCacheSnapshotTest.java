@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CredentialCacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyedDigest keyedDigest;
+    private File file;
+    private File keyFile;
+
+    @Before
+    public void setUp() throws Exception {
+        keyedDigest = KeyedDigest.withRandomKey();
+        file = new File(folder.getRoot(), "credential-cache.snapshot");
+        keyFile = new File(folder.getRoot(), "credential-cache.snapshot.key");
+    }
+
+    @Test
+    public void test_write_and_read() throws Exception {
+        final CredentialCacheKey key = CredentialCacheKey.create(keyedDigest, "user", "password");
+        final long fingerprint = CredentialCacheSnapshot.fingerprint(keyedDigest, "hash$salt".getBytes(Charsets.UTF_8));
+
+        CredentialCacheSnapshot.write(file, 42L,
+                ImmutableList.of(new CredentialCacheSnapshot.Entry(key, fingerprint, 1234L)));
+
+        final Optional<CredentialCacheSnapshot> snapshot = CredentialCacheSnapshot.read(file);
+        assertTrue(snapshot.isPresent());
+        assertEquals(42L, snapshot.get().getSettingsFingerprint());
+        assertEquals(1, snapshot.get().getEntries().size());
+        assertEquals(key, snapshot.get().getEntries().get(0).getKey());
+        assertEquals(fingerprint, snapshot.get().getEntries().get(0).getLineFingerprint());
+        assertEquals(1234L, snapshot.get().getEntries().get(0).getVerifiedMillis());
+    }
+
+    @Test
+    public void test_snapshot_does_not_contain_key() throws Exception {
+        CredentialCacheSnapshot.write(file, 0L, ImmutableList.of(new CredentialCacheSnapshot.Entry(
+                CredentialCacheKey.create(keyedDigest, "user", "password"), 0L, 0L)));
+
+        final byte[] content = Files.readAllBytes(file.toPath());
+        final byte[] key = keyedDigest.getKey();
+        for (int i = 0; i + key.length <= content.length; i++) {
+            assertFalse(Arrays.equals(key, Arrays.copyOfRange(content, i, i + key.length)));
+        }
+    }
+
+    @Test
+    public void test_key_file_only_readable_by_owner() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        CredentialCacheSnapshot.writeKey(keyFile, keyedDigest.getKey());
+
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(keyFile.toPath())));
+        assertArrayEquals(keyedDigest.getKey(), CredentialCacheSnapshot.readKey(keyFile).get());
+    }
+
+    @Test
+    public void test_key_readable_by_group_is_refused() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        CredentialCacheSnapshot.writeKey(keyFile, keyedDigest.getKey());
+        Files.setPosixFilePermissions(keyFile.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+
+        assertFalse(CredentialCacheSnapshot.readKey(keyFile).isPresent());
+    }
+
+    @Test
+    public void test_key_from_environment_is_decoded() throws Exception {
+        final String encoded = BaseEncoding.base64().encode(keyedDigest.getKey());
+
+        assertArrayEquals(keyedDigest.getKey(), CredentialCacheSnapshot.decodeKey(encoded + "\n").get());
+        assertFalse(CredentialCacheSnapshot.decodeKey("c2hvcnQ=").isPresent());
+        assertFalse(CredentialCacheSnapshot.decodeKey("not base64!").isPresent());
+    }
+
+    @Test
+    public void test_restored_key_creates_same_cache_keys() throws Exception {
+        CredentialCacheSnapshot.writeKey(keyFile, keyedDigest.getKey());
+
+        final KeyedDigest restored = new KeyedDigest(CredentialCacheSnapshot.readKey(keyFile).get());
+
+        assertEquals(CredentialCacheKey.create(keyedDigest, "user", "password"),
+                CredentialCacheKey.create(restored, "user", "password"));
+    }
+
+    @Test
+    public void test_fingerprint_changes_with_credential_line() throws Exception {
+        assertEquals(CredentialCacheSnapshot.fingerprint(keyedDigest, "hash$salt".getBytes(Charsets.UTF_8)),
+                CredentialCacheSnapshot.fingerprint(keyedDigest, "hash$salt".getBytes(Charsets.UTF_8)));
+        assertNotEquals(CredentialCacheSnapshot.fingerprint(keyedDigest, "hash$salt".getBytes(Charsets.UTF_8)),
+                CredentialCacheSnapshot.fingerprint(keyedDigest, "other$salt".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void test_missing_file() throws Exception {
+        assertFalse(CredentialCacheSnapshot.read(file).isPresent());
+        assertFalse(CredentialCacheSnapshot.readKey(keyFile).isPresent());
+    }
+
+    @Test
+    public void test_corrupt_file() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2, 3, 4, 5});
+        }
+
+        assertFalse(CredentialCacheSnapshot.read(file).isPresent());
+    }
+}
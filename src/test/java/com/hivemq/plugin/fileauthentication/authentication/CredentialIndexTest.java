@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CredentialIndex.Parser parser = new CredentialIndex.Parser() {
+        @Override
+        public ParsedCredential parse(final String username, final String value) {
+            if (value.equals("malformed")) {
+                return ParsedCredential.MALFORMED;
+            }
+            return ParsedCredential.plaintext(value);
+        }
+    };
+
+    private CredentialStore credentials;
+
+    @Before
+    public void setUp() throws Exception {
+        credentials = new CredentialStore.Builder()
+                .put("user1", "password1")
+                .put("user2", "password2")
+                .put("user3", "malformed")
+                .put("user4", "")
+                .build();
+    }
+
+    @Test
+    public void test_build() throws Exception {
+        final CredentialIndex index = CredentialIndex.build(credentials, parser);
+
+        assertEquals(3, index.size());
+        assertEquals("password1", index.get("user1").getPlaintextPassword());
+        assertTrue(index.get("user3").isMalformed());
+        assertNull(index.get("user4"));
+    }
+
+    @Test
+    public void test_build_without_properties() throws Exception {
+        assertSame(CredentialIndex.EMPTY, CredentialIndex.build(null, parser));
+    }
+
+    @Test
+    public void test_update_only_changed_users() throws Exception {
+        final CredentialIndex index = CredentialIndex.build(credentials, parser);
+        final ParsedCredential user2 = index.get("user2");
+
+        final CredentialStore changed = new CredentialStore.Builder()
+                .put("user1", "changed")
+                .put("user2", "password2")
+                .put("user4", "")
+                .put("user5", "password5")
+                .build();
+
+        final CredentialIndex updated = index.update(changed, ImmutableSet.of("user1", "user3", "user5"), parser);
+
+        assertEquals(3, updated.size());
+        assertEquals("changed", updated.get("user1").getPlaintextPassword());
+        assertSame(user2, updated.get("user2"));
+        assertNull(updated.get("user3"));
+        assertEquals("password5", updated.get("user5").getPlaintextPassword());
+    }
+
+    @Test
+    public void test_off_heap() throws Exception {
+        final CredentialIndex.Parser hashingParser = new CredentialIndex.Parser() {
+            @Override
+            public ParsedCredential parse(final String username, final String value) {
+                if (value.startsWith("hash")) {
+                    return ParsedCredential.hashed("SHA-512", 100, value.getBytes(), new byte[]{1, 2, 3});
+                }
+                return parser.parse(username, value);
+            }
+        };
+        final CredentialStore withHash = new CredentialStore.Builder().putAll(credentials).put("user5", "hash5").build();
+
+        final CredentialIndex index = CredentialIndex.build(withHash, hashingParser, true);
+
+        assertEquals(4, index.size());
+        assertEquals("password1", index.get("user1").getPlaintextPassword());
+        assertTrue(index.get("user3").isMalformed());
+        assertNull(index.get("user4"));
+        final ParsedCredential hashed = index.get("user5");
+        assertEquals("SHA-512", hashed.getAlgorithm());
+        assertEquals(100, hashed.getIterations());
+        assertArrayEquals("hash5".getBytes(), hashed.getHash());
+        assertArrayEquals(new byte[]{1, 2, 3}, hashed.getSalt());
+
+        final CredentialStore changed = new CredentialStore.Builder().putAll(withHash).put("user1", "changed").build();
+        final CredentialIndex updated = index.update(changed, ImmutableSet.of("user1"), hashingParser);
+        assertEquals("changed", updated.get("user1").getPlaintextPassword());
+        assertEquals("password2", updated.get("user2").getPlaintextPassword());
+    }
+
+    @Test
+    public void test_many_updates_are_merged() throws Exception {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (int i = 0; i < 2 * CredentialIndex.MAX_OVERLAY_SIZE; i++) {
+            builder.put("user" + i, "changed" + i);
+        }
+        final CredentialStore changed = builder.build();
+
+        CredentialIndex index = CredentialIndex.build(credentials, parser);
+        for (int i = 0; i < 2 * CredentialIndex.MAX_OVERLAY_SIZE; i++) {
+            index = index.update(changed, ImmutableSet.of("user" + i), parser);
+        }
+
+        assertEquals(2 * CredentialIndex.MAX_OVERLAY_SIZE, index.size());
+        assertEquals("changed0", index.get("user0").getPlaintextPassword());
+        assertEquals("changed4", index.get("user4").getPlaintextPassword());
+        assertEquals("changed1500", index.get("user1500").getPlaintextPassword());
+    }
+
+    @Test
+    public void test_overlay_size_is_capped() throws Exception {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (int i = 0; i < 32 * CredentialIndex.MAX_OVERLAY_SIZE; i++) {
+            builder.put("user" + i, "password" + i);
+        }
+        final CredentialStore large = builder.build();
+
+        CredentialIndex index = CredentialIndex.build(large, parser);
+        for (int i = 0; i < CredentialIndex.MAX_OVERLAY_SIZE; i++) {
+            index = index.update(large, ImmutableSet.of("user" + i), parser);
+        }
+        assertEquals(CredentialIndex.MAX_OVERLAY_SIZE, index.overlaySize());
+
+        index = index.update(large, ImmutableSet.of("user" + CredentialIndex.MAX_OVERLAY_SIZE), parser);
+        assertEquals(0, index.overlaySize());
+        assertEquals(32 * CredentialIndex.MAX_OVERLAY_SIZE, index.size());
+        assertEquals("password7", index.get("user7").getPlaintextPassword());
+    }
+
+    @Test
+    public void test_mapped_credentials_are_parsed_on_lookup() throws Exception {
+        final File file = folder.newFile("credentials.bin");
+        credentials.writeTo(file);
+
+        final CredentialIndex index = CredentialIndex.build(CredentialStore.map(file), parser);
+
+        assertEquals("password1", index.get("user1").getPlaintextPassword());
+        assertTrue(index.get("user3").isMalformed());
+        assertNull(index.get("user4"));
+        assertNull(index.get("user5"));
+    }
+
+    @Test
+    public void test_decoded_credentials_are_read_without_parsing() throws Exception {
+        final CredentialStore passwords = new CredentialStore.Builder()
+                .put("plain", "c2FsdA==$aGFzaA==")
+                .put("phc", "$pbkdf2-sha256$1000$c2FsdA$aGFzaA")
+                .put("malformed", "not base64!")
+                .put("empty", "")
+                .build();
+        final CredentialDecoder decoder = new CredentialDecoder(true, true, true, "$", "SHA-512", 100);
+        final File file = folder.newFile("credentials.bin");
+        decoder.compile(passwords).writeTo(file);
+
+        final CredentialStore mapped = CredentialStore.map(file);
+        assertEquals(decoder.getFingerprint(), mapped.getFingerprint());
+        final CredentialIndex index = CredentialIndex.decoded(mapped, Predicates.equalTo("SHA-512"));
+
+        assertEquals(3, index.size());
+        final ParsedCredential plain = index.get("plain");
+        assertEquals("SHA-512", plain.getAlgorithm());
+        assertEquals(100, plain.getIterations());
+        assertArrayEquals("salt".getBytes(Charsets.UTF_8), plain.getSalt());
+        assertArrayEquals("hash".getBytes(Charsets.UTF_8), plain.getHash());
+        assertTrue("unsupported algorithm", index.get("phc").isMalformed());
+        assertTrue(index.get("malformed").isMalformed());
+        assertNull(index.get("empty"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_decoded_credentials_are_not_parsed() throws Exception {
+        final CredentialDecoder decoder = new CredentialDecoder(false, false, false, "$", "SHA-512", 100);
+        CredentialIndex.build(decoder.compile(credentials), parser);
+    }
+}
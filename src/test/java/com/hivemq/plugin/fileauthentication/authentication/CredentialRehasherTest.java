@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+import com.hivemq.plugin.fileauthentication.configuration.PasswordUpdate;
+import com.hivemq.plugin.fileauthentication.configuration.PasswordUpdater;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class CredentialRehasherTest {
+
+    private static final String TARGET_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final byte[] SALT = "salt".getBytes(Charsets.UTF_8);
+
+    @Mock
+    PasswordUpdater passwordUpdater;
+
+    private final PasswordComparator passwordComparator = new PasswordComparator();
+    private ScheduledExecutorService executor;
+    private CredentialRehasher rehasher;
+    private ParsedCredential legacy;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        legacy = ParsedCredential.hashed("SHA-512", 10, passwordComparator.createHash("SHA-512", "password", 10, SALT), SALT);
+        when(passwordUpdater.updatePasswords(anyCollectionOf(PasswordUpdate.class))).thenReturn(ImmutableSet.of("user"));
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        rehasher = new CredentialRehasher(passwordComparator, passwordUpdater, new CredentialIndex.Parser() {
+            @Override
+            public ParsedCredential parse(final String username, final String value) {
+                return "legacy".equals(value) ? legacy : ParsedCredential.MALFORMED;
+            }
+        }, TARGET_ALGORITHM, 1000, executor, 3600);
+    }
+
+    @Test
+    public void test_outdated() throws Exception {
+        assertTrue(rehasher.isOutdated(legacy));
+        assertTrue(rehasher.isOutdated(ParsedCredential.hashed(TARGET_ALGORITHM, 999, new byte[32], SALT)));
+        assertFalse(rehasher.isOutdated(ParsedCredential.hashed(TARGET_ALGORITHM, 1000, new byte[32], SALT)));
+        assertFalse(rehasher.isOutdated(ParsedCredential.plaintext("password")));
+        assertFalse(rehasher.isOutdated(ParsedCredential.MALFORMED));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void test_outdated_password_written_in_batch() throws Exception {
+        when(passwordUpdater.getCredentials()).thenReturn(credentials("user", "legacy"));
+
+        rehasher.rehashIfOutdated("user", "password", legacy);
+        rehasher.rehashIfOutdated("user", "password", legacy);
+        shutdown();
+
+        final ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(passwordUpdater).updatePasswords(captor.capture());
+        assertEquals(1, captor.getValue().size());
+
+        final PasswordUpdate update = (PasswordUpdate) captor.getValue().iterator().next();
+        assertEquals("user", update.getUsername());
+        assertEquals("legacy", update.getExpectedPassword());
+
+        final ParsedCredential rehashed = PhcFormatUtil.parse(update.getNewPassword());
+        assertEquals(TARGET_ALGORITHM, rehashed.getAlgorithm());
+        assertEquals(1000, rehashed.getIterations());
+        assertTrue(passwordComparator.validateHashedPassword(TARGET_ALGORITHM, "password", rehashed.getHash(), 1000, rehashed.getSalt()));
+    }
+
+    @Test
+    public void test_changed_password_not_rehashed() throws Exception {
+        when(passwordUpdater.getCredentials()).thenReturn(credentials("user", "changed"));
+
+        rehasher.rehashIfOutdated("user", "password", legacy);
+        shutdown();
+
+        verify(passwordUpdater, never()).updatePasswords(anyCollectionOf(PasswordUpdate.class));
+    }
+
+    private void shutdown() throws InterruptedException {
+        rehasher.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static CredentialStore credentials(final String username, final String password) {
+        return new CredentialStore.Builder().put(username, password).build();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.collect.ImmutableSet;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialResultCacheTest {
+
+    private KeyedDigest keyedDigest;
+    private CredentialResultCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        keyedDigest = KeyedDigest.withRandomKey();
+        cache = new CredentialResultCache(60, 10, 60, 1);
+    }
+
+    @Test
+    public void test_failures_do_not_evict_successes() throws Exception {
+        final CredentialCacheKey success = key("user", "password");
+        cache.put(success, true, true);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(key("user", "wrong" + i), false, true);
+        }
+
+        assertEquals(Boolean.TRUE, cache.getIfPresent(success));
+        assertEquals(Boolean.FALSE, cache.getIfPresent(key("user", "wrong99")));
+        assertNull(cache.getIfPresent(key("user", "wrong0")));
+    }
+
+    @Test
+    public void test_failure_not_admitted() throws Exception {
+        cache.put(key("user", "wrong"), false, false);
+
+        assertNull(cache.getIfPresent(key("user", "wrong")));
+    }
+
+    @Test
+    public void test_put() throws Exception {
+        cache.put(key("user", "password"), true, false);
+        cache.put(key("user", "wrong"), false, true);
+        cache.put(key("unknown", "wrong"), false, false);
+
+        assertEquals(Boolean.TRUE, cache.getIfPresent(key("user", "password")));
+        assertEquals(Boolean.FALSE, cache.getIfPresent(key("user", "wrong")));
+        assertNull(cache.getIfPresent(key("unknown", "wrong")));
+    }
+
+    @Test
+    public void test_invalidate_users() throws Exception {
+        cache.put(key("user1", "password"), true, true);
+        cache.put(key("user1", "wrong"), false, true);
+        cache.put(key("user2", "password"), true, true);
+
+        cache.invalidateUsers(ImmutableSet.of("user1"));
+
+        assertNull(cache.getIfPresent(key("user1", "password")));
+        assertNull(cache.getIfPresent(key("user1", "wrong")));
+        assertEquals(Boolean.TRUE, cache.getIfPresent(key("user2", "password")));
+    }
+
+    @Test
+    public void test_index_follows_removed_entries() throws Exception {
+        cache.put(key("user1", "password"), true, true);
+        cache.put(key("user2", "password"), true, true);
+        cache.put(key("user3", "wrong"), false, true);
+        assertEquals(3, cache.indexedUsers());
+
+        cache.invalidateUsers(ImmutableSet.of("user1"));
+        assertEquals(2, cache.indexedUsers());
+
+        // evicts the failure of user3 from the failure tier with a size of 1
+        cache.put(key("user4", "wrong"), false, true);
+        assertEquals(2, cache.indexedUsers());
+
+        cache.invalidateUsers(ImmutableSet.of("user2", "user4", "unknown"));
+        assertEquals(0, cache.indexedUsers());
+    }
+
+    @Test
+    public void test_restore_keeps_original_lifetime() throws Exception {
+        final long now = System.currentTimeMillis();
+
+        assertTrue(cache.restore(key("user1", "password"), now - 30000));
+        assertFalse(cache.restore(key("user2", "password"), now - 60000));
+
+        assertEquals(Boolean.TRUE, cache.getIfPresent(key("user1", "password")));
+        assertEquals(Long.valueOf(now - 30000), cache.getGranted().get(key("user1", "password")));
+        assertNull(cache.getIfPresent(key("user2", "password")));
+    }
+
+    @Test
+    public void test_restored_entry_expires_at_end_of_original_lifetime() throws Exception {
+        cache = new CredentialResultCache(1, 10, 60, 1);
+        assertTrue(cache.restore(key("user", "password"), System.currentTimeMillis() - 900));
+
+        Thread.sleep(200);
+
+        assertNull(cache.getIfPresent(key("user", "password")));
+        assertTrue(cache.getGranted().isEmpty());
+    }
+
+    @Test
+    public void test_invalidate() throws Exception {
+        cache.put(key("user", "password"), true, true);
+        cache.put(key("user", "wrong"), false, true);
+
+        cache.invalidate(key("user", "password"));
+        cache.invalidate(key("user", "wrong"));
+
+        assertNull(cache.getIfPresent(key("user", "password")));
+        assertNull(cache.getIfPresent(key("user", "wrong")));
+        assertEquals(0, cache.indexedUsers());
+    }
+
+    private CredentialCacheKey key(final String username, final String password) {
+        return CredentialCacheKey.create(keyedDigest, username, password);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Charsets;
+import com.hivemq.plugin.fileauthentication.util.HashSaltUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Base64;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.salt.FixedStringSaltGenerator;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DigestEngineTest {
+
+    private static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
+
+    private static final String[] ALGORITHMS = {"MD5", "SHA-1", "SHA-256", "SHA-512"};
+    private static final int[] ITERATIONS = {1, 2, 100};
+    private static final String[] PASSWORDS = {"password", "", "pässwörd", "café", "漢字"};
+    private static final String[] SALTS = {"salt", "sält", "漢"};
+
+    private DigestEngine digestEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        digestEngine = new DigestEngine(PROVIDER);
+    }
+
+    @Test
+    public void test_same_digest_as_jasypt_with_fixed_salt() throws Exception {
+        for (String algorithm : ALGORITHMS) {
+            for (int iterations : ITERATIONS) {
+                for (String password : PASSWORDS) {
+                    for (String salt : SALTS) {
+                        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+                        final SimpleDigesterConfig config = jasyptConfig(algorithm, iterations);
+                        final FixedStringSaltGenerator saltGenerator = new FixedStringSaltGenerator();
+                        saltGenerator.setSalt(salt);
+                        config.setSaltGenerator(saltGenerator);
+                        config.setSaltSizeBytes(salt.length());
+                        encryptor.setConfig(config);
+
+                        final byte[] expected = Base64.decode(encryptor.encryptPassword(password));
+
+                        assertArrayEquals(expected, digestEngine.digest(algorithm, password, iterations, HashSaltUtil.toSaltBytes(salt)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_same_digest_as_jasypt_with_random_salt() throws Exception {
+        for (String algorithm : ALGORITHMS) {
+            for (int iterations : ITERATIONS) {
+                for (String password : PASSWORDS) {
+                    final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+                    encryptor.setConfig(jasyptConfig(algorithm, iterations));
+
+                    final byte[] encrypted = Base64.decode(encryptor.encryptPassword(password));
+                    final byte[] salt = Arrays.copyOf(encrypted, 8);
+                    final byte[] hash = Arrays.copyOfRange(encrypted, 8, encrypted.length);
+
+                    assertTrue(digestEngine.matches(algorithm, password, hash, iterations, salt));
+                    assertFalse(digestEngine.matches(algorithm, password + "x", hash, iterations, salt));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_jdk_provider_same_digest_as_bouncycastle() throws Exception {
+        final DigestEngine jdkEngine = new DigestEngine(DigestProvider.JDK, PROVIDER);
+        for (String algorithm : ALGORITHMS) {
+            for (int iterations : ITERATIONS) {
+                for (String password : PASSWORDS) {
+                    for (String salt : SALTS) {
+                        final byte[] saltBytes = HashSaltUtil.toSaltBytes(salt);
+                        assertArrayEquals(digestEngine.digest(algorithm, password, iterations, saltBytes),
+                                jdkEngine.digest(algorithm, password, iterations, saltBytes));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_provider_per_strategy() throws Exception {
+        assertSame(PROVIDER, digestEngine.getProvider("SHA-512"));
+
+        final DigestEngine jdkEngine = new DigestEngine(DigestProvider.JDK, PROVIDER);
+        assertNotEquals(PROVIDER.getName(), jdkEngine.getProvider("SHA-512").getName());
+        // the JDK does not provide Whirlpool
+        assertSame(PROVIDER, jdkEngine.getProvider("WHIRLPOOL"));
+
+        final DigestEngine autoEngine = new DigestEngine(DigestProvider.AUTO, PROVIDER);
+        final Provider provider = autoEngine.getProvider("SHA-512");
+        assertTrue(provider == PROVIDER || provider == jdkEngine.getProvider("SHA-512"));
+        assertSame(provider, autoEngine.getProvider("SHA-512"));
+    }
+
+    @Test
+    public void test_digest_provider_from_name() throws Exception {
+        assertEquals(DigestProvider.JDK, DigestProvider.fromName("jdk"));
+        assertEquals(DigestProvider.BOUNCYCASTLE, DigestProvider.fromName(" BouncyCastle "));
+        assertEquals(DigestProvider.AUTO, DigestProvider.fromName("auto"));
+        assertEquals(DigestProvider.BOUNCYCASTLE, DigestProvider.fromName("unknown"));
+        assertEquals(DigestProvider.BOUNCYCASTLE, DigestProvider.fromName(null));
+    }
+
+    @Test
+    public void test_password_encoded_like_string_bytes() throws Exception {
+        final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256", PROVIDER);
+        for (String password : new String[]{"a\ud800b", "\udc00", "x\ud83d\ude00", "a longer password, which does not fit into the initial buffer of the thread"}) {
+            messageDigest.update(password.getBytes(Charsets.UTF_8));
+            assertArrayEquals(messageDigest.digest(), digestEngine.digest("SHA-256", password, 1, new byte[0]));
+        }
+    }
+
+    @Test
+    public void test_constant_time_equals() throws Exception {
+        assertTrue(DigestEngine.constantTimeEquals(new byte[]{1, 2, 3, 4}, 3, new byte[]{1, 2, 3}));
+        assertFalse(DigestEngine.constantTimeEquals(new byte[]{1, 2, 3, 4}, 3, new byte[]{1, 2, 4}));
+        assertFalse(DigestEngine.constantTimeEquals(new byte[]{1, 2, 3, 4}, 4, new byte[]{1, 2, 3}));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_unknown_algorithm() throws Exception {
+        digestEngine.digest("UNKNOWN", "password", 1, new byte[0]);
+    }
+
+    private static SimpleDigesterConfig jasyptConfig(final String algorithm, final int iterations) {
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setProvider(PROVIDER);
+        config.setAlgorithm(algorithm);
+        config.setIterations(iterations);
+        return config;
+    }
+}
@@ -16,20 +16,52 @@
 
 package com.hivemq.plugin.fileauthentication.authentication;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
 import com.google.common.net.InetAddresses;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
 import com.hivemq.plugin.fileauthentication.configuration.Configuration;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
 import com.hivemq.plugin.fileauthentication.configuration.CredentialsConfiguration;
 import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
+import com.hivemq.plugin.fileauthentication.util.PhcFormatUtil;
 import com.hivemq.spi.security.ClientCredentialsData;
 import com.google.common.base.Optional;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Base64;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.net.InetAddress;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -38,6 +70,9 @@ import static org.mockito.MockitoAnnotations.initMocks;
  */
 public class FileAuthenticatorTest {
 
+    private static final String SALT = "salt";
+    private static final String HASH = "hash";
+
     @Mock
     PasswordComparator passwordComparator;
 
@@ -51,6 +86,8 @@ public class FileAuthenticatorTest {
     @Mock
     CredentialsConfiguration credentialsConfiguration;
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @Before
     public void setUp() throws Exception {
@@ -93,7 +130,7 @@ public class FileAuthenticatorTest {
         when(clientCredentialsData.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
 
 
-        when(configuration.getUser(providedUsername)).thenReturn(null);
+        when(credentialsConfiguration.getCredentials()).thenReturn(CredentialStore.EMPTY);
 
         fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
         final Boolean isAuthenticated = fileAuthenticator.checkCredentials(clientCredentialsData);
@@ -112,7 +149,7 @@ public class FileAuthenticatorTest {
 
 
         final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isHashed()).thenReturn(false);
 
         when(passwordComparator.validatePlaintextPassword(filePassword, providedPassword)).thenReturn(true);
@@ -134,7 +171,7 @@ public class FileAuthenticatorTest {
 
 
         final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isHashed()).thenReturn(false);
 
         when(passwordComparator.validatePlaintextPassword(filePassword, providedPassword)).thenReturn(false);
@@ -155,8 +192,8 @@ public class FileAuthenticatorTest {
         when(clientCredentialsData.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
 
 
-        final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        final String filePassword = "wcPX9K84FBCni8IaS9wpmt37YRv5hncjJ7vYCRtJj9gFgMAGESZt8oGvZTBWkog3EIZX3lA7EcnM4/qY4uDpUqzkSj/SISUc";
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isSalted()).thenReturn(false);
         when(configuration.isHashed()).thenReturn(true);
         final String algorithm = "SHA-512";
@@ -164,8 +201,9 @@ public class FileAuthenticatorTest {
         final int iterations = 1000000;
         when(configuration.getHashingIterations()).thenReturn(iterations);
 
-        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
-        when(passwordComparator.validateHashedPassword(algorithm, providedPassword, filePassword, iterations)).thenReturn(true);
+        final byte[] decoded = Base64.decode(filePassword);
+        when(passwordComparator.validateHashedPassword(eq(algorithm), eq(providedPassword),
+                aryEq(Arrays.copyOfRange(decoded, 8, decoded.length)), eq(iterations), aryEq(Arrays.copyOf(decoded, 8)))).thenReturn(true);
 
 
         FileAuthenticator fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
@@ -184,8 +222,8 @@ public class FileAuthenticatorTest {
         when(clientCredentialsData.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
 
 
-        final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        final String filePassword = "wcPX9K84FBCni8IaS9wpmt37YRv5hncjJ7vYCRtJj9gFgMAGESZt8oGvZTBWkog3EIZX3lA7EcnM4/qY4uDpUqzkSj/SISUc";
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isSalted()).thenReturn(false);
         when(configuration.isHashed()).thenReturn(true);
         final String algorithm = "SHA-512";
@@ -193,8 +231,9 @@ public class FileAuthenticatorTest {
         final int iterations = 1000000;
         when(configuration.getHashingIterations()).thenReturn(iterations);
 
-        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
-        when(passwordComparator.validateHashedPassword(algorithm, providedPassword, filePassword, iterations)).thenReturn(false);
+        final byte[] decoded = Base64.decode(filePassword);
+        when(passwordComparator.validateHashedPassword(eq(algorithm), eq(providedPassword),
+                aryEq(Arrays.copyOfRange(decoded, 8, decoded.length)), eq(iterations), aryEq(Arrays.copyOf(decoded, 8)))).thenReturn(false);
 
 
         FileAuthenticator fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
@@ -215,7 +254,7 @@ public class FileAuthenticatorTest {
 
 
         final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isSalted()).thenReturn(true);
         when(configuration.isHashed()).thenReturn(true);
         final String algorithm = "SHA-512";
@@ -223,15 +262,14 @@ public class FileAuthenticatorTest {
         final int iterations = 1000000;
         when(configuration.getHashingIterations()).thenReturn(iterations);
 
-        final String salt = "salt";
-        final String hash = "hash";
-        HashedSaltedPassword abc = new HashedSaltedPassword(hash, salt);
+        final String salt = SALT;
+        final String hash = HASH;
 
-        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
-        when(passwordComparator.validateHashedAndSaltedPassword(algorithm, providedPassword, hash, iterations, salt)).thenReturn(true);
+        when(passwordComparator.validateHashedPassword(eq(algorithm), eq(providedPassword),
+                aryEq(Base64.decode(hash)), eq(iterations), aryEq(salt.getBytes()))).thenReturn(true);
 
 
-        FileAuthenticatorForTest fileAuthenticator = new FileAuthenticatorForTest(configuration, passwordComparator, abc);
+        FileAuthenticatorForTest fileAuthenticator = new FileAuthenticatorForTest(configuration, passwordComparator);
         final Boolean isAuthenticated = fileAuthenticator.checkCredentials(clientCredentialsData);
 
         assertTrue(isAuthenticated);
@@ -249,7 +287,7 @@ public class FileAuthenticatorTest {
 
 
         final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isSalted()).thenReturn(true);
         when(configuration.isHashed()).thenReturn(true);
         final String algorithm = "SHA-512";
@@ -257,15 +295,14 @@ public class FileAuthenticatorTest {
         final int iterations = 1000000;
         when(configuration.getHashingIterations()).thenReturn(iterations);
 
-        final String salt = "salt";
-        final String hash = "hash";
-        HashedSaltedPassword abc = new HashedSaltedPassword(hash, salt);
+        final String salt = SALT;
+        final String hash = HASH;
 
-        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
-        when(passwordComparator.validateHashedAndSaltedPassword(algorithm, providedPassword, hash, iterations, salt)).thenReturn(false);
+        when(passwordComparator.validateHashedPassword(eq(algorithm), eq(providedPassword),
+                aryEq(Base64.decode(hash)), eq(iterations), aryEq(salt.getBytes()))).thenReturn(false);
 
 
-        FileAuthenticatorForTest fileAuthenticator = new FileAuthenticatorForTest(configuration, passwordComparator, abc);
+        FileAuthenticatorForTest fileAuthenticator = new FileAuthenticatorForTest(configuration, passwordComparator);
         final Boolean isAuthenticated = fileAuthenticator.checkCredentials(clientCredentialsData);
 
         assertFalse(isAuthenticated);
@@ -283,7 +320,7 @@ public class FileAuthenticatorTest {
 
 
         final String filePassword = "password";
-        when(configuration.getUser(providedUsername)).thenReturn(filePassword);
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
         when(configuration.isSalted()).thenReturn(true);
         when(configuration.isHashed()).thenReturn(true);
         final String algorithm = "SHA-512";
@@ -291,46 +328,480 @@ public class FileAuthenticatorTest {
         final int iterations = 1000000;
         when(configuration.getHashingIterations()).thenReturn(iterations);
 
-        final String salt = "salt";
-        final String hash = "hash";
-        HashedSaltedPassword abc = new HashedSaltedPassword(hash, salt);
+        final String salt = SALT;
+        final String hash = HASH;
 
-        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
-        when(passwordComparator.validateHashedAndSaltedPassword(algorithm, providedPassword, hash, iterations, salt)).thenReturn(true);
+        when(passwordComparator.validateHashedPassword(eq(algorithm), eq(providedPassword),
+                aryEq(Base64.decode(hash)), eq(iterations), aryEq(salt.getBytes()))).thenReturn(true);
 
 
-        FileAuthenticatorForTest2 fileAuthenticator = new FileAuthenticatorForTest2(configuration, passwordComparator, abc);
+        FileAuthenticatorForTest2 fileAuthenticator = new FileAuthenticatorForTest2(configuration, passwordComparator);
         final Boolean isAuthenticated = fileAuthenticator.checkCredentials(clientCredentialsData);
 
         assertFalse(isAuthenticated);
     }
 
-    class FileAuthenticatorForTest extends FileAuthenticator {
+    @Test
+    public void test_cache_hit_for_same_credentials() throws Exception {
+
+        final String providedUsername = "user";
+        when(clientCredentialsData.getUsername()).thenReturn(Optional.of(providedUsername));
+        final String providedPassword = "password";
+        when(clientCredentialsData.getPassword()).thenReturn(Optional.of(providedPassword));
+        when(clientCredentialsData.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
+
+        final String filePassword = "password";
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(providedUsername, filePassword));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+
+        when(passwordComparator.validatePlaintextPassword(filePassword, providedPassword)).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentialsData));
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentialsData));
+
+        verify(passwordComparator, times(1)).validatePlaintextPassword(filePassword, providedPassword);
+    }
+
+    @Test
+    public void test_credential_change_only_evicts_changed_users() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user1", "password1", "user2", "password2"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(passwordComparator.validatePlaintextPassword("password1", "password1")).thenReturn(true);
+        when(passwordComparator.validatePlaintextPassword("password2", "password2")).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        final ArgumentCaptor<CredentialChangeCallback> captor = ArgumentCaptor.forClass(CredentialChangeCallback.class);
+        verify(credentialsConfiguration).addCallback(captor.capture());
+
+        final ClientCredentialsData user1 = clientCredentials("user1", "password1");
+        final ClientCredentialsData user2 = clientCredentials("user2", "password2");
+
+        assertTrue(fileAuthenticator.checkCredentials(user1));
+        assertTrue(fileAuthenticator.checkCredentials(user2));
+
+        captor.getValue().onCredentialChange(ImmutableSet.of("user1"));
+
+        assertTrue(fileAuthenticator.checkCredentials(user1));
+        assertTrue(fileAuthenticator.checkCredentials(user2));
+
+        verify(passwordComparator, times(2)).validatePlaintextPassword("password1", "password1");
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password2", "password2");
+    }
+
+    @Test
+    public void test_async_authentication() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(configuration.getAsyncAuthenticationThreads()).thenReturn(2);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenReturn(true);
 
-        public HashedSaltedPassword hashedSaltedPassword;
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        assertTrue(fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "password")).get());
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "wrong")));
+
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "password");
+    }
+
+    @Test
+    public void test_credential_change_during_verification() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "old"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(configuration.getAsyncAuthenticationThreads()).thenReturn(2);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(passwordComparator.validatePlaintextPassword("old", "old")).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return true;
+            }
+        });
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+        final ArgumentCaptor<CredentialChangeCallback> captor = ArgumentCaptor.forClass(CredentialChangeCallback.class);
+        verify(credentialsConfiguration).addCallback(captor.capture());
+
+        final ListenableFuture<Boolean> beforeChange = fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "old"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "new"));
+        captor.getValue().onCredentialChange(ImmutableSet.of("user"));
+
+        // does not join the verification against the previous credential
+        final ListenableFuture<Boolean> afterChange = fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "old"));
+        assertFalse(afterChange.get(10, TimeUnit.SECONDS));
+
+        release.countDown();
+        assertTrue(beforeChange.get(10, TimeUnit.SECONDS));
+
+        // the result of the verification against the previous credential was not cached
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "old")));
+        verify(passwordComparator, times(1)).validatePlaintextPassword("old", "old");
+        verify(passwordComparator, times(2)).validatePlaintextPassword("new", "old");
+    }
+
+    @Test
+    public void test_batch_authentication() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(configuration.getAsyncAuthenticationThreads()).thenReturn(2);
+        when(configuration.isBatchVerification()).thenReturn(true);
+        when(configuration.getBatchVerificationWindow()).thenReturn(1);
+        when(configuration.getBatchVerificationSize()).thenReturn(10);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        fileAuthenticator.registerMetrics(metricRegistry);
+
+        final ListenableFuture<Boolean> granted = fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "password"));
+        final ListenableFuture<Boolean> denied = fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "wrong"));
+
+        assertTrue(granted.get(10, TimeUnit.SECONDS));
+        assertFalse(denied.get(10, TimeUnit.SECONDS));
+        assertTrue(metricRegistry.getTimers().containsKey("com.hivemq.plugins.file-authentication.batch-verification.time"));
+        assertTrue(metricRegistry.getHistograms().get("com.hivemq.plugins.file-authentication.batch-verification.batch-size").getCount() > 0);
+    }
+
+    @Test
+    public void test_throttled_login_is_denied_without_verification() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(configuration.isThrottling()).thenReturn(true);
+        when(configuration.getThrottlingIpRate()).thenReturn(100);
+        when(configuration.getThrottlingIpBurst()).thenReturn(100);
+        when(configuration.getThrottlingUserRate()).thenReturn(1);
+        when(configuration.getThrottlingUserBurst()).thenReturn(1);
+        when(passwordComparator.validatePlaintextPassword("password", "wrong")).thenReturn(false);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "wrong")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "wrong");
+        verify(passwordComparator, times(0)).validatePlaintextPassword("password", "password");
+    }
+
+    @Test
+    public void test_joined_logins_are_not_throttled() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(configuration.getAsyncAuthenticationThreads()).thenReturn(2);
+        when(configuration.isThrottling()).thenReturn(true);
+        when(configuration.getThrottlingIpRate()).thenReturn(100);
+        when(configuration.getThrottlingIpBurst()).thenReturn(100);
+        when(configuration.getThrottlingUserRate()).thenReturn(1);
+        when(configuration.getThrottlingUserBurst()).thenReturn(2);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return true;
+            }
+        });
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        final List<ListenableFuture<Boolean>> logins = new ArrayList<>();
+        logins.add(fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "password")));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            logins.add(fileAuthenticator.checkCredentialsAsync(clientCredentials("user", "password")));
+        }
+        release.countDown();
 
-        public FileAuthenticatorForTest(Configuration configurations, PasswordComparator passwordComparator, HashedSaltedPassword hashedSaltedPassword) {
+        for (ListenableFuture<Boolean> login : logins) {
+            assertTrue(login.get(10, TimeUnit.SECONDS));
+        }
+
+        // the second token of the user is still available
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "wrong")));
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "password");
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "wrong");
+    }
+
+    @Test
+    public void test_restart_replaces_settings_and_cache() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        final ArgumentCaptor<Configuration.RestartListener> captor = ArgumentCaptor.forClass(Configuration.RestartListener.class);
+        verify(configuration).setRestartListener(captor.capture());
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.isSalted()).thenReturn(false);
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+        captor.getValue().restart();
+
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "password");
+    }
+
+    @Test
+    public void test_restart_keeps_cache_and_index_of_unchanged_settings() throws Exception {
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", "password"));
+        when(configuration.isHashed()).thenReturn(false);
+        when(configuration.getCacheSize()).thenReturn(100);
+        when(configuration.getCachingTime()).thenReturn(60);
+        when(passwordComparator.validatePlaintextPassword("password", "password")).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        final ArgumentCaptor<Configuration.RestartListener> captor = ArgumentCaptor.forClass(Configuration.RestartListener.class);
+        verify(configuration).setRestartListener(captor.capture());
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+
+        when(configuration.isThrottling()).thenReturn(true);
+        when(configuration.getThrottlingIpRate()).thenReturn(100);
+        when(configuration.getThrottlingIpBurst()).thenReturn(100);
+        when(configuration.getThrottlingUserRate()).thenReturn(100);
+        when(configuration.getThrottlingUserBurst()).thenReturn(100);
+        when(configuration.isAsyncAuthentication()).thenReturn(true);
+        when(configuration.getAsyncAuthenticationThreads()).thenReturn(2);
+        captor.getValue().restart();
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "password")));
+        verify(passwordComparator, times(1)).validatePlaintextPassword("password", "password");
+        // the credentials were only read to build the index on startup
+        verify(credentialsConfiguration, times(1)).getCredentials();
+    }
+
+    @Test
+    public void test_self_describing_passwords_next_to_legacy_passwords() throws Exception {
+
+        final byte[] legacySalt = {1, 2, 3, 4, 5, 6, 7, 8};
+        final byte[] legacyHash = new DigestEngine(new BouncyCastleProvider()).digest("SHA-512", "legacy", 100, legacySalt);
+        final byte[] legacyPassword = new byte[legacySalt.length + legacyHash.length];
+        System.arraycopy(legacySalt, 0, legacyPassword, 0, legacySalt.length);
+        System.arraycopy(legacyHash, 0, legacyPassword, legacySalt.length, legacyHash.length);
+
+        final byte[] salt = "0123456789abcdef".getBytes(Charsets.UTF_8);
+        final byte[] hash = new Pbkdf2Engine().derive("PBKDF2WithHmacSHA256", "modern", 1000, salt, 32);
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials(
+                "legacy", Base64.toBase64String(legacyPassword),
+                "modern", PhcFormatUtil.format("PBKDF2WithHmacSHA256", 1000, salt, hash),
+                "unknown", "$pbkdf2-unknown$1000$c2FsdA$aGFzaA"));
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.isSalted()).thenReturn(false);
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+
+        fileAuthenticator = new FileAuthenticator(configuration, new PasswordComparator());
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("legacy", "legacy")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("legacy", "modern")));
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("modern", "modern")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("modern", "legacy")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("unknown", "salt")));
+    }
+
+    @Test
+    public void test_verified_credentials_survive_cache_expiry_and_unrelated_changes() throws Exception {
+
+        final byte[] salt = "0123456789abcdef".getBytes(Charsets.UTF_8);
+        final byte[] otherSalt = "fedcba9876543210".getBytes(Charsets.UTF_8);
+        final Pbkdf2Engine pbkdf2 = new Pbkdf2Engine();
+        final String user = PhcFormatUtil.format("PBKDF2WithHmacSHA256", 1000, salt, pbkdf2.derive("PBKDF2WithHmacSHA256", "pw", 1000, salt, 32));
+        final String changedUser = PhcFormatUtil.format("PBKDF2WithHmacSHA256", 1000, otherSalt, pbkdf2.derive("PBKDF2WithHmacSHA256", "pw", 1000, otherSalt, 32));
+        final String other = PhcFormatUtil.format("PBKDF2WithHmacSHA256", 1000, salt, pbkdf2.derive("PBKDF2WithHmacSHA256", "other", 1000, salt, 32));
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", user, "other", other));
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+        // nothing is cached, like after the caching time expired
+        when(configuration.getCachingTime()).thenReturn(0);
+        when(configuration.isVerifiedCredentials()).thenReturn(true);
+        when(configuration.getVerifiedCredentialsSize()).thenReturn(100);
+        final PasswordComparator passwordComparator = spy(new PasswordComparator());
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+        final ArgumentCaptor<CredentialChangeCallback> captor = ArgumentCaptor.forClass(CredentialChangeCallback.class);
+        verify(credentialsConfiguration).addCallback(captor.capture());
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "wrong")));
+        verify(passwordComparator, times(1)).validateHashedPassword(anyString(), eq("pw"), any(byte[].class), anyInt(), any(byte[].class));
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", user, "other", "changed"));
+        captor.getValue().onCredentialChange(ImmutableSet.of("other"));
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        verify(passwordComparator, times(1)).validateHashedPassword(anyString(), eq("pw"), any(byte[].class), anyInt(), any(byte[].class));
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(credentials("user", changedUser, "other", "changed"));
+        captor.getValue().onCredentialChange(ImmutableSet.of("user"));
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        verify(passwordComparator, times(2)).validateHashedPassword(anyString(), eq("pw"), any(byte[].class), anyInt(), any(byte[].class));
+    }
+
+    @Test
+    public void test_mapped_credential_parsed_once_per_login() throws Exception {
+
+        final File file = new File(temporaryFolder.getRoot(), "credentials.bin");
+        credentials("user", "$pbkdf2-sha256$1000$c2FsdA$aGFzaA").writeTo(file);
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(CredentialStore.map(file));
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+        when(configuration.isVerifiedCredentials()).thenReturn(true);
+        when(configuration.getVerifiedCredentialsSize()).thenReturn(100);
+        when(passwordComparator.isSupported(anyString())).thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+        verify(passwordComparator, times(1)).isSupported(anyString());
+
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "wrong")));
+        verify(passwordComparator, times(2)).isSupported(anyString());
+    }
+
+    @Test
+    public void test_decoded_credentials_are_verified_without_decoding() throws Exception {
+
+        final File file = new File(temporaryFolder.getRoot(), "credentials.bin");
+        new CredentialDecoder(true, true, true, "$", "SHA-512", 100)
+                .compile(credentials("user", "c2FsdA==$aGFzaA==")).writeTo(file);
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(CredentialStore.map(file));
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.isSalted()).thenReturn(true);
+        when(configuration.isSaltFirst()).thenReturn(true);
+        when(configuration.getSeparationChar()).thenReturn("$");
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+        when(passwordComparator.validateHashedPassword(anyString(), anyString(), any(byte[].class), anyInt(), any(byte[].class)))
+                .thenReturn(true);
+
+        final AtomicInteger decoded = new AtomicInteger();
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator) {
+            @Override
+            HashedSaltedPassword getHashAndSalt(final AuthenticatorSettings settings, final String hashedPassword)
+                    throws PasswordFormatException {
+                decoded.incrementAndGet();
+                return super.getHashAndSalt(settings, hashedPassword);
+            }
+        };
+
+        assertTrue(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        verify(passwordComparator).validateHashedPassword(eq("SHA-512"), eq("pw"), aryEq("hash".getBytes(Charsets.UTF_8)),
+                eq(100), aryEq("salt".getBytes(Charsets.UTF_8)));
+        assertEquals(0, decoded.get());
+    }
+
+    @Test
+    public void test_decoded_credentials_of_other_settings_are_rejected() throws Exception {
+
+        final File file = new File(temporaryFolder.getRoot(), "credentials.bin");
+        new CredentialDecoder(true, true, true, "$", "SHA-512", 100)
+                .compile(credentials("user", "c2FsdA==$aGFzaA==")).writeTo(file);
+
+        when(credentialsConfiguration.getCredentials()).thenReturn(CredentialStore.map(file));
+        when(configuration.isHashed()).thenReturn(true);
+        when(configuration.isSalted()).thenReturn(true);
+        when(configuration.isSaltFirst()).thenReturn(false);
+        when(configuration.getSeparationChar()).thenReturn("$");
+        when(configuration.getHashingAlgorithm()).thenReturn("SHA-512");
+        when(configuration.getHashingIterations()).thenReturn(100);
+        when(passwordComparator.validateHashedPassword(anyString(), anyString(), any(byte[].class), anyInt(), any(byte[].class)))
+                .thenReturn(true);
+
+        fileAuthenticator = new FileAuthenticator(configuration, passwordComparator);
+
+        assertFalse(fileAuthenticator.checkCredentials(clientCredentials("user", "pw")));
+        verify(passwordComparator, never()).validateHashedPassword(anyString(), anyString(), any(byte[].class), anyInt(), any(byte[].class));
+    }
+
+    private static CredentialStore credentials(final String... usernamesAndPasswords) {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (int i = 0; i < usernamesAndPasswords.length; i += 2) {
+            builder.put(usernamesAndPasswords[i], usernamesAndPasswords[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private static ClientCredentialsData clientCredentials(final String username, final String password) {
+        final ClientCredentialsData data = mock(ClientCredentialsData.class);
+        when(data.getUsername()).thenReturn(Optional.of(username));
+        when(data.getPassword()).thenReturn(Optional.of(password));
+        when(data.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
+        return data;
+    }
+
+    /**
+     * The credential index is built in the constructor, so the returned hash and salt must not depend on instance fields
+     */
+    static class FileAuthenticatorForTest extends FileAuthenticator {
+
+        public FileAuthenticatorForTest(Configuration configurations, PasswordComparator passwordComparator) {
             super(configurations, passwordComparator);
-            this.hashedSaltedPassword = hashedSaltedPassword;
         }
 
         @Override
-        HashedSaltedPassword getHashAndSalt(String hashedPassword) throws PasswordFormatException {
-            return hashedSaltedPassword;
+        HashedSaltedPassword getHashAndSalt(AuthenticatorSettings settings, String hashedPassword) throws PasswordFormatException {
+            return new HashedSaltedPassword(HASH, SALT);
         }
     }
 
-    class FileAuthenticatorForTest2 extends FileAuthenticator {
-
-        public HashedSaltedPassword hashedSaltedPassword;
+    static class FileAuthenticatorForTest2 extends FileAuthenticator {
 
-        public FileAuthenticatorForTest2(Configuration configurations, PasswordComparator passwordComparator, HashedSaltedPassword hashedSaltedPassword) {
+        public FileAuthenticatorForTest2(Configuration configurations, PasswordComparator passwordComparator) {
             super(configurations, passwordComparator);
-            this.hashedSaltedPassword = hashedSaltedPassword;
         }
 
         @Override
-        HashedSaltedPassword getHashAndSalt(String hashedPassword) throws PasswordFormatException {
+        HashedSaltedPassword getHashAndSalt(AuthenticatorSettings settings, String hashedPassword) throws PasswordFormatException {
             throw new PasswordFormatException("Wrong Format");
         }
     }
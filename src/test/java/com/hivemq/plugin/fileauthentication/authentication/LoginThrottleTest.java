@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.net.InetAddresses;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoginThrottleTest {
+
+    private static final Optional<InetAddress> IP1 = Optional.of(InetAddresses.forString("10.0.0.1"));
+    private static final Optional<InetAddress> IP2 = Optional.of(InetAddresses.forString("10.0.0.2"));
+
+    private FakeTicker ticker;
+
+    @Before
+    public void setUp() throws Exception {
+        ticker = new FakeTicker();
+    }
+
+    @Test
+    public void test_burst_per_user() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(100, 100, 1, 3, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertTrue(throttle.tryAcquire(IP2, "user", true));
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP2, "user", true));
+
+        assertTrue(throttle.tryAcquire(IP1, "other", true));
+    }
+
+    @Test
+    public void test_burst_per_ip() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 2, 100, 100, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user1", true));
+        assertTrue(throttle.tryAcquire(IP1, "user2", true));
+        assertFalse(throttle.tryAcquire(IP1, "user3", true));
+
+        assertTrue(throttle.tryAcquire(IP2, "user3", true));
+    }
+
+    @Test
+    public void test_refill() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(100, 100, 2, 1, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(499));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+    }
+
+    @Test
+    public void test_full_after_idle() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(100, 100, 1, 2, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+
+        ticker.advance(TimeUnit.HOURS.toNanos(1));
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+    }
+
+    @Test
+    public void test_without_ip() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 1, 100, 100, ticker);
+
+        assertTrue(throttle.tryAcquire(Optional.<InetAddress>absent(), "user", true));
+        assertTrue(throttle.tryAcquire(Optional.<InetAddress>absent(), "user", true));
+    }
+
+    @Test
+    public void test_denied_user_does_not_take_token_of_ip() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 2, 1, 1, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+
+        assertTrue(throttle.tryAcquire(IP1, "other", true));
+    }
+
+    @Test
+    public void test_denied_ip_does_not_take_token_of_user() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 1, 1, 2, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "other", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+
+        assertTrue(throttle.tryAcquire(IP2, "user", true));
+        assertTrue(throttle.tryAcquire(Optional.<InetAddress>absent(), "user", true));
+        assertFalse(throttle.tryAcquire(Optional.<InetAddress>absent(), "user", true));
+    }
+
+    @Test
+    public void test_unknown_users_only_limited_per_ip() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 3, 1, 1, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "unknown", false));
+        assertTrue(throttle.tryAcquire(IP1, "unknown", false));
+        assertTrue(throttle.tryAcquire(IP1, "unknown", false));
+        assertFalse(throttle.tryAcquire(IP1, "unknown", false));
+    }
+
+    @Test
+    public void test_many_users_do_not_refill_bucket() throws Exception {
+        final LoginThrottle throttle = new LoginThrottle(1, 1, 1, 1, ticker);
+
+        assertTrue(throttle.tryAcquire(IP1, "user", true));
+        for (int i = 0; i < 2 * LoginThrottle.BUCKETS; i++) {
+            throttle.tryAcquire(Optional.<InetAddress>absent(), "user" + i, true);
+        }
+
+        assertFalse(throttle.tryAcquire(IP1, "user", true));
+        assertFalse(throttle.tryAcquire(IP2, "user", true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_rate() throws Exception {
+        new LoginThrottle(0, 1, 1, 1, ticker);
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos = 1000;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(final long delta) {
+            nanos += delta;
+        }
+    }
+}
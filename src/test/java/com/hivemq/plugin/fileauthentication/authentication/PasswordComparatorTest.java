@@ -16,10 +16,16 @@
 
 package com.hivemq.plugin.fileauthentication.authentication;
 
+import com.google.common.base.Charsets;
 import com.hivemq.plugin.fileauthentication.util.HashSaltUtil;
+import org.bouncycastle.util.encoders.Base64;
+import org.bouncycastle.util.encoders.Hex;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -97,6 +103,30 @@ public class PasswordComparatorTest {
 
     }
 
+    @Test
+    public void test_validate_correct_saltedhashedpassword_bytes() throws Exception {
+        String saltedhashedString = "77+9L++/vX9f77+9fmnvv73vv70e77+9OR4377+9UFrvv71tHzY377+92aPvv71gFm/vv73PgUgo77+9Tg/vv73vv73vv70e77+977+9We+/vRPvv70i$A2ZYZMkEkdKxIZcLDd8JmzI2EvXf0CunM1mzzrZ8UE5ZklGSTQWCJgnPwx6Ja5gndH1uFCQ/naXN7uj91hvBOQ==";
+
+        final HashedSaltedPassword hashedSaltedPassword = HashSaltUtil.retrieve(true, "$", saltedhashedString);
+
+        final byte[] salt = HashSaltUtil.toSaltBytes(hashedSaltedPassword.getSalt());
+        final byte[] hash = Base64.decode(hashedSaltedPassword.getHash());
+
+        assertTrue(passwordComparator.validateHashedPassword("SHA-512", "password", hash, 1000000, salt));
+        assertFalse(passwordComparator.validateHashedPassword("SHA-512", "wrong", hash, 1000000, salt));
+    }
+
+    @Test
+    public void test_validate_correct_password_bytes() throws Exception {
+        final byte[] decoded = Base64.decode("wcPX9K84FBCni8IaS9wpmt37YRv5hncjJ7vYCRtJj9gFgMAGESZt8oGvZTBWkog3EIZX3lA7EcnM4/qY4uDpUqzkSj/SISUc");
+
+        final byte[] salt = Arrays.copyOf(decoded, 8);
+        final byte[] hash = Arrays.copyOfRange(decoded, 8, decoded.length);
+
+        assertTrue(passwordComparator.validateHashedPassword("SHA-512", "password", hash, 1000000, salt));
+        assertFalse(passwordComparator.validateHashedPassword("SHA-512", "wrong", hash, 1000000, salt));
+    }
+
     @Test
     public void test_validate_wrong_password() throws Exception {
         final boolean password = passwordComparator.validateHashedPassword("SHA-512", "wrong", "wcPX9K84FBCni8IaS9wpmt37YRv5hncjJ7vYCRtJj9gFgMAGESZt8oGvZTBWkog3EIZX3lA7EcnM4/qY4uDpUqzkSj/SISUc", 1000000);
@@ -113,6 +143,35 @@ public class PasswordComparatorTest {
 
     }
 
+    @Test
+    public void test_validate_pbkdf2_password() throws Exception {
+        // test vector of RFC 6070
+        final byte[] hash = Hex.decode("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957");
+        final byte[] salt = "salt".getBytes(Charsets.UTF_8);
+
+        assertTrue(passwordComparator.validateHashedPassword("PBKDF2WithHmacSHA1", "password", hash, 2, salt));
+        assertFalse(passwordComparator.validateHashedPassword("PBKDF2WithHmacSHA1", "wrong", hash, 2, salt));
+        assertFalse(passwordComparator.validateHashedPassword("PBKDF2WithHmacSHA1", "password", hash, 1, salt));
+    }
+
+    @Test
+    public void test_is_supported() throws Exception {
+        assertTrue(passwordComparator.isSupported("SHA-512"));
+        assertTrue(passwordComparator.isSupported("PBKDF2WithHmacSHA256"));
+        assertFalse(passwordComparator.isSupported("UNKNOWN"));
+        assertFalse(passwordComparator.isSupported("PBKDF2WithHmacUNKNOWN"));
+    }
+
+    @Test
+    public void test_pbkdf2_hash_has_length_of_prf_output() throws Exception {
+        final byte[] salt = {1, 2, 3, 4, 5, 6, 7, 8};
+
+        assertEquals(20, passwordComparator.createHash("PBKDF2WithHmacSHA1", "password", 2, salt).length);
+        assertEquals(32, passwordComparator.createHash("PBKDF2WithHmacSHA256", "password", 2, salt).length);
+        assertEquals(64, passwordComparator.createHash("PBKDF2WithHmacSHA512", "password", 2, salt).length);
+        assertEquals(64, passwordComparator.createHash("SHA-512", "password", 2, salt).length);
+    }
+
     @Test
     public void test_validate_correct_plaintext() throws Exception {
         String passwort1 = "p";
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.authentication;
+
+import com.google.common.collect.ImmutableSet;
+import com.hivemq.plugin.fileauthentication.configuration.CredentialStore;
+import com.hivemq.plugin.fileauthentication.util.KeyedDigest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VerifiedCredentialsTest {
+
+    private static final ParsedCredential CREDENTIAL = ParsedCredential.hashed("SHA-512", 100, new byte[]{1, 2, 3}, new byte[]{4, 5});
+
+    private KeyedDigest keyedDigest;
+    private VerifiedCredentials verifiedCredentials;
+
+    @Before
+    public void setUp() throws Exception {
+        keyedDigest = KeyedDigest.withRandomKey();
+        verifiedCredentials = new VerifiedCredentials(10);
+    }
+
+    @Test
+    public void test_same_password_and_credential_is_verified() throws Exception {
+        verifiedCredentials.put(key("user", "pw"), CREDENTIAL);
+
+        assertTrue(verifiedCredentials.isVerified(key("user", "pw"), CREDENTIAL));
+        assertTrue(verifiedCredentials.isVerified(key("user", "pw"),
+                ParsedCredential.hashed("SHA-512", 100, new byte[]{1, 2, 3}, new byte[]{4, 5})));
+    }
+
+    @Test
+    public void test_other_password_is_not_verified_but_kept() throws Exception {
+        verifiedCredentials.put(key("user", "pw"), CREDENTIAL);
+
+        assertFalse(verifiedCredentials.isVerified(key("user", "other"), CREDENTIAL));
+        assertFalse(verifiedCredentials.isVerified(key("other", "pw"), CREDENTIAL));
+        assertTrue(verifiedCredentials.isVerified(key("user", "pw"), CREDENTIAL));
+    }
+
+    @Test
+    public void test_changed_credential_drops_entry() throws Exception {
+        verifiedCredentials.put(key("user", "pw"), CREDENTIAL);
+
+        assertFalse(verifiedCredentials.isVerified(key("user", "pw"),
+                ParsedCredential.hashed("SHA-512", 101, new byte[]{1, 2, 3}, new byte[]{4, 5})));
+        assertEquals(0, verifiedCredentials.size());
+        assertFalse(verifiedCredentials.isVerified(key("user", "pw"), CREDENTIAL));
+    }
+
+    @Test
+    public void test_removed_user_drops_entry() throws Exception {
+        verifiedCredentials.put(key("user", "pw"), CREDENTIAL);
+
+        assertFalse(verifiedCredentials.isVerified(key("user", "pw"), null));
+        assertEquals(0, verifiedCredentials.size());
+    }
+
+    @Test
+    public void test_plaintext_credentials_are_not_remembered() throws Exception {
+        verifiedCredentials.put(key("user", "pw"), ParsedCredential.plaintext("pw"));
+
+        assertEquals(0, verifiedCredentials.size());
+    }
+
+    @Test
+    public void test_remove_outdated_keeps_unchanged_lines() throws Exception {
+        verifiedCredentials.put(key("same", "pw"), CREDENTIAL);
+        verifiedCredentials.put(key("changed", "pw"), CREDENTIAL);
+        verifiedCredentials.put(key("removed", "pw"), CREDENTIAL);
+        final CredentialIndex index = CredentialIndex.build(new CredentialStore.Builder()
+                .put("same", "same")
+                .put("changed", "changed")
+                .build(), new CredentialIndex.Parser() {
+            @Override
+            public ParsedCredential parse(final String username, final String value) {
+                return value.equals("same") ? CREDENTIAL : ParsedCredential.hashed("SHA-512", 100, new byte[]{9}, new byte[]{4, 5});
+            }
+        });
+
+        verifiedCredentials.removeOutdated(ImmutableSet.of("same", "changed", "removed"), index);
+
+        assertEquals(1, verifiedCredentials.size());
+        assertTrue(verifiedCredentials.isVerified(key("same", "pw"), CREDENTIAL));
+    }
+
+    @Test
+    public void test_version_depends_on_all_parameters() throws Exception {
+        final long version = VerifiedCredentials.version(CREDENTIAL);
+
+        assertEquals(version, VerifiedCredentials.version(ParsedCredential.hashed("SHA-512", 100, new byte[]{1, 2, 3}, new byte[]{4, 5})));
+        assertNotEquals(version, VerifiedCredentials.version(ParsedCredential.hashed("SHA-256", 100, new byte[]{1, 2, 3}, new byte[]{4, 5})));
+        assertNotEquals(version, VerifiedCredentials.version(ParsedCredential.hashed("SHA-512", 100, new byte[]{1, 2, 4}, new byte[]{4, 5})));
+        assertNotEquals(version, VerifiedCredentials.version(ParsedCredential.hashed("SHA-512", 100, new byte[]{1, 2, 3}, new byte[]{4, 6})));
+    }
+
+    private CredentialCacheKey key(final String username, final String password) {
+        return CredentialCacheKey.create(keyedDigest, username, password);
+    }
+}
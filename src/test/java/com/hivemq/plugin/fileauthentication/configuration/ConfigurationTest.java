@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConfigurationTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void test_reload_restarts_once() throws Exception {
+        final File file = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        final long oneHourAgo = System.currentTimeMillis() - 3600 * 1000;
+        Files.write("reloadOnFileChange.enabled=false\ncacheSize=100\n", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo);
+
+        final Configuration configuration = createConfiguration();
+        final Configuration.RestartListener listener = mock(Configuration.RestartListener.class);
+        configuration.setRestartListener(listener);
+
+        Files.write("reloadOnFileChange.enabled=false\ncacheSize=200\ncachingTime.seconds=30\nthrottling.enabled=true\n", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo + 1000);
+        configuration.reload();
+        verify(listener, times(1)).restart();
+
+        Files.write("reloadOnFileChange.enabled=false\ncacheSize=200\ncachingTime.seconds=30\nthrottling.enabled=true\nunknown=1\n", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo + 2000);
+        configuration.reload();
+        verify(listener, times(1)).restart();
+    }
+
+    @Test
+    public void test_reload_without_relevant_change_does_not_restart() throws Exception {
+        final File file = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        final long oneHourAgo = System.currentTimeMillis() - 3600 * 1000;
+        Files.write("reloadOnFileChange.enabled=false\n", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo);
+
+        final Configuration configuration = createConfiguration();
+        final Configuration.RestartListener listener = mock(Configuration.RestartListener.class);
+        configuration.setRestartListener(listener);
+
+        Files.write("reloadOnFileChange.enabled=false\nunknown=1\n", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo + 1000);
+        configuration.reload();
+        verify(listener, never()).restart();
+    }
+
+    @Test
+    public void test_rehash_on_login_requires_journal() throws Exception {
+        final File file = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("reloadOnFileChange.enabled=false\nrehashOnLogin.enabled=true\n", file, Charsets.UTF_8);
+        Files.write("user=password\n", temporaryFolder.newFile("credentials.properties"), Charsets.UTF_8);
+
+        final Configuration configuration = createConfiguration();
+        configuration.postConstruct();
+
+        assertNull(configuration.getPasswordUpdater());
+        assertFalse(configuration.isRehashOnLogin());
+    }
+
+    @Test
+    public void test_rehash_on_login_with_journal() throws Exception {
+        final File file = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("reloadOnFileChange.enabled=false\nrehashOnLogin.enabled=true\ncredentialsJournal.enabled=true\n", file, Charsets.UTF_8);
+        Files.write("user=password\n", temporaryFolder.newFile("credentials.properties"), Charsets.UTF_8);
+
+        final Configuration configuration = createConfiguration();
+        configuration.postConstruct();
+
+        assertNotNull(configuration.getPasswordUpdater());
+        assertTrue(configuration.isRehashOnLogin());
+    }
+
+    private Configuration createConfiguration() {
+        final SystemInformation systemInformation = mock(SystemInformation.class);
+        when(systemInformation.getConfigFolder()).thenReturn(temporaryFolder.getRoot());
+        return new Configuration(mock(PluginExecutorService.class), systemInformation);
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.FileSystems;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CredentialStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_get() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder()
+                .put("user", "password")
+                .put("üser", "pässword")
+                .put("empty", "")
+                .build();
+
+        assertEquals(3, store.size());
+        assertEquals("password", store.get("user"));
+        assertEquals("pässword", store.get("üser"));
+        assertEquals("", store.get("empty"));
+        assertNull(store.get("unknown"));
+        assertNull(CredentialStore.EMPTY.get("user"));
+    }
+
+    @Test
+    public void test_last_entry_wins() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder()
+                .put("user", "first")
+                .put("user", "second")
+                .build();
+
+        assertEquals(1, store.size());
+        assertEquals("second", store.get("user"));
+    }
+
+    @Test
+    public void test_many_users() throws Exception {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (int i = 0; i < 100000; i++) {
+            builder.put("user" + i, "password" + i);
+        }
+        final CredentialStore store = builder.build();
+
+        assertEquals(100000, store.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals("password" + i, store.get("user" + i));
+        }
+        assertNull(store.get("user100000"));
+    }
+
+    @Test
+    public void test_colliding_hash_codes() throws Exception {
+        // "Aa" and "BB" have the same String hash code
+        final CredentialStore store = new CredentialStore.Builder()
+                .put("Aa", "first")
+                .put("BB", "second")
+                .build();
+
+        assertEquals("first", store.get("Aa"));
+        assertEquals("second", store.get("BB"));
+    }
+
+    @Test
+    public void test_load_like_properties() throws Exception {
+        final String file = "# comment\n"
+                + "user1=password1\n"
+                + "user2 : password2\n"
+                + "user3 password3\n"
+                + "user\\ 4=pass\\\n    word4\n"
+                + "user5=\\u00e4\n"
+                + "user1=password6\n";
+
+        final Properties properties = new Properties();
+        properties.load(new StringReader(file));
+        final CredentialStore store = CredentialStore.load(new StringReader(file));
+
+        assertEquals(properties.size(), store.size());
+        assertEquals(Maps.fromProperties(properties), toMap(store));
+    }
+
+    @Test
+    public void test_equals_and_hash_code() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder().put("a", "1").put("b", "2").build();
+        final CredentialStore sameContent = new CredentialStore.Builder().put("b", "2").put("a", "1").build();
+        final CredentialStore other = new CredentialStore.Builder().put("a", "1").put("b", "3").build();
+
+        assertEquals(store, sameContent);
+        assertEquals(store.hashCode(), sameContent.hashCode());
+        assertEquals(toMap(store).hashCode(), store.hashCode());
+        assertNotEquals(store, other);
+    }
+
+    @Test
+    public void test_changed_usernames() throws Exception {
+        final CredentialStore before = new CredentialStore.Builder().put("a", "1").put("b", "2").put("c", "3").put("Aa", "4").build();
+        // "Aa" and "BB" have the same String hash code
+        final CredentialStore after = new CredentialStore.Builder().put("a", "1").put("b", "22").put("BB", "4").put("Aa", "4").put("d", "5").build();
+
+        assertEquals(ImmutableSet.of("b", "c", "BB", "d"), after.changedUsernames(before));
+        assertEquals(ImmutableSet.of("b", "c", "BB", "d"), before.changedUsernames(after));
+        assertTrue(after.changedUsernames(after).isEmpty());
+    }
+
+    @Test
+    public void test_with_changes() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder().put("a", "1").put("b", "2").build();
+        final CredentialStore changed = store.withChanges(ImmutableMap.of(
+                "a", Optional.<String>absent(), "b", Optional.of("22"), "c", Optional.of("3"), "d", Optional.<String>absent()));
+
+        assertEquals(2, changed.size());
+        assertNull(changed.get("a"));
+        assertEquals("22", changed.get("b"));
+        assertEquals(ImmutableMap.of("b", "22", "c", "3"), toMap(changed));
+        assertEquals(ImmutableSet.of("a", "b", "c"), changed.changedUsernames(store));
+        assertEquals(changed, changed.compact());
+        assertEquals("1", store.get("a"));
+    }
+
+    @Test
+    public void test_changed_usernames_with_overlays() throws Exception {
+        final CredentialStore file = new CredentialStore.Builder().put("a", "1").put("b", "2").put("c", "3").build();
+        final CredentialStore journaled = file.withChanges(ImmutableMap.of(
+                "b", Optional.of("22"), "c", Optional.<String>absent(), "d", Optional.of("4")));
+        final CredentialStore compacted = new CredentialStore.Builder().put("a", "1").put("b", "22").put("d", "4").build();
+
+        assertTrue(compacted.changedUsernames(journaled).isEmpty());
+        assertTrue(journaled.changedUsernames(compacted).isEmpty());
+        assertEquals(ImmutableSet.of("b", "c", "d"), journaled.changedUsernames(file));
+
+        final CredentialStore edited = new CredentialStore.Builder().put("a", "11").put("b", "2").put("e", "5").build()
+                .withChanges(ImmutableMap.of("b", Optional.of("22"), "d", Optional.of("4")));
+        assertEquals(ImmutableSet.of("a", "e"), edited.changedUsernames(journaled));
+        assertEquals(ImmutableSet.of("a", "e"), journaled.changedUsernames(edited));
+    }
+
+    @Test
+    public void test_off_heap() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder().put("a", "1").put("b", "2").build();
+        final CredentialStore offHeap = store.toOffHeap();
+
+        assertFalse(store.isOffHeap());
+        assertTrue(offHeap.isOffHeap());
+        assertEquals(store, offHeap);
+        assertTrue(offHeap.changedUsernames(store).isEmpty());
+        assertEquals("2", offHeap.get("b"));
+    }
+
+    @Test
+    public void test_binary_values() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder()
+                .putBytes("a", new byte[]{0, -1, 2})
+                .putBytes("b", new byte[0])
+                .build(true);
+
+        assertTrue(store.isOffHeap());
+        assertArrayEquals(new byte[]{0, -1, 2}, store.getBytes("a"));
+        assertArrayEquals(new byte[0], store.getBytes("b"));
+        assertNull(store.getBytes("c"));
+    }
+
+    @Test
+    public void test_write_properties() throws Exception {
+        final CredentialStore store = new CredentialStore.Builder()
+                .put("user name", " pass=word:#!")
+                .put("\u00fcser", "\t\\\u20ac")
+                .build();
+        final File file = folder.newFile("credentials.properties");
+
+        store.writePropertiesTo(file);
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newReader(file, Charsets.ISO_8859_1)) {
+            properties.load(reader);
+        }
+        assertEquals(toMap(store), Maps.fromProperties(properties));
+    }
+
+    @Test
+    public void test_write_keeps_permissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        final CredentialStore store = new CredentialStore.Builder().put("user", "password").build();
+        final File properties = folder.newFile("credentials.properties");
+        final File compiled = folder.newFile("credentials.bin");
+        java.nio.file.Files.setPosixFilePermissions(properties.toPath(), PosixFilePermissions.fromString("rw-------"));
+        java.nio.file.Files.setPosixFilePermissions(compiled.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+
+        store.writePropertiesTo(properties);
+        store.writeTo(compiled);
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), java.nio.file.Files.getPosixFilePermissions(properties.toPath()));
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"), java.nio.file.Files.getPosixFilePermissions(compiled.toPath()));
+    }
+
+    @Test
+    public void test_new_file_is_only_readable_by_owner() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        final File file = new File(folder.getRoot(), "credentials.bin");
+
+        new CredentialStore.Builder().put("user", "password").build().writeTo(file);
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), java.nio.file.Files.getPosixFilePermissions(file.toPath()));
+    }
+
+    @Test
+    public void test_write_and_map() throws Exception {
+        final CredentialStore.Builder builder = new CredentialStore.Builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.put("user" + i, "password" + i);
+        }
+        final CredentialStore store = builder.build();
+        final File file = new File(folder.getRoot(), "credentials.bin");
+
+        store.writeTo(file);
+        final CredentialStore mapped = CredentialStore.map(file);
+
+        assertFalse(store.isMapped());
+        assertTrue(mapped.isMapped());
+        assertEquals(1000, mapped.size());
+        assertEquals("password999", mapped.get("user999"));
+        assertNull(mapped.get("user1000"));
+        assertEquals(store, mapped);
+    }
+
+    @Test
+    public void test_replace_mapped_file() throws Exception {
+        final File file = new File(folder.getRoot(), "credentials.bin");
+        new CredentialStore.Builder().put("user", "first").build().writeTo(file);
+        final CredentialStore first = CredentialStore.map(file);
+
+        new CredentialStore.Builder().put("user", "second").build().writeTo(file);
+
+        assertEquals("first", first.get("user"));
+        assertEquals("second", CredentialStore.map(file).get("user"));
+    }
+
+    @Test
+    public void test_fingerprint_of_decoded_values_kept_in_file() throws Exception {
+        final File file = new File(folder.getRoot(), "credentials.bin");
+        new CredentialStore.Builder().decodedWith(42).putBytes("user", new byte[]{1, 2}).build().writeTo(file);
+        final CredentialStore mapped = CredentialStore.map(file);
+
+        assertTrue(mapped.isDecoded());
+        assertEquals(42, mapped.getFingerprint());
+        assertArrayEquals(new byte[]{1, 2}, mapped.getBytes("user"));
+        assertFalse(new CredentialStore.Builder().put("user", "password").build().isDecoded());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_decoded_values_not_changed() throws Exception {
+        new CredentialStore.Builder().decodedWith(42).putBytes("user", new byte[]{1, 2}).build()
+                .withChanges(ImmutableMap.of("user", Optional.of("password")));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_map_properties_file() throws Exception {
+        final File file = folder.newFile("credentials.properties");
+        Files.write("user=password\n", file, Charsets.UTF_8);
+
+        CredentialStore.map(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_map_truncated_file() throws Exception {
+        final File file = new File(folder.getRoot(), "credentials.bin");
+        new CredentialStore.Builder().put("user", "password").build().writeTo(file);
+        final byte[] content = Files.toByteArray(file);
+        Files.write(java.util.Arrays.copyOf(content, content.length - 1), file);
+
+        CredentialStore.map(file);
+    }
+
+    private static Map<String, String> toMap(final CredentialStore store) {
+        final Map<String, String> map = Maps.newHashMap();
+        for (Map.Entry<String, String> entry : store) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
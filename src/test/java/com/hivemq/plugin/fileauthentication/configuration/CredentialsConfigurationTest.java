@@ -4,9 +4,11 @@ import com.google.common.base.Optional;
 import com.hivemq.plugin.fileauthentication.authentication.FileAuthenticator;
 import com.hivemq.plugin.fileauthentication.authentication.PasswordComparator;
 import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
+import com.hivemq.plugin.fileauthentication.util.CredentialsCompiler;
 import com.hivemq.spi.config.SystemInformation;
 import com.hivemq.spi.security.ClientCredentialsData;
 import com.hivemq.spi.services.PluginExecutorService;
+import com.google.common.collect.ImmutableSet;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -19,7 +21,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.net.InetAddress;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -65,14 +70,14 @@ public class CredentialsConfigurationTest {
             CredentialsConfiguration credentialsConfiguration = new CredentialsConfiguration(pluginExecutorService, credentialsFile.getAbsolutePath(), 1, systemInformation);
             credentialsConfiguration.init();
 
-            int hashBefore = credentialsConfiguration.hashCode();
+            CredentialStore credentialsBefore = credentialsConfiguration.getCredentials();
 
             Properties propertiesBefore = (Properties) credentialsConfiguration.getProperties().clone();
             out.write("testUser2 = testpw");
             out.flush();
             credentialsConfiguration.reload();
-            int hashAfter = credentialsConfiguration.hashCode();
-            assertTrue(hashBefore != hashAfter);
+            assertFalse(credentialsBefore.equals(credentialsConfiguration.getCredentials()));
+            assertEquals(ImmutableSet.of("testUser2"), credentialsConfiguration.getCredentials().changedUsernames(credentialsBefore));
             assertFalse(credentialsConfiguration.getProperties().equals(propertiesBefore));
         }
     }
@@ -98,10 +103,9 @@ public class CredentialsConfigurationTest {
             when(clientCredentialsData.getInetAddress()).thenReturn(Optional.of(InetAddress.getLoopbackAddress()));
             Whitebox.setInternalState(configuration, "credentialsConfiguration", credentialsConfiguration);
 
+            configuration.getProperties().setProperty("passwordHashing.enabled", "false");//otherwise hashing is active
             FileAuthenticator fileAuthenticator = new FileAuthenticator(configuration, new PasswordComparator());
 
-            Whitebox.setInternalState(fileAuthenticator, "isHashed", false);//otherwise hashing is active
-
             credentialsConfiguration.reload();
             Boolean isAuthenticated = fileAuthenticator.checkCredentials(clientCredentialsData);
             assertFalse(isAuthenticated);
@@ -119,12 +123,74 @@ public class CredentialsConfigurationTest {
     }
 
 
+    @Test
+    public void credentialChange_only_changed_users_reported() throws Exception {
+        File credentialsFile = temporaryFolder.newFile();
+        try (FileWriter out = new FileWriter(credentialsFile, false)) {
+            out.write("a=1\nb=2\nc=3\n");
+        }
+
+        CredentialsConfiguration credentialsConfiguration = new CredentialsConfiguration(pluginExecutorService, credentialsFile.getAbsolutePath(), 1, systemInformation);
+        credentialsConfiguration.init();
+
+        final AtomicReference<Set<String>> changed = new AtomicReference<>();
+        credentialsConfiguration.addCallback(new CredentialChangeCallback() {
+            @Override
+            public void onCredentialChange(final Set<String> changedUsernames) {
+                changed.set(changedUsernames);
+            }
+        });
+
+        credentialsConfiguration.reload();
+        assertNull(changed.get());
+
+        try (FileWriter out = new FileWriter(credentialsFile, false)) {
+            out.write("a=1\nb=22\nd=4\n");
+        }
+        credentialsConfiguration.reload();
+
+        assertEquals(ImmutableSet.of("b", "c", "d"), changed.get());
+    }
+
+    @Test
+    public void compiled_credentials_mapped_and_reloaded() throws Exception {
+        final File source = temporaryFolder.newFile();
+        final File compiled = new File(temporaryFolder.getRoot(), "credentials.bin");
+        try (FileWriter out = new FileWriter(source, false)) {
+            out.write("a=1\nb=2\n");
+        }
+        CredentialsCompiler.compile(source, compiled);
+
+        CredentialsConfiguration credentialsConfiguration = new CredentialsConfiguration(pluginExecutorService, compiled.getAbsolutePath(), 1, false, true, systemInformation);
+        credentialsConfiguration.init();
+
+        final AtomicReference<Set<String>> changed = new AtomicReference<>();
+        credentialsConfiguration.addCallback(new CredentialChangeCallback() {
+            @Override
+            public void onCredentialChange(final Set<String> changedUsernames) {
+                changed.set(changedUsernames);
+            }
+        });
+
+        assertTrue(credentialsConfiguration.getCredentials().isMapped());
+        assertEquals("1", credentialsConfiguration.getUser("a"));
+
+        try (FileWriter out = new FileWriter(source, false)) {
+            out.write("a=1\nb=3\n");
+        }
+        CredentialsCompiler.compile(source, compiled);
+        credentialsConfiguration.reload();
+
+        assertEquals("3", credentialsConfiguration.getUser("b"));
+        assertEquals(ImmutableSet.of("b"), changed.get());
+    }
+
     @Test
     public void add_callback_test_success() throws Exception {
 
         CredentialChangeCallback callback = new CredentialChangeCallback() {
             @Override
-            public void onCredentialChange() {
+            public void onCredentialChange(final Set<String> changedUsernames) {
             }
         };
         Boolean ret = credentialsConfiguration.addCallback(callback);
@@ -136,7 +202,7 @@ public class CredentialsConfigurationTest {
 
         CredentialChangeCallback callback = new CredentialChangeCallback() {
             @Override
-            public void onCredentialChange() {
+            public void onCredentialChange(final Set<String> changedUsernames) {
 
             }
         };
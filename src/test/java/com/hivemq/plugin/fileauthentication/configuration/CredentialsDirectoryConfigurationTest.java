@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+public class CredentialsDirectoryConfigurationTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    PluginExecutorService pluginExecutorService;
+
+    @Mock
+    SystemInformation systemInformation;
+
+    private File directory;
+    private CredentialsDirectoryConfiguration credentialsConfiguration;
+    private final AtomicReference<Set<String>> changed = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(systemInformation.getConfigFolder()).thenReturn(temporaryFolder.getRoot());
+        directory = temporaryFolder.newFolder("credentials.d");
+
+        write("tenant1.properties", "a=1\nb=2\n");
+        write("tenant2.properties", "c=3\nd=4\n");
+        write("readme.txt", "e=5\n");
+
+        credentialsConfiguration = new CredentialsDirectoryConfiguration(pluginExecutorService, "credentials.d", 10, false, systemInformation);
+        credentialsConfiguration.init();
+        credentialsConfiguration.addCallback(new CredentialChangeCallback() {
+            @Override
+            public void onCredentialChange(final Set<String> changedUsernames) {
+                changed.set(changedUsernames);
+            }
+        });
+    }
+
+    @Test
+    public void test_all_shards_loaded() throws Exception {
+        assertEquals(4, credentialsConfiguration.getCredentials().size());
+        assertEquals("1", credentialsConfiguration.getUser("a"));
+        assertEquals("4", credentialsConfiguration.getUser("d"));
+        assertNull(credentialsConfiguration.getUser("e"));
+    }
+
+    @Test
+    public void test_unchanged_shards_not_reported() throws Exception {
+        credentialsConfiguration.reload();
+
+        assertNull(changed.get());
+    }
+
+    @Test
+    public void test_only_users_of_changed_shard_reported() throws Exception {
+        write("tenant2.properties", "c=3\nd=44\nf=6\n");
+        credentialsConfiguration.reload();
+
+        assertEquals(ImmutableSet.of("d", "f"), changed.get());
+        assertEquals("44", credentialsConfiguration.getUser("d"));
+        assertEquals("1", credentialsConfiguration.getUser("a"));
+        assertEquals(5, credentialsConfiguration.getCredentials().size());
+        // applied as overlay instead of merging all shards
+        assertEquals(2, credentialsConfiguration.getCredentials().overlaySize());
+    }
+
+    @Test
+    public void test_large_shard_change_compacts_overlay() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i <= CredentialStore.MAX_OVERLAY_SIZE; i++) {
+            content.append("user").append(i).append("=password").append(i).append('\n');
+        }
+        write("tenant3.properties", content.toString());
+        credentialsConfiguration.reload();
+
+        assertEquals(CredentialStore.MAX_OVERLAY_SIZE + 1, changed.get().size());
+        assertEquals(CredentialStore.MAX_OVERLAY_SIZE + 5, credentialsConfiguration.getCredentials().size());
+        assertEquals(0, credentialsConfiguration.getCredentials().overlaySize());
+        assertEquals("password7", credentialsConfiguration.getUser("user7"));
+    }
+
+    @Test
+    public void test_added_and_removed_shards_reported() throws Exception {
+        write("tenant3.properties", "g=7\n");
+        assertEquals(true, new File(directory, "tenant1.properties").delete());
+        credentialsConfiguration.reload();
+
+        assertEquals(ImmutableSet.of("a", "b", "g"), changed.get());
+        assertNull(credentialsConfiguration.getUser("a"));
+        assertEquals("7", credentialsConfiguration.getUser("g"));
+        assertEquals(3, credentialsConfiguration.getCredentials().size());
+    }
+
+    @Test
+    public void test_last_shard_wins_for_duplicate_users() throws Exception {
+        write("tenant3.properties", "a=override\n");
+        credentialsConfiguration.reload();
+
+        assertEquals("override", credentialsConfiguration.getUser("a"));
+    }
+
+    @Test
+    public void test_change_of_overridden_user_not_reported() throws Exception {
+        write("tenant3.properties", "a=override\n");
+        credentialsConfiguration.reload();
+        changed.set(null);
+
+        write("tenant1.properties", "a=changed\nb=2\n");
+        credentialsConfiguration.reload();
+
+        assertNull(changed.get());
+        assertEquals("override", credentialsConfiguration.getUser("a"));
+
+        assertEquals(true, new File(directory, "tenant3.properties").delete());
+        credentialsConfiguration.reload();
+
+        assertEquals(ImmutableSet.of("a"), changed.get());
+        assertEquals("changed", credentialsConfiguration.getUser("a"));
+        assertEquals(4, credentialsConfiguration.getCredentials().size());
+    }
+
+    private void write(final String filename, final String content) throws Exception {
+        Files.write(content, new File(directory, filename), Charsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class CredentialsFileLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int minChunkSize;
+
+    @Before
+    public void setUp() throws Exception {
+        minChunkSize = CredentialsFileLoader.minChunkSize;
+        CredentialsFileLoader.minChunkSize = 16;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CredentialsFileLoader.minChunkSize = minChunkSize;
+    }
+
+    @Test
+    public void test_parallel_load_like_properties() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("user").append(i).append("=password").append(i).append('\n');
+            if (i % 7 == 0) {
+                content.append("continued").append(i).append("=first\\\n   second\\\\\\\n  third\r\n");
+            }
+            if (i % 11 == 0) {
+                content.append("# comment ending with backslash \\\n");
+                content.append("escaped\\ user").append(i).append(" : pass\\=word\\\\\n");
+            }
+            if (i % 13 == 0) {
+                content.append("user0=changed").append(i).append('\n');
+            }
+        }
+        content.append("last=without newline");
+
+        final File file = folder.newFile();
+        Files.write(content, file, Charset.defaultCharset());
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newReader(file, Charset.defaultCharset())) {
+            properties.load(reader);
+        }
+
+        assertEquals(Maps.fromProperties(properties), toMap(CredentialsFileLoader.load(file, 4)));
+        assertEquals(Maps.fromProperties(properties), toMap(CredentialsFileLoader.load(file, 1)));
+    }
+
+    @Test
+    public void test_next_line_start() throws Exception {
+        final ByteBuffer content = ByteBuffer.wrap("a=1\\\nb\\\\\r\nc=3\n".getBytes(Charsets.UTF_8));
+
+        assertEquals(10, CredentialsFileLoader.nextLineStart(content, 0));
+        assertEquals(14, CredentialsFileLoader.nextLineStart(content, 10));
+        assertEquals(14, CredentialsFileLoader.nextLineStart(content, 14));
+    }
+
+    private static Map<String, String> toMap(final CredentialStore store) {
+        final Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, String> entry : store) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FileStateTest {
+
+    private static final long ONE_HOUR_AGO = System.currentTimeMillis() - 3600 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("credentials.properties");
+        write("user=password");
+    }
+
+    @Test
+    public void test_unchanged_file_is_not_read() throws Exception {
+        final FileState state = FileState.read(file);
+
+        assertSame(state, state.refresh(file));
+    }
+
+    @Test
+    public void test_touched_file_has_same_content() throws Exception {
+        final FileState state = FileState.read(file);
+        assertTrue(file.setLastModified(ONE_HOUR_AGO + 1000));
+
+        final FileState refreshed = state.refresh(file);
+
+        assertNotSame(state, refreshed);
+        assertTrue(state.hasSameContent(refreshed));
+        assertSame(refreshed, refreshed.refresh(file));
+    }
+
+    @Test
+    public void test_changed_content() throws Exception {
+        final FileState state = FileState.read(file);
+        write("user=drowssap");
+        assertTrue(file.setLastModified(ONE_HOUR_AGO + 1000));
+
+        assertFalse(state.hasSameContent(state.refresh(file)));
+    }
+
+    @Test
+    public void test_recently_modified_file_is_read_again() throws Exception {
+        file.setLastModified(System.currentTimeMillis());
+        final FileState state = FileState.read(file);
+        final long lastModified = file.lastModified();
+
+        // same size and modification time
+        write("user=drowssap");
+        assertTrue(file.setLastModified(lastModified));
+
+        assertFalse(state.hasSameContent(state.refresh(file)));
+    }
+
+    private void write(final String content) throws Exception {
+        Files.write(content, file, Charsets.UTF_8);
+        assertTrue(file.setLastModified(ONE_HOUR_AGO));
+    }
+}
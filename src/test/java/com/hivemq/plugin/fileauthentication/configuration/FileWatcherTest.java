@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.mock;
+
+public class FileWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ListeningScheduledExecutorService executorService;
+    private PluginExecutorService pluginExecutorService;
+    private File file;
+    private FileWatcher watcher;
+
+    private final AtomicInteger changes = new AtomicInteger();
+    private CountDownLatch changed;
+
+    @Before
+    public void setUp() throws Exception {
+        executorService = MoreExecutors.listeningDecorator(Executors.newSingleThreadScheduledExecutor());
+        pluginExecutorService = mock(PluginExecutorService.class, delegatesTo(executorService));
+        file = folder.newFile("credentials.properties");
+        changed = new CountDownLatch(1);
+
+        final Optional<FileWatcher> started = FileWatcher.start(file, pluginExecutorService, new Runnable() {
+            @Override
+            public void run() {
+                changes.incrementAndGet();
+                changed.countDown();
+            }
+        });
+        assertTrue(started.isPresent());
+        watcher = started.get();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        watcher.close();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void test_burst_of_writes_is_debounced() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Files.write("user=password" + i, file, Charsets.UTF_8);
+        }
+
+        assertTrue(changed.await(30, TimeUnit.SECONDS));
+        Thread.sleep(2 * FileWatcher.DEBOUNCE_MILLIS);
+        assertTrue(changes.get() < 5);
+    }
+
+    @Test
+    public void test_atomic_rename_is_detected() throws Exception {
+        final File temporary = new File(folder.getRoot(), "credentials.properties.tmp");
+        Files.write("user=password", temporary, Charsets.UTF_8);
+
+        java.nio.file.Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        assertTrue(changed.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_other_files_are_ignored() throws Exception {
+        Files.write("user=password", new File(folder.getRoot(), "other.properties"), Charsets.UTF_8);
+
+        assertFalse(changed.await(4 * FileWatcher.DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, changes.get());
+    }
+
+    @Test
+    public void test_folder_reports_matching_files() throws Exception {
+        final File shards = folder.newFolder("credentials.d");
+        final CountDownLatch shardChanged = new CountDownLatch(1);
+        final FileWatcher folderWatcher = FileWatcher.startFolder(shards, ".properties", pluginExecutorService, new Runnable() {
+            @Override
+            public void run() {
+                shardChanged.countDown();
+            }
+        }).get();
+
+        try {
+            Files.write("user=password", new File(shards, "readme.txt"), Charsets.UTF_8);
+            assertFalse(shardChanged.await(4 * FileWatcher.DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS));
+
+            Files.write("user=password", new File(shards, "tenant.properties"), Charsets.UTF_8);
+            assertTrue(shardChanged.await(30, TimeUnit.SECONDS));
+        } finally {
+            folderWatcher.close();
+        }
+    }
+
+    @Test
+    public void test_watchers_of_same_folder_share_watch_service() throws Exception {
+        final File journal = folder.newFile("credentials.properties.journal");
+        final CountDownLatch journalChanged = new CountDownLatch(1);
+        final FileWatcher journalWatcher = FileWatcher.start(journal, pluginExecutorService, new Runnable() {
+            @Override
+            public void run() {
+                journalChanged.countDown();
+            }
+        }).get();
+
+        try {
+            Files.write("user=password", journal, Charsets.UTF_8);
+            assertTrue(journalChanged.await(30, TimeUnit.SECONDS));
+
+            Files.write("user=password", file, Charsets.UTF_8);
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+        } finally {
+            journalWatcher.close();
+        }
+    }
+
+    @Test
+    public void test_closing_one_watcher_keeps_other_watchers_of_folder() throws Exception {
+        final File journal = folder.newFile("credentials.properties.journal");
+        final FileWatcher journalWatcher = FileWatcher.start(journal, pluginExecutorService, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        journalWatcher.close();
+
+        assertFalse(journalWatcher.isHealthy());
+        assertTrue(watcher.isHealthy());
+
+        Files.write("user=password", file, Charsets.UTF_8);
+        assertTrue(changed.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_polls_only_in_fallback_interval_while_healthy() throws Exception {
+        final AtomicLong nanos = new AtomicLong();
+        final Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        final AtomicInteger polls = new AtomicInteger();
+        final Runnable poll = watcher.pollWhenUnhealthy(new Runnable() {
+            @Override
+            public void run() {
+                polls.incrementAndGet();
+            }
+        }, 300, ticker);
+
+        nanos.set(TimeUnit.SECONDS.toNanos(10));
+        poll.run();
+        assertEquals(0, polls.get());
+
+        nanos.set(TimeUnit.SECONDS.toNanos(300));
+        poll.run();
+        assertEquals(1, polls.get());
+
+        nanos.set(TimeUnit.SECONDS.toNanos(310));
+        poll.run();
+        assertEquals(1, polls.get());
+
+        watcher.close();
+        poll.run();
+        assertEquals(2, polls.get());
+    }
+}
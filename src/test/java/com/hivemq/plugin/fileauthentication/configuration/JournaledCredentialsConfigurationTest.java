@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.configuration;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.hivemq.plugin.fileauthentication.authentication.CredentialDecoder;
+import com.hivemq.plugin.fileauthentication.callback.CredentialChangeCallback;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+public class JournaledCredentialsConfigurationTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    PluginExecutorService pluginExecutorService;
+
+    @Mock
+    SystemInformation systemInformation;
+
+    private File file;
+    private File journal;
+    private JournaledCredentialsConfiguration credentialsConfiguration;
+    private final AtomicReference<Set<String>> changed = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(systemInformation.getConfigFolder()).thenReturn(temporaryFolder.getRoot());
+        file = new File(temporaryFolder.getRoot(), "credentials.properties");
+        journal = new File(temporaryFolder.getRoot(), "credentials.properties" + JournaledCredentialsConfiguration.JOURNAL_SUFFIX);
+
+        Files.write("a=1\nb=2\n", file, Charsets.UTF_8);
+        Files.write("add c=3\n", journal, Charsets.UTF_8);
+
+        credentialsConfiguration = new JournaledCredentialsConfiguration(pluginExecutorService, "credentials.properties", 10, false, false, 300, systemInformation);
+        credentialsConfiguration.init();
+        credentialsConfiguration.addCallback(new CredentialChangeCallback() {
+            @Override
+            public void onCredentialChange(final Set<String> changedUsernames) {
+                changed.set(changedUsernames);
+            }
+        });
+    }
+
+    @Test
+    public void test_journal_applied_on_startup() throws Exception {
+        assertEquals(3, credentialsConfiguration.getCredentials().size());
+        assertEquals("3", credentialsConfiguration.getUser("c"));
+    }
+
+    @Test
+    public void test_only_users_of_new_records_reported() throws Exception {
+        Files.append("update a=11\ndelete b\nadd c=3\nadd d=4", journal, Charsets.UTF_8);
+        credentialsConfiguration.applyJournal();
+
+        assertEquals(ImmutableSet.of("a", "b"), changed.get());
+        assertEquals("11", credentialsConfiguration.getUser("a"));
+        assertNull(credentialsConfiguration.getUser("b"));
+        assertNull("incomplete line", credentialsConfiguration.getUser("d"));
+
+        Files.append("\n", journal, Charsets.UTF_8);
+        credentialsConfiguration.applyJournal();
+
+        assertEquals(ImmutableSet.of("d"), changed.get());
+        assertEquals(3, credentialsConfiguration.getCredentials().size());
+    }
+
+    @Test
+    public void test_password_updates_appended_to_journal() throws Exception {
+        Files.append("update a=11", journal, Charsets.UTF_8);
+
+        final Set<String> updated = credentialsConfiguration.updatePasswords(ImmutableList.of(
+                new PasswordUpdate("b", "2", "new pass=word"),
+                new PasswordUpdate("c", "outdated", "33")));
+
+        assertEquals(ImmutableSet.of("b"), updated);
+        assertEquals(ImmutableSet.of("a", "b"), changed.get());
+        assertEquals("11", credentialsConfiguration.getUser("a"));
+        assertEquals("new pass=word", credentialsConfiguration.getUser("b"));
+        assertEquals("3", credentialsConfiguration.getUser("c"));
+        assertEquals("add c=3\nupdate a=11\nupdate b=new pass\\=word\n", Files.toString(journal, Charsets.UTF_8));
+    }
+
+    @Test
+    public void test_trailing_whitespace_of_password_kept() throws Exception {
+        credentialsConfiguration.updatePasswords(ImmutableList.of(new PasswordUpdate("a", "1", "secret ")));
+        Files.append("  update d=4\t\n", journal, Charsets.UTF_8);
+        credentialsConfiguration.applyJournal();
+
+        assertEquals("secret ", credentialsConfiguration.getUser("a"));
+        assertEquals("4\t", credentialsConfiguration.getUser("d"));
+
+        credentialsConfiguration.replaceCredentials(CredentialStore.load(new StringReader("a=1\nb=2\n")));
+        assertEquals("secret ", credentialsConfiguration.getUser("a"));
+    }
+
+    @Test
+    public void test_compaction_writes_credentials_file() throws Exception {
+        Files.append("delete a\nadd user\\ name=pass\\=word\n", journal, Charsets.UTF_8);
+        credentialsConfiguration.compact();
+
+        assertEquals(0, journal.length());
+        assertEquals(ImmutableSet.of("a", "user name"), changed.get());
+
+        try (Reader reader = new FileReader(file)) {
+            final CredentialStore compacted = CredentialStore.load(reader);
+            assertEquals(credentialsConfiguration.getCredentials(), compacted);
+            assertEquals("pass=word", compacted.get("user name"));
+        }
+
+        changed.set(null);
+        final CredentialStore credentials = credentialsConfiguration.getCredentials();
+        credentialsConfiguration.reload();
+        assertNull(changed.get());
+        assertSame("compacted file is not loaded again", credentials, credentialsConfiguration.getCredentials());
+    }
+
+    @Test
+    public void test_compaction_keeps_layout_of_credentials_file() throws Exception {
+        Files.write("# operators\na = 1\n\n# devices\nb=2\\\n  2\nb=22\ne=5", file, Charsets.UTF_8);
+        credentialsConfiguration.reload();
+        Files.append("delete e\nupdate b=3\nadd d=4\n", journal, Charsets.UTF_8);
+        credentialsConfiguration.compact();
+
+        final String content = Files.toString(file, Charsets.UTF_8);
+        assertTrue(content, content.startsWith("# operators\na = 1\n\n# devices\nb=3\n"));
+        try (Reader reader = new FileReader(file)) {
+            assertEquals(new CredentialStore.Builder().put("a", "1").put("b", "3").put("c", "3").put("d", "4").build(),
+                    CredentialStore.load(reader));
+        }
+    }
+
+    @Test
+    public void test_journal_applied_again_after_file_reload() throws Exception {
+        Files.write("a=1\nb=22\n", file, Charsets.UTF_8);
+        credentialsConfiguration.reload();
+
+        assertEquals(ImmutableSet.of("b"), changed.get());
+        assertEquals("3", credentialsConfiguration.getUser("c"));
+    }
+
+    @Test
+    public void test_compiled_file_with_decoded_passwords_rejected() throws Exception {
+        final File compiled = new File(temporaryFolder.getRoot(), "credentials.bin");
+        new CredentialDecoder(true, true, true, "$", "SHA-512", 100)
+                .compile(CredentialStore.load(new StringReader("a=c2FsdA==$aGFzaA==\n"))).writeTo(compiled);
+
+        final JournaledCredentialsConfiguration compiledConfiguration = new JournaledCredentialsConfiguration(
+                pluginExecutorService, "credentials.bin", 10, false, true, 300, systemInformation);
+        compiledConfiguration.init();
+
+        assertEquals(0, compiledConfiguration.getCredentials().size());
+    }
+}
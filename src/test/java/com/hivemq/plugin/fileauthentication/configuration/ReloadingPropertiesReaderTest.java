@@ -1,11 +1,18 @@
 package com.hivemq.plugin.fileauthentication.configuration;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.MapDifference;
+import com.google.common.io.Files;
+import com.hivemq.spi.config.SystemInformation;
+import com.hivemq.spi.services.PluginExecutorService;
 import junit.framework.TestCase;
 
+import java.io.File;
 import java.io.FileReader;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * @author Lukas Brandl
@@ -19,12 +26,52 @@ public class ReloadingPropertiesReaderTest extends TestCase {
         verify(fileReader).close();
     }
 
+    public void test_reload_only_changed_file() throws Exception {
+        final File folder = Files.createTempDir();
+        final File file = new File(folder, "Test");
+        final long oneHourAgo = System.currentTimeMillis() - 3600 * 1000;
+        Files.write("key=value", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo);
+
+        final SystemInformation systemInformation = mock(SystemInformation.class);
+        when(systemInformation.getConfigFolder()).thenReturn(folder);
+        final TestReloadingPropertiesReader reader = new TestReloadingPropertiesReader(mock(PluginExecutorService.class), systemInformation);
+        reader.init();
+
+        reader.reload();
+        assertEquals(0, reader.reloads);
+
+        file.setLastModified(oneHourAgo + 1000);
+        reader.reload();
+        assertEquals(0, reader.reloads);
+
+        Files.write("key=other", file, Charsets.UTF_8);
+        file.setLastModified(oneHourAgo + 2000);
+        reader.reload();
+        assertEquals(1, reader.reloads);
+        assertEquals("other", reader.getProperties().getProperty("key"));
+
+        file.delete();
+        folder.delete();
+    }
+
     private static class TestReloadingPropertiesReader extends ReloadingPropertiesReader {
 
+        int reloads;
+
         public TestReloadingPropertiesReader() {
             super(null,null);
         }
 
+        public TestReloadingPropertiesReader(final PluginExecutorService pluginExecutorService, final SystemInformation systemInformation) {
+            super(pluginExecutorService, systemInformation);
+        }
+
+        @Override
+        void afterReload(final MapDifference<String, String> difference) {
+            reloads++;
+        }
+
         @Override
         public String getFilename() {
             return "Test";
@@ -24,6 +24,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -82,4 +83,19 @@ public class HashSaltUtilTest {
 
 
     }
+
+    @Test
+    public void test_salt_bytes_ascii() throws Exception {
+        assertArrayEquals("salt".getBytes(Charsets.UTF_8), HashSaltUtil.toSaltBytes("salt"));
+    }
+
+    @Test
+    public void test_salt_bytes_cut_to_string_length() throws Exception {
+        final String salt = "\u00e4bc";
+
+        final byte[] saltBytes = HashSaltUtil.toSaltBytes(salt);
+
+        assertEquals(salt.length(), saltBytes.length);
+        assertArrayEquals(new byte[]{(byte) 0xc3, (byte) 0xa4, 'b'}, saltBytes);
+    }
 }
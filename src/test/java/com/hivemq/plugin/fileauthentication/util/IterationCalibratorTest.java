@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import com.hivemq.plugin.fileauthentication.authentication.PasswordComparator;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IterationCalibratorTest {
+
+    @Test
+    public void test_recommend_iterations() throws Exception {
+        assertEquals(10000, IterationCalibrator.recommendIterations(1000, TimeUnit.MILLISECONDS.toNanos(10)));
+        assertEquals(1, IterationCalibrator.recommendIterations(1000, 10));
+        assertEquals(Integer.MAX_VALUE, IterationCalibrator.recommendIterations(0.001, TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void test_measure_iteration() throws Exception {
+        assertTrue(IterationCalibrator.measureNanosPerIteration(new PasswordComparator(), "MD5") > 0);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 dc-square GmbH
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.hivemq.plugin.fileauthentication.util;
+
+import com.google.common.base.Charsets;
+import com.hivemq.plugin.fileauthentication.authentication.ParsedCredential;
+import com.hivemq.plugin.fileauthentication.exception.PasswordFormatException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PhcFormatUtilTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void test_is_phc_format() throws Exception {
+        assertTrue(PhcFormatUtil.isPhcFormat("$sha-512$100$c2FsdA$aGFzaA"));
+        assertFalse(PhcFormatUtil.isPhcFormat("c2FsdA==$aGFzaA=="));
+        assertFalse(PhcFormatUtil.isPhcFormat(null));
+    }
+
+    @Test
+    public void test_parse_digest() throws Exception {
+        final ParsedCredential credential = PhcFormatUtil.parse("$sha-512$100$c2FsdA==$aGFzaA==");
+
+        assertTrue(credential.isHashed());
+        assertEquals("SHA-512", credential.getAlgorithm());
+        assertEquals(100, credential.getIterations());
+        assertArrayEquals("salt".getBytes(Charsets.UTF_8), credential.getSalt());
+        assertArrayEquals("hash".getBytes(Charsets.UTF_8), credential.getHash());
+    }
+
+    @Test
+    public void test_parse_pbkdf2_without_padding() throws Exception {
+        final ParsedCredential credential = PhcFormatUtil.parse("$pbkdf2-sha256$310000$c2FsdA$aGFzaA");
+
+        assertEquals("PBKDF2WithHmacSHA256", credential.getAlgorithm());
+        assertEquals(310000, credential.getIterations());
+        assertArrayEquals("salt".getBytes(Charsets.UTF_8), credential.getSalt());
+        assertArrayEquals("hash".getBytes(Charsets.UTF_8), credential.getHash());
+    }
+
+    @Test
+    public void test_format_and_parse() throws Exception {
+        final byte[] salt = {1, 2, 3, 4, 5};
+        final byte[] hash = {6, 7, 8};
+
+        final String password = PhcFormatUtil.format("PBKDF2WithHmacSHA512", 1000, salt, hash);
+        assertEquals("$pbkdf2-sha512$1000$AQIDBAU$BgcI", password);
+
+        final ParsedCredential credential = PhcFormatUtil.parse(password);
+        assertEquals("PBKDF2WithHmacSHA512", credential.getAlgorithm());
+        assertEquals(1000, credential.getIterations());
+        assertArrayEquals(salt, credential.getSalt());
+        assertArrayEquals(hash, credential.getHash());
+    }
+
+    @Test
+    public void test_missing_part() throws Exception {
+        exception.expect(PasswordFormatException.class);
+        PhcFormatUtil.parse("$sha-512$100$aGFzaA");
+    }
+
+    @Test
+    public void test_iterations_not_a_number() throws Exception {
+        exception.expect(PasswordFormatException.class);
+        PhcFormatUtil.parse("$sha-512$many$c2FsdA$aGFzaA");
+    }
+
+    @Test
+    public void test_no_iterations() throws Exception {
+        exception.expect(PasswordFormatException.class);
+        PhcFormatUtil.parse("$sha-512$0$c2FsdA$aGFzaA");
+    }
+
+    @Test
+    public void test_invalid_base64() throws Exception {
+        exception.expect(PasswordFormatException.class);
+        PhcFormatUtil.parse("$sha-512$100$c2FsdA$a*GFzaA");
+    }
+
+    @Test
+    public void test_pbkdf2_without_salt() throws Exception {
+        exception.expect(PasswordFormatException.class);
+        PhcFormatUtil.parse("$pbkdf2-sha256$100$$aGFzaA");
+    }
+}